@@ -0,0 +1,43 @@
+package org.waabox.log.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.*;
+
+/** Runs the benchmarks with the GC profiler enabled.
+ *
+ * Usage, from the project root once it's packaged:
+ *
+ *   java -jar benchmarks/target/benchmarks.jar [jmh options]
+ *
+ * The jar holds the structure index of the module, so StructureBenchmark
+ * finds benchmark-example.log_structure.json within it.
+ *
+ * It accepts the same options as the JMH command line, for example a
+ * regular expression with the benchmarks to run; all of them are run if
+ * there are no arguments.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+public final class BenchmarkRunner {
+
+  /** Utility class.*/
+  private BenchmarkRunner() {
+  }
+
+  /** Runs the benchmarks.
+   * @param args the JMH command line options.
+   * @throws CommandLineOptionException if the options are not valid.
+   * @throws RunnerException if the benchmarks fail.
+   */
+  public static void main(final String[] args)
+      throws CommandLineOptionException, RunnerException {
+    Options options = new OptionsBuilder()
+        .parent(new CommandLineOptions(args))
+        .addProfiler(GCProfiler.class)
+        .build();
+    new Runner(options).run();
+  }
+
+}
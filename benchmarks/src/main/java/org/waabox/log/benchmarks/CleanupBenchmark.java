@@ -0,0 +1,37 @@
+package org.waabox.log.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import org.waabox.log.DomainLogger;
+
+/** Benchmarks the clean up of the loggers at the end of a request.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CleanupBenchmark {
+
+  /** The number of entries of the trace.*/
+  @Param({"10", "1000", "100000"})
+  private int entries;
+
+  /** Logs the trace to clean up before each call.*/
+  @Setup(Level.Invocation)
+  public void setUp() {
+    Traces.create(entries);
+  }
+
+  /** Cleans up the logger.*/
+  @Benchmark
+  public void cleanup() {
+    DomainLogger.cleanup();
+  }
+
+}
@@ -0,0 +1,105 @@
+package org.waabox.log.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.*;
+
+import org.waabox.log.DomainLogger;
+import org.waabox.log.TraceContext;
+
+/** Benchmarks many threads logging into one shared DomainLogger.
+ *
+ * Run it with the number of threads to measure, for example
+ * {@code ConcurrentBenchmark -t 16}, and compare the throughput of the
+ * concurrent logger against the default one, that links every entry into
+ * the tree under its lock.
+ *
+ * Every thread generates the tree once in a while, merging the pending
+ * entries so the buffers of the concurrent logger stay bounded.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrentBenchmark {
+
+  /** The number of distinct messages logged by each thread.*/
+  private static final int MESSAGES = 1024;
+
+  /** The number of log calls between generations of the tree.*/
+  private static final int GENERATE_EVERY = 64 * 1024;
+
+  /** Whether the logger is concurrent or not.*/
+  @Param({"true", "false"})
+  private boolean concurrent;
+
+  /** The shared logger under test.*/
+  private DomainLogger logger;
+
+  /** The context that holds the shared logger.*/
+  private TraceContext context;
+
+  /** The number of threads that got a worker.*/
+  private final AtomicInteger workers = new AtomicInteger();
+
+  /** Creates the shared logger of the iteration.*/
+  @Setup(Level.Iteration)
+  public void setUp() {
+    context = TraceContext.create();
+    logger = context.get(Traces.APPENDER);
+    if (concurrent) {
+      logger.concurrent();
+    }
+  }
+
+  /** Drops the trace of the iteration.*/
+  @TearDown(Level.Iteration)
+  public void tearDown() {
+    logger.generate();
+    context.clear();
+  }
+
+  /** The state of each thread.*/
+  @State(Scope.Thread)
+  public static class Worker {
+
+    /** The stack this thread logs into.*/
+    private String stack;
+
+    /** The messages to log, it's never null.*/
+    private final String[] messages = new String[MESSAGES];
+
+    /** The number of log calls done by this thread.*/
+    private int count;
+
+    /** Creates the stack and the messages of this thread.
+     * @param benchmark the shared state.
+     */
+    @Setup(Level.Trial)
+    public void setUp(final ConcurrentBenchmark benchmark) {
+      stack = "customer.worker" + benchmark.workers.getAndIncrement()
+          + ".orders.order.pricing";
+      for (int i = 0; i < MESSAGES; i++) {
+        messages[i] = String.valueOf(i);
+      }
+    }
+  }
+
+  /** Logs from every thread into the shared logger.
+   * @param worker the state of the thread.
+   */
+  @Benchmark
+  public void log(final Worker worker) {
+    int count = worker.count++;
+    logger.log(worker.stack, worker.messages[count & (MESSAGES - 1)]);
+    if ((count & (GENERATE_EVERY - 1)) == GENERATE_EVERY - 1) {
+      logger.generate();
+    }
+  }
+
+}
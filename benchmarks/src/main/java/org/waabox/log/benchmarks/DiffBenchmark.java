@@ -0,0 +1,61 @@
+package org.waabox.log.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import org.waabox.log.DomainLog;
+import org.waabox.log.DomainLogger;
+import org.waabox.log.TraceDiff;
+
+/** Benchmarks the comparison of two traces.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiffBenchmark {
+
+  /** The number of entries of each trace.*/
+  @Param({"1000", "100000"})
+  private int entries;
+
+  /** The old trace.*/
+  private DomainLog before;
+
+  /** The new trace, with one more entry than the old one.*/
+  private DomainLog after;
+
+  /** Logs the traces to compare.*/
+  @Setup(Level.Trial)
+  public void setUp() {
+    DomainLogger.cleanup();
+    before = Traces.create(entries).generate();
+    DomainLogger.cleanup();
+    DomainLogger logger = Traces.create(entries);
+    logger.log("customer.orders.order0.shipping", "5");
+    after = logger.generate();
+    DomainLogger.cleanup();
+  }
+
+  /** Compares two traces that differ in a single entry.
+   * @return the differences.
+   */
+  @Benchmark
+  public TraceDiff compare() {
+    return TraceDiff.compare(before, after);
+  }
+
+  /** Computes the fingerprint of a trace.
+   * @return the fingerprint.
+   */
+  @Benchmark
+  public long fingerprint() {
+    return TraceDiff.fingerprint(after);
+  }
+
+}
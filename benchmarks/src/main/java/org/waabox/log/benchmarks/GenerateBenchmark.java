@@ -0,0 +1,59 @@
+package org.waabox.log.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import org.waabox.log.DomainLog;
+import org.waabox.log.DomainLogger;
+
+/** Benchmarks the generation of the DomainLog tree.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GenerateBenchmark {
+
+  /** The number of entries of the trace.*/
+  @Param({"10", "1000", "100000"})
+  private int entries;
+
+  /** The logger that holds the trace.*/
+  private DomainLogger logger;
+
+  /** Logs the trace to generate.*/
+  @Setup(Level.Trial)
+  public void setUp() {
+    DomainLogger.cleanup();
+    logger = Traces.create(entries);
+  }
+
+  /** Drops the trace.*/
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    DomainLogger.cleanup();
+  }
+
+  /** Generates the tree of an already logged trace.
+   * @return the tree.
+   */
+  @Benchmark
+  public DomainLog generate() {
+    return logger.generate();
+  }
+
+  /** Logs a whole trace and generates its tree.
+   * @return the tree.
+   */
+  @Benchmark
+  public DomainLog logAndGenerate() {
+    DomainLogger.cleanup();
+    return Traces.create(entries).generate();
+  }
+
+}
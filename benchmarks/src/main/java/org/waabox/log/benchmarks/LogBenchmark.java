@@ -0,0 +1,96 @@
+package org.waabox.log.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import org.waabox.log.DomainLogger;
+
+/** Benchmarks DomainLogger.log with different kind of stacks.
+ *
+ * Each invocation logs a batch of distinct messages into a fresh logger,
+ * the logger is cleaned up before every invocation, out of the measured
+ * time, so every log call but the ones of {@link #duplicates()} adds a new
+ * entry instead of hitting the duplicate check. The scores are per log
+ * call.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogBenchmark {
+
+  /** The number of log calls of each invocation, all with a distinct
+   * message.*/
+  private static final int BATCH = 1024;
+
+  /** The messages to log, it's never null.*/
+  private final String[] messages = new String[BATCH];
+
+  /** The logger under test.*/
+  private DomainLogger logger;
+
+  /** Creates the messages.*/
+  @Setup(Level.Trial)
+  public void messages() {
+    for (int i = 0; i < BATCH; i++) {
+      messages[i] = String.valueOf(i);
+    }
+  }
+
+  /** Starts a new trace for the invocation.*/
+  @Setup(Level.Invocation)
+  public void setUp() {
+    DomainLogger.cleanup();
+    logger = DomainLogger.get("benchmark");
+    logger.registerGlobal("customer", "waabox");
+  }
+
+  /** Drops the trace of the last invocation.*/
+  @TearDown(Level.Iteration)
+  public void tearDown() {
+    DomainLogger.cleanup();
+  }
+
+  /** Logs into a single level stack.*/
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public void flat() {
+    for (int i = 0; i < BATCH; i++) {
+      logger.log("orders", messages[i]);
+    }
+  }
+
+  /** Logs into an eight levels stack.*/
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public void deep() {
+    for (int i = 0; i < BATCH; i++) {
+      logger.log("customer.orders.order.items.item.pricing.rules.rule",
+          messages[i]);
+    }
+  }
+
+  /** Logs into a stack that references a global variable.*/
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public void globals() {
+    for (int i = 0; i < BATCH; i++) {
+      logger.log("${customer}.orders.order.pricing", messages[i]);
+    }
+  }
+
+  /** Logs the same stack and message over and over.*/
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public void duplicates() {
+    for (int i = 0; i < BATCH; i++) {
+      logger.log("customer.orders.order.pricing", "10");
+    }
+  }
+
+}
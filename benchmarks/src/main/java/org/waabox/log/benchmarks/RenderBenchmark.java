@@ -0,0 +1,50 @@
+package org.waabox.log.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import org.waabox.log.DomainLog;
+import org.waabox.log.DomainLogger;
+
+/** Benchmarks the rendering of a DomainLog tree.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderBenchmark {
+
+  /** The number of entries of the trace.*/
+  @Param({"10", "1000", "100000"})
+  private int entries;
+
+  /** The tree to render.*/
+  private DomainLog tree;
+
+  /** Logs the trace to render.*/
+  @Setup(Level.Trial)
+  public void setUp() {
+    DomainLogger.cleanup();
+    tree = Traces.create(entries).generate();
+  }
+
+  /** Drops the trace.*/
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    DomainLogger.cleanup();
+  }
+
+  /** Renders the tree as string.
+   * @return the rendered tree.
+   */
+  @Benchmark
+  public String string() {
+    return tree.toString();
+  }
+
+}
@@ -0,0 +1,67 @@
+package org.waabox.log.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import org.waabox.log.DomainLogger;
+
+/** Benchmarks the whole life of the trace of a request: getting the
+ * logger, logging a few entries, generating the tree and cleaning up.
+ *
+ * Compare the allocation rate reported by the GC profiler with and
+ * without recycling the loggers.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestBenchmark {
+
+  /** The high-water mark of the recycled loggers, 0 to not recycle.*/
+  @Param({"0", "1000"})
+  private int highWaterMark;
+
+  /** The messages logged by each request, it's never null.*/
+  private final String[] messages = new String[20];
+
+  /** The stack of each message, it's never null.*/
+  private final String[] stacks = new String[20];
+
+  /** Turns recycling on or off and creates the messages.*/
+  @Setup(Level.Trial)
+  public void setUp() {
+    DomainLogger.recycle(highWaterMark);
+    for (int i = 0; i < messages.length; i++) {
+      messages[i] = String.valueOf(i);
+      stacks[i] = "${customer}.orders.order" + (i & 3) + ".pricing";
+    }
+  }
+
+  /** Turns recycling off.*/
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    DomainLogger.cleanup();
+    DomainLogger.recycle(0);
+  }
+
+  /** Traces a request.
+   * @param blackhole consumes the generated tree.
+   */
+  @Benchmark
+  public void request(final Blackhole blackhole) {
+    DomainLogger logger = DomainLogger.get(Traces.APPENDER);
+    logger.registerGlobal("customer", "waabox");
+    for (int i = 0; i < messages.length; i++) {
+      logger.log(stacks[i], messages[i]);
+    }
+    blackhole.consume(logger.generate());
+    DomainLogger.cleanup();
+  }
+
+}
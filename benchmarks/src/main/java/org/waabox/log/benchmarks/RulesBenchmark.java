@@ -0,0 +1,60 @@
+package org.waabox.log.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.*;
+
+import org.waabox.log.DomainLogger;
+import org.waabox.log.LogRules;
+
+/** Benchmarks the cost of the log rules on the entries they filter out.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RulesBenchmark {
+
+  /** The logger under test.*/
+  private DomainLogger logger;
+
+  /** Creates the message, only called if the entry is logged.*/
+  private final Supplier<String> message = new Supplier<String>() {
+    @Override
+    public String get() {
+      return String.format("total %d", 10);
+    }
+  };
+
+  /** Installs the rules.*/
+  @Setup(Level.Trial)
+  public void setUp() {
+    LogRules rules = LogRules.create();
+    for (int i = 0; i < 32; i++) {
+      rules.sample("customer.orders.order" + i, 10);
+    }
+    rules.disable("customer.orders.order.items.item.pricing.rules");
+    DomainLogger.rules(rules);
+    logger = DomainLogger.get(Traces.APPENDER);
+  }
+
+  /** Removes the rules.*/
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    DomainLogger.rules(null);
+    DomainLogger.cleanup();
+  }
+
+  /** Logs into an eight levels stack that the rules turn off.*/
+  @Benchmark
+  public void disabled() {
+    logger.log("customer.orders.order.items.item.pricing.rules.rule",
+        message);
+  }
+
+}
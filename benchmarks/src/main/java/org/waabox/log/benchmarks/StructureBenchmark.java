@@ -0,0 +1,75 @@
+package org.waabox.log.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import org.waabox.log.DomainLogger;
+import org.waabox.log.Structure;
+import org.waabox.log.StructureHandle;
+
+/** Benchmarks the creation and binding of structures, see
+ * benchmark-example.log_structure.json.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StructureBenchmark {
+
+  /** The handle of the structure, it's never null.*/
+  private static final StructureHandle EXAMPLE =
+      StructureHandle.named("benchmarkExample");
+
+  /** The logger, it's never null.*/
+  private DomainLogger logger;
+
+  /** Loads the structures before measuring.*/
+  @Setup(Level.Trial)
+  public void setUp() {
+    Structure.named("benchmarkExample");
+    logger = DomainLogger.get("structure-benchmark");
+  }
+
+  /** Removes the logger.*/
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    DomainLogger.cleanup();
+  }
+
+  /** Binds all the variables of the structure.
+   * @return the bound structure stack.
+   */
+  @Benchmark
+  public String named() {
+    return Structure.named("benchmarkExample")
+        .with("customer", "waabox")
+        .with("order", "1234")
+        .with("rule", "discount")
+        .getStack();
+  }
+
+  /** Logs the structure binding its variables, the entry is already in
+   * the tree after the first call.
+   */
+  @Benchmark
+  public void logStructure() {
+    logger.log(Structure.named("benchmarkExample")
+        .with("customer", "waabox")
+        .with("order", "1234")
+        .with("rule", "discount"), "10");
+  }
+
+  /** Logs the structure through its handle, the entry is already in the
+   * tree after the first call.
+   */
+  @Benchmark
+  public void logHandle() {
+    logger.log(EXAMPLE, "10", "waabox", "1234", "discount");
+  }
+
+}
@@ -0,0 +1,35 @@
+package org.waabox.log.benchmarks;
+
+import org.waabox.log.DomainLogger;
+
+/** Creates the traces used by the benchmarks.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+final class Traces {
+
+  /** The appender of the benchmark traces.*/
+  static final String APPENDER = "benchmark";
+
+  /** The number of orders the entries are spread through.*/
+  private static final int ORDERS = 100;
+
+  /** Utility class.*/
+  private Traces() {
+  }
+
+  /** Logs the given number of entries into the benchmark logger of the
+   * current thread, each one with a different value.
+   * @param entries the number of entries to log.
+   * @return the logger, never null.
+   */
+  static DomainLogger create(final int entries) {
+    DomainLogger logger = DomainLogger.get(APPENDER);
+    for (int i = 0; i < entries; i++) {
+      logger.log("customer.orders.order" + (i % ORDERS) + ".pricing",
+          String.valueOf(i));
+    }
+    return logger;
+  }
+
+}
@@ -0,0 +1,83 @@
+package org.waabox.log;
+
+import org.apache.commons.lang3.Validate;
+
+/** What a {@link TracePipeline} does with the traces handed off while its
+ * buffer is full.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+public final class Backpressure {
+
+  /** The kind of policy.*/
+  enum Kind {
+    /** Drops the trace.*/
+    DROP,
+    /** Waits for room in the buffer.*/
+    BLOCK,
+    /** Keeps one in N traces once the buffer is half full.*/
+    SAMPLE
+  }
+
+  /** The drop policy, there's no state so it's shared.*/
+  private static final Backpressure DROP = new Backpressure(Kind.DROP, 1);
+
+  /** The block policy, there's no state so it's shared.*/
+  private static final Backpressure BLOCK = new Backpressure(Kind.BLOCK, 1);
+
+  /** The kind of policy, it's never null.*/
+  private final Kind kind;
+
+  /** The rate of traces kept when sampling, one in rate.*/
+  private final int rate;
+
+  /** Creates a new policy.
+   * @param theKind the kind of policy.
+   * @param theRate the sampling rate.
+   */
+  private Backpressure(final Kind theKind, final int theRate) {
+    kind = theKind;
+    rate = theRate;
+  }
+
+  /** Drops the traces handed off while the buffer is full, the request
+   * threads never wait.
+   * @return the policy, never null.
+   */
+  public static Backpressure drop() {
+    return DROP;
+  }
+
+  /** Makes the request threads wait until there's room in the buffer, no
+   * trace is lost while the pipeline is open.
+   * @return the policy, never null.
+   */
+  public static Backpressure block() {
+    return BLOCK;
+  }
+
+  /** Keeps only one in every rate traces once the buffer is half full,
+   * and drops them when it's full.
+   * @param rate the number of traces to keep one of, greater than 0.
+   * @return the policy, never null.
+   */
+  public static Backpressure sample(final int rate) {
+    Validate.isTrue(rate > 0, "The rate must be greater than 0");
+    return new Backpressure(Kind.SAMPLE, rate);
+  }
+
+  /** Retrieves the kind of policy.
+   * @return the kind, never null.
+   */
+  Kind kind() {
+    return kind;
+  }
+
+  /** Retrieves the sampling rate.
+   * @return one in rate traces are kept while sampling.
+   */
+  int rate() {
+    return rate;
+  }
+
+}
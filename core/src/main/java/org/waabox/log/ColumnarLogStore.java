@@ -0,0 +1,608 @@
+package org.waabox.log;
+
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/** Keeps the entries of a tree in columns of direct buffers, off the
+ * heap, instead of one DomainLog object per entry.
+ *
+ * Each entry is a row of four int columns, the path id of its stack,
+ * the offset and length of its value in an arena of UTF-8 bytes, and the
+ * next sibling of the entry. The stack entries of each path, and their
+ * first and last child, are kept in small arrays indexed by path id, as
+ * there are much less paths than entries. An open addressing table of
+ * row numbers, also off the heap, detects the duplicated entries.
+ *
+ * So each entry takes 16 bytes plus the bytes of its value and about 8
+ * bytes of the table, and a logger with hundreds of thousands of entries
+ * holds a handful of buffers instead of millions of small objects. The
+ * DomainLog API is provided by {@link DomainLogView}s, created only when
+ * the tree is traversed.
+ *
+ * Unlike the linked tree, the rows are never removed, so the keep latest
+ * policy of the {@link LogLimits} drops the newest entries instead of
+ * evicting the oldest ones, and the stacks that end with '.' are stored
+ * without their trailing dots. Row 0 is the root.
+ *
+ * This class is not thread safe, the tree that owns it synchronizes it.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+final class ColumnarLogStore {
+
+  /** The initial number of rows.*/
+  private static final int INITIAL_ROWS = 1024;
+
+  /** The value offset of the stack entries.*/
+  private static final int STACK = -1;
+
+  /** The dictionary of the tree, it's never null.*/
+  private final StackDictionary dictionary;
+
+  /** The path id of each row, it's never null.*/
+  private ByteBuffer paths;
+
+  /** The offset of the value of each row in the arena, STACK for stack
+   * entries, it's never null.*/
+  private ByteBuffer offsets;
+
+  /** The length in bytes of the value of each row, it's never null.*/
+  private ByteBuffer lengths;
+
+  /** The next sibling of each row, 0 for the last child, it's never
+   * null.*/
+  private ByteBuffer siblings;
+
+  /** The UTF-8 bytes of the values, it's never null.*/
+  private ByteBuffer arena;
+
+  /** The rows plus one of the open addressing table of the entries, 0 for
+   * the empty slots, it's never null.*/
+  private ByteBuffer table;
+
+  /** The number of slots of the table minus one, a power of 2 minus
+   * one.*/
+  private int mask;
+
+  /** The number of rows, the root included.*/
+  private int rows;
+
+  /** The number of bytes used of the arena.*/
+  private int used;
+
+  /** The row of the stack entry of each path, 0 if it was not declared,
+   * it's never null.*/
+  private int[] declared = new int[64];
+
+  /** The first child of the stack entry of each path, 0 if it has none,
+   * indexed by path id plus one, the root first, it's never null.*/
+  private int[] firstChild = new int[65];
+
+  /** The last child of the stack entry of each path, 0 if it has none,
+   * indexed by path id plus one, the root first, it's never null.*/
+  private int[] lastChild = new int[65];
+
+  /** The number of values of each path, for the keep first policy, it's
+   * never null.*/
+  private int[] perStack = new int[64];
+
+  /** The limits of the tree, it's never null.*/
+  private LogLimits limits = LogLimits.NONE;
+
+  /** The metrics of the appender of the tree, null if metrics are off.*/
+  private LoggerMetrics metrics;
+
+  /** The estimated bytes of the entries, as the linked tree estimates
+   * them.*/
+  private long bytes;
+
+  /** The number of entries dropped because of the limits.*/
+  private int truncated;
+
+  /** The snapshots of the views taken since the last clear, to know the
+   * buffers that a view still reads, it's never null.*/
+  private final List<WeakReference<Columns>> snapshots = new ArrayList<>();
+
+  /** The last view, null if the store changed since then. It's weakly
+   * held, so it does not keep its buffers from being reused once nothing
+   * else holds it.*/
+  private WeakReference<DomainLogView> view;
+
+  /** Creates a new empty store.
+   * @param theDictionary the dictionary of the tree, cannot be null.
+   */
+  ColumnarLogStore(final StackDictionary theDictionary) {
+    dictionary = theDictionary;
+    allocate();
+  }
+
+  /** Allocates the initial buffers, with only the root.*/
+  private void allocate() {
+    allocateRows();
+    arena = allocate(INITIAL_ROWS * 16);
+    table = allocate(INITIAL_ROWS * 2 * 4);
+    mask = INITIAL_ROWS * 2 - 1;
+    root();
+  }
+
+  /** Allocates the initial columns of the rows, they always grow
+   * together.*/
+  private void allocateRows() {
+    paths = allocate(INITIAL_ROWS * 4);
+    offsets = allocate(INITIAL_ROWS * 4);
+    lengths = allocate(INITIAL_ROWS * 4);
+    siblings = allocate(INITIAL_ROWS * 4);
+  }
+
+  /** Allocates a direct buffer.
+   * @param capacity the capacity in bytes.
+   * @return the buffer, in the native order, never null.
+   */
+  private static ByteBuffer allocate(final int capacity) {
+    return ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+  }
+
+  /** Copies a buffer into a larger one.
+   * @param buffer the buffer.
+   * @param capacity the capacity of the new buffer.
+   * @param length the number of bytes to copy.
+   * @return the new buffer, never null.
+   */
+  private static ByteBuffer grow(final ByteBuffer buffer, final int capacity,
+      final int length) {
+    ByteBuffer copy = allocate(capacity);
+    ByteBuffer source = buffer.duplicate();
+    source.limit(length);
+    source.position(0);
+    copy.put(source);
+    return copy;
+  }
+
+  /** Adds the root row.*/
+  private void root() {
+    paths.putInt(0, StackDictionary.NONE);
+    offsets.putInt(0, STACK);
+    siblings.putInt(0, 0);
+    rows = 1;
+  }
+
+  /** Adds a message into the given path, declaring the path and its
+   * parents if needed. The same message is added only once per path.
+   * @param path the path id, NONE to drop the message.
+   * @param message the message, cannot be null.
+   */
+  void add(final int path, final String message) {
+    if (path == StackDictionary.NONE) {
+      return;
+    }
+    int offset = encode(message);
+    int length = used - offset;
+    int hash = hash(path, offset, length);
+    int slot = hash & mask;
+    int row;
+    while ((row = table.getInt(slot << 2)) != 0) {
+      if (same(row - 1, path, offset, length)) {
+        used = offset;
+        if (metrics != null) {
+          metrics.duplicate();
+        }
+        return;
+      }
+      slot = (slot + 1) & mask;
+    }
+    if (limits != LogLimits.NONE && !fits(path, message)) {
+      used = offset;
+      truncate();
+      return;
+    }
+    declare(path);
+    row = append(path, offset, length);
+    table.putInt(slot << 2, row + 1);
+    if (rows * 2 > mask + 1) {
+      rehash();
+    }
+    if (metrics != null) {
+      metrics.entry();
+    }
+    if (limits != LogLimits.NONE) {
+      bytes += (dictionary.stack(path).length() + message.length()) * 2L;
+      if (path >= perStack.length) {
+        perStack = Arrays.copyOf(perStack, Math.max(path + 1,
+            perStack.length * 2));
+      }
+      perStack[path]++;
+    }
+  }
+
+  /** Checks if the limits leave room for a new value.
+   * @param path the path id of the value.
+   * @param message the value.
+   * @return true if the value can be added.
+   */
+  private boolean fits(final int path, final String message) {
+    if (limits.depth() > 0 && dictionary.depth(path) > limits.depth()) {
+      return false;
+    }
+    if (limits.policy() == LogLimits.Policy.KEEP_FIRST
+        && path < perStack.length && perStack[path] >= limits.perStack()) {
+      return false;
+    }
+    return fits(path, 0,
+        (dictionary.stack(path).length() + message.length()) * 2L);
+  }
+
+  /** Checks if the limits leave room for a value and the stack entries
+   * that declaring its path adds.
+   * @param path the path id that is declared, NONE if there is none.
+   * @param missing the number of paths below it that are not in the
+   *  dictionary yet.
+   * @param cost the bytes of the value and of the missing paths.
+   * @return true if the rows can be added.
+   */
+  boolean fits(final int path, final int missing, final long cost) {
+    int count = 1 + missing;
+    long total = cost;
+    int current = path;
+    while (current != StackDictionary.NONE
+        && (current >= declared.length || declared[current] == 0)) {
+      count++;
+      total += dictionary.stack(current).length() * 2L;
+      current = dictionary.parent(current);
+    }
+    return (limits.entries() <= 0 || rows - 1 + count <= limits.entries())
+        && (limits.bytes() <= 0 || bytes + total <= limits.bytes());
+  }
+
+  /** Counts an entry dropped because of the limits.*/
+  void truncate() {
+    truncated++;
+    view = null;
+    if (metrics != null) {
+      metrics.truncate();
+    }
+  }
+
+  /** Declares the given path and its parents, adding a stack entry for
+   * each one that was not declared yet.
+   * @param path the path id.
+   */
+  private void declare(final int path) {
+    if (path < declared.length && declared[path] != 0) {
+      return;
+    }
+    int parent = dictionary.parent(path);
+    if (parent != StackDictionary.NONE) {
+      declare(parent);
+    }
+    int row = append(path, STACK, 0);
+    if (path >= declared.length) {
+      int capacity = Math.max(path + 1, declared.length * 2);
+      declared = Arrays.copyOf(declared, capacity);
+      firstChild = Arrays.copyOf(firstChild, capacity + 1);
+      lastChild = Arrays.copyOf(lastChild, capacity + 1);
+    }
+    declared[path] = row;
+    if (limits != LogLimits.NONE) {
+      bytes += dictionary.stack(path).length() * 2L;
+    }
+    if (metrics != null) {
+      metrics.stack();
+    }
+  }
+
+  /** Appends a row below the stack entry of its parent, the stack entry
+   * of its own path for values.
+   * @param path the path id.
+   * @param offset the offset of the value, STACK for stack entries.
+   * @param length the length of the value.
+   * @return the row, never 0.
+   */
+  private int append(final int path, final int offset, final int length) {
+    if ((rows + 1) * 4 > paths.capacity()) {
+      int capacity = paths.capacity() * 2;
+      paths = grow(paths, capacity, rows * 4);
+      offsets = grow(offsets, capacity, rows * 4);
+      lengths = grow(lengths, capacity, rows * 4);
+      siblings = grow(siblings, capacity, rows * 4);
+    }
+    int row = rows++;
+    paths.putInt(row << 2, path);
+    offsets.putInt(row << 2, offset);
+    lengths.putInt(row << 2, length);
+    siblings.putInt(row << 2, 0);
+    int parent = path;
+    if (offset == STACK) {
+      parent = dictionary.parent(path);
+    }
+    // The children are indexed by path id plus one, the root is 0.
+    int index = parent + 1;
+    if (firstChild[index] == 0) {
+      firstChild[index] = row;
+    } else {
+      siblings.putInt(lastChild[index] << 2, row);
+    }
+    lastChild[index] = row;
+    view = null;
+    return row;
+  }
+
+  /** Encodes a message as UTF-8 at the end of the arena.
+   * @param message the message.
+   * @return the offset of the message, the arena is used up to its end.
+   */
+  private int encode(final String message) {
+    int length = message.length();
+    if (used + length * 3L > arena.capacity()) {
+      long capacity = Math.max(arena.capacity() * 2L, used + length * 3L);
+      if (capacity > Integer.MAX_VALUE) {
+        throw new IllegalStateException("The values take more than 2GB");
+      }
+      arena = grow(arena, (int) capacity, used);
+    }
+    int offset = used;
+    int position = used;
+    for (int i = 0; i < length; i++) {
+      char c = message.charAt(i);
+      if (c < 0x80) {
+        arena.put(position++, (byte) c);
+      } else if (c < 0x800) {
+        arena.put(position++, (byte) (0xc0 | (c >> 6)));
+        arena.put(position++, (byte) (0x80 | (c & 0x3f)));
+      } else if (Character.isHighSurrogate(c) && i + 1 < length
+          && Character.isLowSurrogate(message.charAt(i + 1))) {
+        int code = Character.toCodePoint(c, message.charAt(++i));
+        arena.put(position++, (byte) (0xf0 | (code >> 18)));
+        arena.put(position++, (byte) (0x80 | ((code >> 12) & 0x3f)));
+        arena.put(position++, (byte) (0x80 | ((code >> 6) & 0x3f)));
+        arena.put(position++, (byte) (0x80 | (code & 0x3f)));
+      } else if (Character.isSurrogate(c)) {
+        arena.put(position++, (byte) '?');
+      } else {
+        arena.put(position++, (byte) (0xe0 | (c >> 12)));
+        arena.put(position++, (byte) (0x80 | ((c >> 6) & 0x3f)));
+        arena.put(position++, (byte) (0x80 | (c & 0x3f)));
+      }
+    }
+    used = position;
+    return offset;
+  }
+
+  /** Hashes a value of a path, FNV-1a over its bytes.
+   * @param path the path id.
+   * @param offset the offset of the value.
+   * @param length the length of the value.
+   * @return the hash.
+   */
+  private int hash(final int path, final int offset, final int length) {
+    int hash = 0x811c9dc5 ^ path;
+    for (int i = offset; i < offset + length; i++) {
+      hash ^= arena.get(i);
+      hash *= 0x01000193;
+    }
+    return hash ^ (hash >>> 16);
+  }
+
+  /** Checks if a row holds the given value of a path.
+   * @param row the row.
+   * @param path the path id.
+   * @param offset the offset of the value.
+   * @param length the length of the value.
+   * @return true if it's the same entry.
+   */
+  private boolean same(final int row, final int path, final int offset,
+      final int length) {
+    int other = offsets.getInt(row << 2);
+    if (paths.getInt(row << 2) != path || other == STACK
+        || lengths.getInt(row << 2) != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (arena.get(other + i) != arena.get(offset + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Doubles the table, adding the values again.*/
+  private void rehash() {
+    int capacity = (mask + 1) * 2;
+    table = allocate(capacity * 4);
+    mask = capacity - 1;
+    for (int row = 1; row < rows; row++) {
+      int offset = offsets.getInt(row << 2);
+      if (offset == STACK) {
+        continue;
+      }
+      int slot = hash(paths.getInt(row << 2), offset,
+          lengths.getInt(row << 2)) & mask;
+      while (table.getInt(slot << 2) != 0) {
+        slot = (slot + 1) & mask;
+      }
+      table.putInt(slot << 2, row + 1);
+    }
+  }
+
+  /** Sets the metrics this store records into.
+   * @param theMetrics the metrics, null to not record them.
+   */
+  void metrics(final LoggerMetrics theMetrics) {
+    metrics = theMetrics;
+  }
+
+  /** Sets the limits of this store, from now on.
+   * @param theLimits the limits, cannot be null.
+   */
+  void limits(final LogLimits theLimits) {
+    limits = theLimits;
+  }
+
+  /** Retrieves an immutable view of the entries as they are now.
+   * @return the root of the view, never null.
+   */
+  DomainLog view() {
+    DomainLogView theView = view == null ? null : view.get();
+    if (theView == null) {
+      DomainLog marker = null;
+      if (truncated > 0) {
+        marker = new DomainLog(LogLimits.TRUNCATED,
+            String.valueOf(truncated));
+      }
+      int size = dictionary.size();
+      Columns snapshot = new Columns(dictionary.stacks(),
+          Arrays.copyOf(firstChild, size + 1), paths, offsets, lengths,
+          siblings, arena, rows, marker);
+      Iterator<WeakReference<Columns>> references = snapshots.iterator();
+      while (references.hasNext()) {
+        if (references.next().get() == null) {
+          references.remove();
+        }
+      }
+      snapshots.add(new WeakReference<>(snapshot));
+      theView = new DomainLogView(snapshot);
+      view = new WeakReference<>(theView);
+    }
+    return theView;
+  }
+
+  /** Retrieves the number of entries, the stack entries included.
+   * @return the number of entries.
+   */
+  int size() {
+    return rows - 1;
+  }
+
+  /** Removes all the entries.
+   *
+   * The buffers are kept to be reused, but the ones that a view that can
+   * still be read holds are replaced by new ones. The views do not read
+   * the table, it's always reused.
+   */
+  void clear() {
+    for (WeakReference<Columns> reference : snapshots) {
+      Columns snapshot = reference.get();
+      if (snapshot != null) {
+        if (snapshot.paths == paths) {
+          allocateRows();
+        }
+        if (snapshot.arena == arena) {
+          arena = allocate(INITIAL_ROWS * 16);
+        }
+      }
+    }
+    snapshots.clear();
+    for (int slot = 0; slot <= mask; slot++) {
+      table.putInt(slot << 2, 0);
+    }
+    root();
+    int size = Math.min(dictionary.size(), declared.length);
+    Arrays.fill(declared, 0, size, 0);
+    Arrays.fill(firstChild, 0, size + 1, 0);
+    Arrays.fill(lastChild, 0, size + 1, 0);
+    Arrays.fill(perStack, 0, Math.min(size, perStack.length), 0);
+    used = 0;
+    bytes = 0;
+    truncated = 0;
+    view = null;
+  }
+
+  /** The columns of the store, up to the rows it had when the view was
+   * taken.*/
+  private static final class Columns extends DomainLogView.Snapshot {
+
+    /** The stack of each path, it's never null.*/
+    private final String[] stacks;
+
+    /** The first child of each path, by path id plus one, it's never
+     * null.*/
+    private final int[] firstChild;
+
+    /** The path id column, it's never null.*/
+    private final ByteBuffer paths;
+
+    /** The value offset column, it's never null.*/
+    private final ByteBuffer offsets;
+
+    /** The value length column, it's never null.*/
+    private final ByteBuffer lengths;
+
+    /** The next sibling column, it's never null.*/
+    private final ByteBuffer siblings;
+
+    /** The arena of the values, it's never null.*/
+    private final ByteBuffer arena;
+
+    /** Creates a new snapshot.
+     * @param theStacks the stack of each path.
+     * @param theFirstChild the first child of each path.
+     * @param thePaths the path id column.
+     * @param theOffsets the value offset column.
+     * @param theLengths the value length column.
+     * @param theSiblings the next sibling column.
+     * @param theArena the arena of the values.
+     * @param count the number of rows.
+     * @param marker the entry that counts the truncated entries.
+     */
+    Columns(final String[] theStacks, final int[] theFirstChild,
+        final ByteBuffer thePaths, final ByteBuffer theOffsets,
+        final ByteBuffer theLengths, final ByteBuffer theSiblings,
+        final ByteBuffer theArena, final int count, final DomainLog marker) {
+      super(count, marker);
+      stacks = theStacks;
+      firstChild = theFirstChild;
+      paths = thePaths;
+      offsets = theOffsets;
+      lengths = theLengths;
+      siblings = theSiblings;
+      arena = theArena;
+    }
+
+    /** {@inheritDoc}. */
+    @Override
+    String stack(final int index) {
+      if (index == 0) {
+        return DomainLogTree.ROOT;
+      }
+      return stacks[paths.getInt(index << 2)];
+    }
+
+    /** {@inheritDoc}. */
+    @Override
+    String value(final int index) {
+      int offset = offsets.getInt(index << 2);
+      if (offset == STACK) {
+        return null;
+      }
+      byte[] bytes = new byte[lengths.getInt(index << 2)];
+      for (int i = 0; i < bytes.length; i++) {
+        bytes[i] = arena.get(offset + i);
+      }
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** {@inheritDoc}. */
+    @Override
+    int firstChild(final int index) {
+      if (index == 0) {
+        return firstChild[0];
+      }
+      if (offsets.getInt(index << 2) != STACK) {
+        return 0;
+      }
+      return firstChild[paths.getInt(index << 2) + 1];
+    }
+
+    /** {@inheritDoc}. */
+    @Override
+    int nextSibling(final int index) {
+      return siblings.getInt(index << 2);
+    }
+  }
+
+}
@@ -0,0 +1,64 @@
+package org.waabox.log;
+
+import java.io.IOException;
+
+/** An Appendable that counts the characters appended to another one.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+final class CountingAppendable implements Appendable {
+
+  /** The destination, it's never null.*/
+  private final Appendable target;
+
+  /** The number of characters appended.*/
+  private long count;
+
+  /** Creates a new instance.
+   * @param theTarget the destination, cannot be null.
+   */
+  CountingAppendable(final Appendable theTarget) {
+    target = theTarget;
+  }
+
+  /** {@inheritDoc}. */
+  @Override
+  public Appendable append(final CharSequence csq) throws IOException {
+    CharSequence sequence = csq == null ? "null" : csq;
+    target.append(sequence);
+    count += sequence.length();
+    return this;
+  }
+
+  /** {@inheritDoc}. */
+  @Override
+  public Appendable append(final CharSequence csq, final int start,
+      final int end) throws IOException {
+    target.append(csq, start, end);
+    count += end - start;
+    return this;
+  }
+
+  /** {@inheritDoc}. */
+  @Override
+  public Appendable append(final char c) throws IOException {
+    target.append(c);
+    count++;
+    return this;
+  }
+
+  /** Retrieves the destination.
+   * @return the destination, never null.
+   */
+  Appendable target() {
+    return target;
+  }
+
+  /** Retrieves the number of characters appended so far.
+   * @return the number of characters.
+   */
+  long count() {
+    return count;
+  }
+
+}
@@ -1,10 +1,8 @@
 package org.waabox.log;
 
+import java.io.IOException;
 import java.util.*;
 
-import org.apache.commons.lang3.builder.EqualsBuilder;
-import org.apache.commons.lang3.builder.HashCodeBuilder;
-
 /** The log entry.
  * @author waabox (me[at]waabox[dot]org)
  */
@@ -14,25 +12,63 @@ public class DomainLog {
   private final String stack;
 
   /** The entry value, it's never null.*/
-  private String value;
+  private final String value;
+
+  /** The hash code of the stack and value, computed once as both are
+   * immutable.*/
+  private final int hash;
 
   /** The list of nodes, it's never null.*/
-  private final List<DomainLog> nodes = new LinkedList<>();
+  private final List<DomainLog> nodes;
+
+  /** The index of this entry in the flat arrays of the tree it's linked
+   * into, 0 for the root.*/
+  int index;
+
+  /** The appender of the logger that generated the tree, only set in its
+   * root, to record the characters rendered, null otherwise.*/
+  String appender;
 
   /** Creates a new instance of DomainLog.
    * @param theStack the stack.
    * @param message the message.
    */
   DomainLog(final String theStack, final String message) {
+    this(theStack, message, new LinkedList<DomainLog>());
+  }
+
+  /** Creates a new instance of DomainLog with the given list of nodes, for
+   * the views that resolve their nodes by themselves.
+   * @param theStack the stack.
+   * @param message the message.
+   * @param theNodes the list of nodes, cannot be null.
+   */
+  DomainLog(final String theStack, final String message,
+      final List<DomainLog> theNodes) {
     stack = theStack;
     value = message;
+    hash = hash(theStack, message);
+    nodes = theNodes;
   }
 
   /** Creates a new instance of DomainLog as stack.
    * @param theStack the stack path.
    */
   DomainLog(final String theStack) {
-    stack = theStack;
+    this(theStack, null);
+  }
+
+  /** Computes the hash code of an entry.
+   * @param theStack the stack.
+   * @param message the message, can be null.
+   * @return the hash code.
+   */
+  private static int hash(final String theStack, final String message) {
+    int result = theStack.hashCode();
+    if (message != null) {
+      result = 31 * result + message.hashCode();
+    }
+    return result;
   }
 
   /** Search within this log entry the entry that matches the given stack.
@@ -40,7 +76,7 @@ public class DomainLog {
    * @return the log entry or null.
    */
   DomainLog search(final String path) {
-    for (DomainLog entry : nodes) {
+    for (DomainLog entry : getNodes()) {
       if (entry.stack.equals(path)) {
         return entry;
       } else {
@@ -56,20 +92,26 @@ public class DomainLog {
   /** {@inheritDoc}. */
   @Override
   public int hashCode() {
-    return new HashCodeBuilder().append(stack).append(value).toHashCode();
+    return hash;
   }
 
   /** {@inheritDoc}. */
   @Override
   public boolean equals(final Object obj) {
+    if (this == obj) {
+      return true;
+    }
     if (!(obj instanceof DomainLog)) {
       return false;
     }
     DomainLog another = (DomainLog) obj;
-    return new EqualsBuilder()
-        .append(stack, another.stack)
-        .append(value, another.value)
-        .isEquals();
+    if (hash != another.hash || !stack.equals(another.stack)) {
+      return false;
+    }
+    if (value == null) {
+      return another.value == null;
+    }
+    return value.equals(another.value);
   }
 
   /** Retrieves the stack.
@@ -109,32 +151,14 @@ public class DomainLog {
   /** Represents this as String.
    * @param size the indentation size.
    * @return the string representing this instance.
+   * @see DomainLogRenderer
    */
   public String string(final int size) {
-    int aSize = size + 1;
-    String indentation = "";
-    for (int i = 0; i < aSize; i++) {
-      indentation += "  ";
-    }
-    StringBuffer sb = new StringBuffer();
-    sb.append(stack);
-    if (value != null) {
-      sb.append(":");
-      sb.append(value);
-    }
-    if (!nodes.isEmpty()) {
-      sb.append("[\n");
-    }
-    Iterator<DomainLog> it = nodes.iterator();
-    while (it.hasNext()) {
-      DomainLog entry = it.next();
-      sb.append(indentation + entry.string(aSize));
-      if (it.hasNext()) {
-        sb.append(",\n");
-      }
-    }
-    if (!nodes.isEmpty()) {
-      sb.append("\n" + indentation + "]\n");
+    StringBuilder sb = new StringBuilder();
+    try {
+      new DomainLogRenderer().write(this, size, sb);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
     }
     return sb.toString();
   }
@@ -0,0 +1,201 @@
+package org.waabox.log;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import org.apache.commons.lang3.Validate;
+
+/** Writes a DomainLog tree in the compact binary format read by
+ * {@link DomainLogTrace}.
+ *
+ * The format, all the integers are big endian:
+ *
+ * <pre>
+ * header:      int magic ('D', 'L', 'T', version)
+ *              int number of strings
+ *              int number of nodes
+ *              int position of the node offsets
+ *              long fingerprint of the tree, see
+ *              {@link TraceDiff#fingerprint(DomainLog)}
+ * strings:     int[] position of each string
+ *              each string as varint length + UTF-8 bytes
+ * nodes:       int[] position of each node
+ *              each node as varints: distance to its parent (0 for the
+ *              root), stack string, value string + 1 (0 for no value),
+ *              size of its subtree and number of children
+ * </pre>
+ *
+ * The nodes are written in pre-order, so the first child of a node is the
+ * one that follows it and its next sibling is found skipping its subtree.
+ * Stacks and values are written once in the string table, no matter how
+ * many nodes use them.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+public final class DomainLogBinaryWriter {
+
+  /** The magic number, "DLT" followed by the version of the format.*/
+  static final int MAGIC = 0x444c5401;
+
+  /** The size of the header, in bytes.*/
+  static final int HEADER_SIZE = 24;
+
+  /** The nodes of the tree in pre-order, it's never null.*/
+  private final List<DomainLog> nodes = new ArrayList<>();
+
+  /** The parent index of each node, it's never null.*/
+  private int[] parents = new int[64];
+
+  /** The subtree size of each node, it's never null.*/
+  private int[] sizes = new int[64];
+
+  /** The string ids by string, it's never null.*/
+  private final Map<String, Integer> strings = new LinkedHashMap<>();
+
+  /** Creates a new writer, use the static methods.*/
+  private DomainLogBinaryWriter() {
+  }
+
+  /** Writes the given tree into the given stream.
+   *
+   * The stream is flushed but not closed.
+   *
+   * @param log the tree to write, cannot be null.
+   * @param out the stream, cannot be null.
+   * @throws IOException if the stream fails.
+   */
+  public static void write(final DomainLog log, final OutputStream out)
+      throws IOException {
+    Validate.notNull(out, "The output stream cannot be null");
+    out.write(encode(log));
+    out.flush();
+  }
+
+  /** Encodes the given tree.
+   * @param log the tree to encode, cannot be null.
+   * @return the encoded tree, never null.
+   */
+  public static byte[] encode(final DomainLog log) {
+    Validate.notNull(log, "The log cannot be null");
+    return new DomainLogBinaryWriter().tree(log);
+  }
+
+  /** Encodes the given tree.
+   * @param log the tree, cannot be null.
+   * @return the encoded tree, never null.
+   */
+  private byte[] tree(final DomainLog log) {
+    collect(log, -1);
+
+    Buffer stringData = new Buffer();
+    int[] stringOffsets = new int[strings.size()];
+    int i = 0;
+    for (String string : strings.keySet()) {
+      stringOffsets[i++] = stringData.size();
+      byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+      stringData.varint(bytes.length);
+      stringData.write(bytes, 0, bytes.length);
+    }
+
+    Buffer nodeData = new Buffer();
+    int[] nodeOffsets = new int[nodes.size()];
+    for (i = 0; i < nodes.size(); i++) {
+      DomainLog node = nodes.get(i);
+      nodeOffsets[i] = nodeData.size();
+      nodeData.varint(parents[i] == -1 ? 0 : i - parents[i]);
+      nodeData.varint(strings.get(node.getStack()));
+      nodeData.varint(node.getValue() == null ? 0
+          : strings.get(node.getValue()) + 1);
+      nodeData.varint(sizes[i]);
+      nodeData.varint(node.getNodes().size());
+    }
+
+    int stringsStart = HEADER_SIZE + 4 * stringOffsets.length;
+    int nodeTable = stringsStart + stringData.size();
+    int nodesStart = nodeTable + 4 * nodeOffsets.length;
+
+    Buffer out = new Buffer();
+    out.integer(MAGIC);
+    out.integer(stringOffsets.length);
+    out.integer(nodeOffsets.length);
+    out.integer(nodeTable);
+    long fingerprint = TraceDiff.fingerprint(log);
+    out.integer((int) (fingerprint >>> 32));
+    out.integer((int) fingerprint);
+    for (int offset : stringOffsets) {
+      out.integer(stringsStart + offset);
+    }
+    stringData.writeTo(out);
+    for (int offset : nodeOffsets) {
+      out.integer(nodesStart + offset);
+    }
+    nodeData.writeTo(out);
+    return out.toByteArray();
+  }
+
+  /** Collects the given node and its subtree in pre-order.
+   * @param node the node.
+   * @param parent the index of its parent, -1 for the root.
+   */
+  private void collect(final DomainLog node, final int parent) {
+    int index = nodes.size();
+    nodes.add(node);
+    if (index == parents.length) {
+      parents = Arrays.copyOf(parents, index * 2);
+      sizes = Arrays.copyOf(sizes, index * 2);
+    }
+    parents[index] = parent;
+    string(node.getStack());
+    if (node.getValue() != null) {
+      string(node.getValue());
+    }
+    for (DomainLog child : node.getNodes()) {
+      collect(child, index);
+    }
+    sizes[index] = nodes.size() - index;
+  }
+
+  /** Adds the given string into the string table, if it's not there.
+   * @param string the string.
+   */
+  private void string(final String string) {
+    if (!strings.containsKey(string)) {
+      strings.put(string, strings.size());
+    }
+  }
+
+  /** A byte array output stream that writes the format integers.*/
+  private static final class Buffer extends ByteArrayOutputStream {
+
+    /** Writes an unsigned varint.
+     * @param value the value, cannot be negative.
+     */
+    void varint(final int value) {
+      int remaining = value;
+      while ((remaining & ~0x7f) != 0) {
+        write((remaining & 0x7f) | 0x80);
+        remaining >>>= 7;
+      }
+      write(remaining);
+    }
+
+    /** Writes a big endian int.
+     * @param value the value.
+     */
+    void integer(final int value) {
+      write(value >>> 24);
+      write(value >>> 16);
+      write(value >>> 8);
+      write(value);
+    }
+
+    /** Writes this buffer into another one.
+     * @param out the destination.
+     */
+    void writeTo(final Buffer out) {
+      out.write(buf, 0, count);
+    }
+  }
+
+}
@@ -0,0 +1,268 @@
+package org.waabox.log;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.lang3.Validate;
+
+/** Writes a DomainLog tree as JSON.
+ *
+ * Each node is written as an object with its stack, its value when it
+ * has one, and its nodes:
+ *
+ * <pre>
+ * {"stack":".a","nodes":[{"stack":".a","value":"10","nodes":[]}]}
+ * </pre>
+ *
+ * The tree is written while it's traversed, without building any JSON
+ * object nor the whole text in memory. When the destination is
+ * {@link Flushable} and a chunk size is given, the destination is flushed
+ * every time that amount of characters is written, so a servlet response
+ * is sent in chunks while the trace is still being written.
+ *
+ * The characters written for a tree generated by a {@link DomainLogger}
+ * are recorded in the metrics of its appender, see
+ * {@link DomainLogMetrics}.
+ *
+ * A writer is not thread safe.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+public final class DomainLogJsonWriter {
+
+  /** The hexadecimal digits, used to escape control characters.*/
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  /** The number of characters written between flushes, 0 to flush only
+   * at the end.*/
+  private final int chunkSize;
+
+  /** The number of characters written when the destination was last
+   * flushed.*/
+  private long flushed;
+
+  /** The number of characters written by the last write.*/
+  private long written;
+
+  /** Creates a new writer that does not flush while writing.*/
+  public DomainLogJsonWriter() {
+    this(0);
+  }
+
+  /** Creates a new writer.
+   * @param theChunkSize the number of characters written between
+   *  flushes of the destination, 0 to not flush while writing.
+   */
+  public DomainLogJsonWriter(final int theChunkSize) {
+    Validate.isTrue(theChunkSize >= 0, "The chunk size cannot be negative");
+    chunkSize = theChunkSize;
+  }
+
+  /** Writes the given tree as JSON into the given stream, encoded as
+   * UTF-8.
+   *
+   * The stream is flushed but not closed.
+   *
+   * @param log the tree to write, cannot be null.
+   * @param out the stream, cannot be null.
+   * @throws IOException if the stream fails.
+   */
+  public void write(final DomainLog log, final OutputStream out)
+      throws IOException {
+    Validate.notNull(out, "The output stream cannot be null");
+    Writer writer = new BufferedWriter(
+        new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    write(log, writer);
+    writer.flush();
+  }
+
+  /** Writes the given tree as JSON into the given destination.
+   * @param log the tree to write, cannot be null.
+   * @param out the destination, cannot be null.
+   * @throws IOException if the destination fails.
+   */
+  public void write(final DomainLog log, final Appendable out)
+      throws IOException {
+    Validate.notNull(log, "The log cannot be null");
+    Validate.notNull(out, "The destination cannot be null");
+    CountingAppendable counter = new CountingAppendable(out);
+    flushed = 0;
+    node(log, counter);
+    written = counter.count();
+    if (log.appender != null) {
+      DomainLogMetrics.rendered(log.appender, written);
+    }
+  }
+
+  /** Writes a page of the subtree of a node of a persisted trace.
+   *
+   * The node is written as any other node plus its number of children in
+   * "size", but only with up to limit children, starting from the given
+   * one, and only depth levels below it. The children below it are
+   * limited the same way, and their "size" tells if they have more
+   * children than the ones written:
+   *
+   * <pre>
+   * {"stack":".a","size":3,"nodes":[{"stack":".a.b","size":2,"nodes":[]}]}
+   * </pre>
+   *
+   * Only the nodes that are written are read from the trace.
+   *
+   * @param trace the trace, cannot be null.
+   * @param node the node to write.
+   * @param from the first child to write, {@link DomainLogTrace#NONE} to
+   *  start with the first one.
+   * @param limit the maximum number of children of each node, greater
+   *  than 0.
+   * @param depth the number of levels below the node to write, 0 to only
+   *  write the node.
+   * @param out the destination, cannot be null.
+   * @return the next child of the node that was not written, to continue
+   *  from it, {@link DomainLogTrace#NONE} if all of them were written.
+   * @throws IOException if the destination fails.
+   */
+  public int write(final DomainLogTrace trace, final int node,
+      final int from, final int limit, final int depth, final Appendable out)
+      throws IOException {
+    Validate.notNull(trace, "The trace cannot be null");
+    Validate.notNull(out, "The destination cannot be null");
+    Validate.isTrue(limit > 0, "The limit must be positive");
+    Validate.isTrue(depth >= 0, "The depth cannot be negative");
+    CountingAppendable counter = new CountingAppendable(out);
+    flushed = 0;
+    int next = node(trace, node, from, limit, depth, counter);
+    written = counter.count();
+    return next;
+  }
+
+  /** Retrieves the number of characters written by the last write of a
+   * tree.
+   * @return the number of characters.
+   */
+  public long getWritten() {
+    return written;
+  }
+
+  /** Writes a node and its children.
+   * @param log the node.
+   * @param out the destination.
+   * @throws IOException if the destination fails.
+   */
+  private void node(final DomainLog log, final CountingAppendable out)
+      throws IOException {
+    out.append("{\"stack\":");
+    string(log.getStack(), out);
+    if (log.getValue() != null) {
+      out.append(",\"value\":");
+      string(log.getValue(), out);
+    }
+    out.append(",\"nodes\":[");
+    boolean first = true;
+    for (DomainLog node : log.getNodes()) {
+      if (!first) {
+        out.append(',');
+      }
+      first = false;
+      node(node, out);
+    }
+    out.append("]}");
+    flush(out);
+  }
+
+  /** Writes a node of a persisted trace and a page of its children.
+   * @param trace the trace.
+   * @param node the node.
+   * @param from the first child to write, NONE for the first one.
+   * @param limit the maximum number of children of each node.
+   * @param depth the number of levels below the node to write.
+   * @param out the destination.
+   * @return the next child that was not written, NONE if there is none.
+   * @throws IOException if the destination fails.
+   */
+  private int node(final DomainLogTrace trace, final int node,
+      final int from, final int limit, final int depth,
+      final CountingAppendable out) throws IOException {
+    out.append("{\"stack\":");
+    string(trace.stack(node), out);
+    String value = trace.value(node);
+    if (value != null) {
+      out.append(",\"value\":");
+      string(value, out);
+    }
+    String size = String.valueOf(trace.childCount(node));
+    out.append(",\"size\":").append(size).append(",\"nodes\":[");
+    int child = DomainLogTrace.NONE;
+    if (depth > 0) {
+      child = from == DomainLogTrace.NONE ? trace.firstChild(node) : from;
+      for (int i = 0; i < limit && child != DomainLogTrace.NONE; i++) {
+        if (i > 0) {
+          out.append(',');
+        }
+        node(trace, child, DomainLogTrace.NONE, limit, depth - 1, out);
+        child = trace.nextSibling(child);
+      }
+    }
+    out.append("]}");
+    flush(out);
+    return child;
+  }
+
+  /** Flushes the destination if a chunk was written since the last
+   * flush.
+   * @param out the destination.
+   * @throws IOException if the destination fails.
+   */
+  private void flush(final CountingAppendable out) throws IOException {
+    if (chunkSize > 0 && out.count() - flushed >= chunkSize
+        && out.target() instanceof Flushable) {
+      ((Flushable) out.target()).flush();
+      flushed = out.count();
+    }
+  }
+
+  /** Writes the given value as a JSON string.
+   * @param value the value, cannot be null.
+   * @param out the destination.
+   * @throws IOException if the destination fails.
+   */
+  void string(final String value, final Appendable out)
+      throws IOException {
+    out.append('"');
+    int from = 0;
+    int length = value.length();
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      if (c >= 0x20 && c != '"' && c != '\\' && c != 0x2028
+          && c != 0x2029) {
+        continue;
+      }
+      out.append(value, from, i);
+      switch (c) {
+      case '"':
+        out.append("\\\"");
+        break;
+      case '\\':
+        out.append("\\\\");
+        break;
+      case '\n':
+        out.append("\\n");
+        break;
+      case '\r':
+        out.append("\\r");
+        break;
+      case '\t':
+        out.append("\\t");
+        break;
+      default:
+        out.append("\\u").append(HEX[(c >> 12) & 0xf])
+            .append(HEX[(c >> 8) & 0xf]).append(HEX[(c >> 4) & 0xf])
+            .append(HEX[c & 0xf]);
+        break;
+      }
+      from = i + 1;
+    }
+    out.append(value, from, length);
+    out.append('"');
+  }
+
+}
@@ -0,0 +1,175 @@
+package org.waabox.log;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.*;
+
+import javax.management.*;
+
+import org.apache.commons.lang3.Validate;
+
+/** The metrics of the loggers, by appender.
+ *
+ * Metrics are off by default, then the loggers only check a null field.
+ * Once they are enabled, the loggers created from then on record into the
+ * {@link LoggerMetrics} of their appender.
+ *
+ * The metrics can be published through JMX, with an MBean per appender
+ * named org.waabox.log:type=DomainLogger,appender=the appender, or
+ * through any other system with a {@link Listener} that is told about
+ * the metrics of each new appender.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+public final class DomainLogMetrics {
+
+  /** The JMX domain of the MBeans.*/
+  public static final String JMX_DOMAIN = "org.waabox.log";
+
+  /** The metrics by appender, it's never null.*/
+  private static final ConcurrentMap<String, LoggerMetrics> metrics =
+      new ConcurrentHashMap<>();
+
+  /** The listeners of new appenders, it's never null.*/
+  private static final List<Listener> listeners =
+      new CopyOnWriteArrayList<>();
+
+  /** Whether the loggers record metrics or not.*/
+  private static volatile boolean enabled;
+
+  /** Utility class.*/
+  private DomainLogMetrics() {
+  }
+
+  /** Makes the loggers created from now on record metrics.*/
+  public static void enable() {
+    enabled = true;
+  }
+
+  /** Makes the loggers created from now on not record metrics.*/
+  public static void disable() {
+    enabled = false;
+  }
+
+  /** Retrieves if the loggers record metrics or not.
+   * @return true if they record metrics.
+   */
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  /** Retrieves the metrics of the given appender.
+   * @param appender the appender, cannot be null.
+   * @return the metrics, never null.
+   */
+  public static LoggerMetrics get(final String appender) {
+    Validate.notNull(appender, "The appender cannot be null");
+    LoggerMetrics appenderMetrics = metrics.get(appender);
+    if (appenderMetrics == null) {
+      appenderMetrics = new LoggerMetrics(appender);
+      LoggerMetrics previous = metrics.putIfAbsent(appender,
+          appenderMetrics);
+      if (previous != null) {
+        return previous;
+      }
+      for (Listener listener : listeners) {
+        listener.created(appenderMetrics);
+      }
+    }
+    return appenderMetrics;
+  }
+
+  /** Retrieves the metrics of all the appenders.
+   * @return the metrics, never null.
+   */
+  public static Collection<LoggerMetrics> all() {
+    return Collections.unmodifiableCollection(metrics.values());
+  }
+
+  /** Retrieves the metrics of a new logger of the given appender.
+   * @param appender the appender.
+   * @return the metrics, null if metrics are off.
+   */
+  static LoggerMetrics forLogger(final String appender) {
+    if (!enabled) {
+      return null;
+    }
+    return get(appender);
+  }
+
+  /** Records the characters written rendering a trace, if metrics are on.
+   * @param appender the appender of the trace, cannot be null.
+   * @param chars the number of characters.
+   */
+  public static void rendered(final String appender, final long chars) {
+    if (enabled) {
+      get(appender).render(chars);
+    }
+  }
+
+  /** Adds a listener, that is told about the metrics of the appenders
+   * that already exist and of the ones created from now on.
+   * @param listener the listener, cannot be null.
+   */
+  public static void addListener(final Listener listener) {
+    Validate.notNull(listener, "The listener cannot be null");
+    listeners.add(listener);
+    for (LoggerMetrics appenderMetrics : metrics.values()) {
+      listener.created(appenderMetrics);
+    }
+  }
+
+  /** Removes a listener.
+   * @param listener the listener, cannot be null.
+   */
+  public static void removeListener(final Listener listener) {
+    listeners.remove(listener);
+  }
+
+  /** Publishes the metrics of every appender through the platform MBean
+   * server, and enables them.
+   * @return the listener that registers the MBeans, remove it to stop
+   *  registering the new appenders, never null.
+   */
+  public static Listener registerMBeans() {
+    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    Listener jmx = new Listener() {
+      @Override
+      public void created(final LoggerMetrics appenderMetrics) {
+        try {
+          ObjectName name = objectName(appenderMetrics.getAppender());
+          if (!server.isRegistered(name)) {
+            server.registerMBean(appenderMetrics, name);
+          }
+        } catch (JMException e) {
+          throw new IllegalStateException("Cannot register the metrics of "
+              + appenderMetrics.getAppender(), e);
+        }
+      }
+    };
+    addListener(jmx);
+    enable();
+    return jmx;
+  }
+
+  /** Creates the JMX name of the metrics of the given appender.
+   * @param appender the appender, cannot be null.
+   * @return the name, never null.
+   * @throws MalformedObjectNameException never, the appender is quoted.
+   */
+  public static ObjectName objectName(final String appender)
+      throws MalformedObjectNameException {
+    return new ObjectName(JMX_DOMAIN + ":type=DomainLogger,appender="
+        + ObjectName.quote(appender));
+  }
+
+  /** Told about the metrics of each new appender.*/
+  public interface Listener {
+
+    /** Called once for the metrics of each appender.
+     * @param metrics the metrics, never null.
+     */
+    void created(LoggerMetrics metrics);
+  }
+
+}
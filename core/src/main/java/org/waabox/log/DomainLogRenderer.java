@@ -0,0 +1,124 @@
+package org.waabox.log;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.lang3.Validate;
+
+/** Writes a DomainLog tree as text, in the format of
+ * {@link DomainLog#toString()}.
+ *
+ * The tree is written in a single pass straight into the destination,
+ * the indentation of every level is taken from the same buffer, so no
+ * intermediate strings are created for the nodes. The characters
+ * rendered for a tree generated by a {@link DomainLogger} are recorded in
+ * the metrics of its appender, see {@link DomainLogMetrics}.
+ *
+ * A renderer is not thread safe, create one per thread or use the static
+ * render methods.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+public final class DomainLogRenderer {
+
+  /** The indentation of one level.*/
+  private static final String INDENTATION = "  ";
+
+  /** The indentation of the deepest level rendered so far, it's never
+   * null.*/
+  private final StringBuilder indentation = new StringBuilder();
+
+  /** Renders the given tree into the given destination.
+   * @param log the tree to render, cannot be null.
+   * @param out the destination, cannot be null.
+   * @throws IOException if the destination fails.
+   */
+  public static void render(final DomainLog log, final Appendable out)
+      throws IOException {
+    new DomainLogRenderer().write(log, out);
+  }
+
+  /** Renders the given tree into the given stream, encoded as UTF-8.
+   *
+   * The stream is flushed but not closed.
+   *
+   * @param log the tree to render, cannot be null.
+   * @param out the stream, cannot be null.
+   * @throws IOException if the stream fails.
+   */
+  public static void render(final DomainLog log, final OutputStream out)
+      throws IOException {
+    Validate.notNull(out, "The output stream cannot be null");
+    Writer writer = new BufferedWriter(
+        new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    render(log, writer);
+    writer.flush();
+  }
+
+  /** Writes the given tree into the given destination.
+   * @param log the tree to write, cannot be null.
+   * @param out the destination, cannot be null.
+   * @throws IOException if the destination fails.
+   */
+  public void write(final DomainLog log, final Appendable out)
+      throws IOException {
+    write(log, 0, out);
+  }
+
+  /** Writes the given tree into the given destination, as a node of the
+   * given depth.
+   * @param log the tree to write, cannot be null.
+   * @param depth the depth of the node, the root is 0.
+   * @param out the destination, cannot be null.
+   * @throws IOException if the destination fails.
+   */
+  public void write(final DomainLog log, final int depth,
+      final Appendable out) throws IOException {
+    Validate.notNull(log, "The log cannot be null");
+    Validate.notNull(out, "The destination cannot be null");
+    if (log.appender == null || !DomainLogMetrics.isEnabled()) {
+      node(log, depth, out);
+      return;
+    }
+    CountingAppendable counter = new CountingAppendable(out);
+    node(log, depth, counter);
+    DomainLogMetrics.rendered(log.appender, counter.count());
+  }
+
+  /** Writes a node and its children.
+   * @param log the node.
+   * @param depth the depth of the node.
+   * @param out the destination.
+   * @throws IOException if the destination fails.
+   */
+  private void node(final DomainLog log, final int depth,
+      final Appendable out) throws IOException {
+    int childDepth = depth + 1;
+    int indent = childDepth * INDENTATION.length();
+    while (indentation.length() < indent) {
+      indentation.append(INDENTATION);
+    }
+    out.append(log.getStack());
+    if (log.getValue() != null) {
+      out.append(':');
+      out.append(log.getValue());
+    }
+    if (log.getNodes().isEmpty()) {
+      return;
+    }
+    out.append("[\n");
+    boolean first = true;
+    for (DomainLog node : log.getNodes()) {
+      if (!first) {
+        out.append(",\n");
+      }
+      first = false;
+      out.append(indentation, 0, indent);
+      node(node, childDepth, out);
+    }
+    out.append('\n');
+    out.append(indentation, 0, indent);
+    out.append("]\n");
+  }
+
+}
@@ -0,0 +1,264 @@
+package org.waabox.log;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.lang3.Validate;
+
+/** A DomainLog tree encoded by {@link DomainLogBinaryWriter}, read in
+ * place from a ByteBuffer.
+ *
+ * Nodes are identified by their pre-order index, the root is 0. Nothing
+ * is decoded up front: each accessor reads the node straight from the
+ * buffer, so a memory mapped trace can be navigated without creating its
+ * DomainLog objects. {@link #toDomainLog(int)} materializes a subtree
+ * when the objects are needed.
+ *
+ * Instances are immutable and thread safe as long as the buffer content
+ * is not modified.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+public final class DomainLogTrace {
+
+  /** The value of the node references that point to no node.*/
+  public static final int NONE = -1;
+
+  /** The encoded trace, only read with absolute gets, it's never null.*/
+  private final ByteBuffer buffer;
+
+  /** The number of strings.*/
+  private final int strings;
+
+  /** The number of nodes.*/
+  private final int nodes;
+
+  /** The position of the node offsets.*/
+  private final int nodeTable;
+
+  /** The fingerprint of the tree, read from the header.*/
+  private final long fingerprint;
+
+  /** Creates a new trace.
+   * @param theBuffer the encoded trace, cannot be null.
+   */
+  private DomainLogTrace(final ByteBuffer theBuffer) {
+    buffer = theBuffer;
+    Validate.isTrue(buffer.remaining() >= DomainLogBinaryWriter.HEADER_SIZE
+        && buffer.getInt(0) == DomainLogBinaryWriter.MAGIC,
+        "The buffer does not hold an encoded trace");
+    strings = buffer.getInt(4);
+    nodes = buffer.getInt(8);
+    nodeTable = buffer.getInt(12);
+    fingerprint = buffer.getLong(16);
+  }
+
+  /** Reads the trace held by the given buffer, from its position to its
+   * limit. The buffer content is not copied.
+   * @param buffer the buffer, cannot be null.
+   * @return the trace, never null.
+   */
+  public static DomainLogTrace wrap(final ByteBuffer buffer) {
+    Validate.notNull(buffer, "The buffer cannot be null");
+    return new DomainLogTrace(buffer.slice());
+  }
+
+  /** Reads the trace held by the given bytes, they are not copied.
+   * @param bytes the encoded trace, cannot be null.
+   * @return the trace, never null.
+   */
+  public static DomainLogTrace wrap(final byte[] bytes) {
+    Validate.notNull(bytes, "The bytes cannot be null");
+    return new DomainLogTrace(ByteBuffer.wrap(bytes));
+  }
+
+  /** Maps the given file into memory and reads the trace it holds.
+   * @param file the file, cannot be null.
+   * @return the trace, never null.
+   * @throws IOException if the file cannot be mapped.
+   */
+  public static DomainLogTrace map(final File file) throws IOException {
+    Validate.notNull(file, "The file cannot be null");
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      return new DomainLogTrace(
+          channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    } finally {
+      raf.close();
+    }
+  }
+
+  /** Retrieves the number of nodes.
+   * @return the number of nodes, the root included.
+   */
+  public int size() {
+    return nodes;
+  }
+
+  /** Retrieves the fingerprint of the whole tree, the same as
+   * {@link TraceDiff#fingerprint(DomainLog)} of its materialized tree.
+   *
+   * It's written in the header when the tree is encoded, so it's read
+   * without walking the nodes.
+   *
+   * @return the fingerprint.
+   */
+  public long fingerprint() {
+    return fingerprint;
+  }
+
+  /** Retrieves the stack of a node.
+   * @param node the node index.
+   * @return the stack, never null.
+   */
+  public String stack(final int node) {
+    return string(field(node, 1));
+  }
+
+  /** Retrieves the value of a node.
+   * @param node the node index.
+   * @return the value, null if the node has no value.
+   */
+  public String value(final int node) {
+    int value = field(node, 2);
+    if (value == 0) {
+      return null;
+    }
+    return string(value - 1);
+  }
+
+  /** Retrieves the parent of a node.
+   * @param node the node index.
+   * @return the parent index, {@link #NONE} for the root.
+   */
+  public int parent(final int node) {
+    int distance = field(node, 0);
+    if (distance == 0) {
+      return NONE;
+    }
+    return node - distance;
+  }
+
+  /** Retrieves the number of children of a node.
+   * @param node the node index.
+   * @return the number of children.
+   */
+  public int childCount(final int node) {
+    return field(node, 4);
+  }
+
+  /** Retrieves the number of nodes of the subtree of a node.
+   * @param node the node index.
+   * @return the number of nodes, the node included.
+   */
+  public int subtreeSize(final int node) {
+    return field(node, 3);
+  }
+
+  /** Retrieves the first child of a node.
+   * @param node the node index.
+   * @return the child index, {@link #NONE} if the node has no children.
+   */
+  public int firstChild(final int node) {
+    if (childCount(node) == 0) {
+      return NONE;
+    }
+    return node + 1;
+  }
+
+  /** Retrieves the next sibling of a node.
+   * @param node the node index.
+   * @return the sibling index, {@link #NONE} if it's the last child.
+   */
+  public int nextSibling(final int node) {
+    int parent = parent(node);
+    if (parent == NONE) {
+      return NONE;
+    }
+    int next = node + subtreeSize(node);
+    if (next >= parent + subtreeSize(parent)) {
+      return NONE;
+    }
+    return next;
+  }
+
+  /** Materializes the whole trace.
+   * @return the root of the tree, never null.
+   */
+  public DomainLog toDomainLog() {
+    return toDomainLog(0);
+  }
+
+  /** Materializes the subtree of a node.
+   * @param node the node index.
+   * @return the node with all its descendants, never null.
+   */
+  public DomainLog toDomainLog(final int node) {
+    DomainLog log = new DomainLog(stack(node), value(node));
+    for (int child = firstChild(node); child != NONE;
+        child = nextSibling(child)) {
+      log.add(toDomainLog(child));
+    }
+    return log;
+  }
+
+  /** Reads one of the varint fields of a node.
+   * @param node the node index.
+   * @param field the field to read, the number of fields to skip.
+   * @return the field value.
+   */
+  private int field(final int node, final int field) {
+    if (node < 0 || node >= nodes) {
+      throw new IllegalArgumentException("Invalid node: " + node);
+    }
+    int position = buffer.getInt(nodeTable + 4 * node);
+    for (int i = 0; i < field; i++) {
+      while ((buffer.get(position++) & 0x80) != 0) {
+        continue;
+      }
+    }
+    return varint(position);
+  }
+
+  /** Reads a string of the string table.
+   * @param id the string id.
+   * @return the string, never null.
+   */
+  private String string(final int id) {
+    int position = buffer.getInt(DomainLogBinaryWriter.HEADER_SIZE + 4 * id);
+    int length = varint(position);
+    while ((buffer.get(position++) & 0x80) != 0) {
+      continue;
+    }
+    if (buffer.hasArray()) {
+      return new String(buffer.array(), buffer.arrayOffset() + position,
+          length, StandardCharsets.UTF_8);
+    }
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = buffer.get(position + i);
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /** Reads an unsigned varint.
+   * @param position the position of the varint.
+   * @return the value.
+   */
+  private int varint(final int position) {
+    int value = 0;
+    int shift = 0;
+    int current = position;
+    byte b;
+    do {
+      b = buffer.get(current++);
+      value |= (b & 0x7f) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return value;
+  }
+
+}
@@ -0,0 +1,791 @@
+package org.waabox.log;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.Validate;
+
+/** The tree of log entries, built incrementally while logging.
+ *
+ * Every entry is linked to its parent as soon as it's added. Stacks are
+ * resolved to path ids through a {@link StackDictionary} and the entry
+ * that declares each path is kept in an array indexed by that id, so
+ * locating the parent of a new entry never searches the tree.
+ *
+ * Stacks ending with '.' are not paths of the dictionary, the first entry
+ * logged with each one of them is indexed by its stack string so the
+ * entries that come after it are linked below it, as if it was a path.
+ *
+ * The links are also kept in flat arrays, the entries by the order they
+ * were linked and the first child and next sibling of each one, so
+ * {@link #view()} can hand out an immutable snapshot of the tree that
+ * resolves the children only when they are iterated. The arrays are
+ * only appended to, the links that are appended after a snapshot are
+ * past its end, and they are copied before they are changed in any other
+ * way if there is a snapshot that still uses them.
+ *
+ * When the tree is columnar, the entries are kept in a
+ * {@link ColumnarLogStore} instead, and none of the above applies.
+ *
+ * When the tree has {@link LogLimits}, the number of entries, their
+ * estimated bytes and the entries of each stack are tracked as they are
+ * added, so checking a limit never traverses the tree.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+final class DomainLogTree {
+
+  /** The root stack.*/
+  static final String ROOT = ".";
+
+  /** The root log entry, it's never null.*/
+  private DomainLog root;
+
+  /** The linked entries by the order they were linked, the root first,
+   * it's never null.*/
+  private DomainLog[] linked = new DomainLog[64];
+
+  /** The index of the first child of each linked entry, 0 if it has no
+   * children, it's never null.*/
+  private int[] firstChild = new int[64];
+
+  /** The index of the last child of each linked entry, 0 if it has no
+   * children, it's never null.*/
+  private int[] lastChild = new int[64];
+
+  /** The index of the next sibling of each linked entry, 0 if it's the
+   * last child, it's never null.*/
+  private int[] nextSibling = new int[64];
+
+  /** The number of linked entries, the root included.*/
+  private int linkedCount;
+
+  /** Whether the last view still uses the flat arrays.*/
+  private boolean shared;
+
+  /** The last view, null if the tree changed since then.*/
+  private DomainLogView view;
+
+  /** The off heap columns the entries are kept in instead of linking
+   * them, null to link them.*/
+  private ColumnarLogStore columns;
+
+  /** The dictionary that resolves the stacks to path ids, it's never
+   * null.*/
+  private final StackDictionary dictionary = new StackDictionary();
+
+  /** The entry that declares each path, indexed by path id, it's never
+   * null.*/
+  private DomainLog[] declared = new DomainLog[64];
+
+  /** The first entry of each stack that ends with '.', it's never null.*/
+  private final Map<String, DomainLog> trailing = new HashMap<>();
+
+  /** The log entries in the order they were logged, it's never null.
+   * A hash set so duplicated entries are detected in constant time.*/
+  private final Set<DomainLog> entries = new LinkedHashSet<>();
+
+  /** The first stack that could not be linked to a parent, null if all
+   * the entries were linked.*/
+  private String undeclaredStack;
+
+  /** The metrics of the appender of this tree, null if metrics are
+   * off.*/
+  private LoggerMetrics metrics;
+
+  /** The limits of this tree, it's never null.*/
+  private LogLimits limits = LogLimits.NONE;
+
+  /** The estimated bytes of the entries in the tree.*/
+  private long bytes;
+
+  /** The number of entries dropped or evicted because of the limits.*/
+  private int truncated;
+
+  /** The node that counts the truncated entries, null if there is no
+   * node yet.*/
+  private DomainLog marker;
+
+  /** The number of truncated entries the marker counts.*/
+  private int marked;
+
+  /** The entries that can be evicted, oldest first, it's never null.*/
+  private final ArrayDeque<DomainLog> evictable = new ArrayDeque<>();
+
+  /** The parent of each evictable entry, it's never null.*/
+  private final ArrayDeque<DomainLog> evictableParents = new ArrayDeque<>();
+
+  /** The number of entries of each path, indexed by path id, for the keep
+   * first policy, it's never null.*/
+  private int[] perStack = new int[0];
+
+  /** The appender of the logger of this tree, set in the roots it
+   * generates, null if the tree has no logger.*/
+  private final String appender;
+
+  /** Creates a new empty tree.*/
+  DomainLogTree() {
+    this(null);
+  }
+
+  /** Creates a new empty tree.
+   * @param theAppender the appender of the logger of this tree, null if
+   *  the tree has no logger.
+   */
+  DomainLogTree(final String theAppender) {
+    appender = theAppender;
+    root = new DomainLog(ROOT);
+    root.appender = appender;
+    linkRoot();
+  }
+
+  /** Adds the message into the given stack, declaring the stack and its
+   * parents if needed. The same message is added only once per stack.
+   * @param stack the stack, without the leading '.', cannot be null.
+   * @param message the message, cannot be null.
+   */
+  synchronized void add(final String stack, final String message) {
+    int path = dictionary.resolved(stack);
+    if (path == StackDictionary.UNRESOLVED) {
+      if (limits != LogLimits.NONE && !fits(stack, message)) {
+        if (columns != null) {
+          columns.truncate();
+        } else {
+          truncate();
+        }
+        return;
+      }
+      path = dictionary.resolve(stack);
+    }
+    if (columns != null) {
+      columns.add(path, message);
+      return;
+    }
+    boolean regular = stack.isEmpty()
+        || stack.charAt(stack.length() - 1) != '.';
+    if (regular) {
+      add(path, new DomainLog(dictionary.stack(path), message));
+      return;
+    }
+    DomainLog entry = new DomainLog("." + stack, message);
+    if (!admit(path, entry)) {
+      return;
+    }
+    String theStack = entry.getStack();
+    DomainLog parent = find(theStack);
+    if (parent == null) {
+      String parentStack = theStack.substring(0, theStack.length() - 1);
+      parent = find(parentStack);
+      if (parent == null) {
+        if (undeclaredStack == null) {
+          undeclaredStack = parentStack;
+        }
+        return;
+      }
+      trailing.put(theStack, entry);
+    }
+    link(parent, entry);
+    admitted(path, entry, parent);
+  }
+
+  /** Adds the message into the stack of the given structure, resolving the
+   * stack into the dictionary without rendering it.
+   * @param structure the structure, cannot be null.
+   * @param arguments the arguments of the structure, cannot be null.
+   * @param globals the global variables, cannot be null.
+   * @param message the message, cannot be null.
+   * @return false if the stack of the structure must be rendered and
+   *  added with {@link #add(String, String)}, nothing was added. Under
+   *  limits the stacks that are not in the dictionary are rendered, so
+   *  the dropped ones never grow it.
+   */
+  synchronized boolean add(final StructureHandle structure,
+      final String[] arguments, final Map<String, String> globals,
+      final String message) {
+    int path = structure.resolve(dictionary, arguments, globals,
+        limits == LogLimits.NONE);
+    if (path == -2) {
+      return false;
+    }
+    if (columns != null) {
+      columns.add(path, message);
+      return true;
+    }
+    add(path, new DomainLog(dictionary.stack(path), message));
+    return true;
+  }
+
+  /** Links the given entry of a regular stack, one that does not end with
+   * '.', below the first entry of its path.
+   * @param path the path id of the entry.
+   * @param entry the entry.
+   */
+  private void add(final int path, final DomainLog entry) {
+    if (!admit(path, entry)) {
+      return;
+    }
+    DomainLog parent = first(path);
+    link(parent, entry);
+    admitted(path, entry, parent);
+  }
+
+  /** Checks that the entry is not a duplicate and that the limits leave
+   * room for it, then declares its path and counts it as an entry.
+   * @param path the path id of the entry, NONE if it has no path.
+   * @param entry the entry.
+   * @return true if the entry has to be linked.
+   */
+  private boolean admit(final int path, final DomainLog entry) {
+    if (entries.contains(entry)) {
+      if (metrics != null) {
+        metrics.duplicate();
+      }
+      return false;
+    }
+    if (limits != LogLimits.NONE && !fits(path, entry)) {
+      truncate();
+      return false;
+    }
+    if (path != StackDictionary.NONE) {
+      declare(path);
+    }
+    entries.add(entry);
+    return true;
+  }
+
+  /** Checks if the limits leave room for the given entry, evicting the
+   * oldest entries if the policy allows it.
+   * @param path the path id of the entry, NONE if it has no path.
+   * @param entry the entry.
+   * @return true if the entry can be added.
+   */
+  private boolean fits(final int path, final DomainLog entry) {
+    if (path != StackDictionary.NONE) {
+      if (limits.depth() > 0 && dictionary.depth(path) > limits.depth()) {
+        return false;
+      }
+      if (limits.policy() == LogLimits.Policy.KEEP_FIRST
+          && path < perStack.length && perStack[path] >= limits.perStack()) {
+        return false;
+      }
+    }
+    return fits(path, 0, cost(entry));
+  }
+
+  /** Checks if the limits leave room for the message of a stack that was
+   * never resolved, before its paths are created in the dictionary.
+   * @param stack the stack, without the leading '.', cannot be null.
+   * @param message the message, cannot be null.
+   * @return true if the entry can be added.
+   */
+  private boolean fits(final String stack, final String message) {
+    int end = stack.length();
+    while (end > 0 && stack.charAt(end - 1) == '.') {
+      end--;
+    }
+    if (end == 0 && !stack.isEmpty()) {
+      return true;
+    }
+    int prefix = dictionary.prefix(stack);
+    int from = 0;
+    int depth = 0;
+    if (prefix != StackDictionary.NONE) {
+      from = dictionary.stack(prefix).length();
+      depth = dictionary.depth(prefix);
+    }
+    int missing = 0;
+    long cost = (stack.length() + 1 + message.length()) * 2L;
+    while (from <= end) {
+      int to = stack.indexOf('.', from);
+      if (to == -1 || to > end) {
+        to = end;
+      }
+      missing++;
+      cost += (to + 1) * 2L;
+      from = to + 1;
+    }
+    if (limits.depth() > 0 && depth + missing > limits.depth()) {
+      return false;
+    }
+    if (columns != null) {
+      return columns.fits(prefix, missing, cost);
+    }
+    return fits(prefix, missing, cost);
+  }
+
+  /** Checks if the limits leave room for an entry and the stack entries
+   * that declaring its path links, evicting the oldest entries if the
+   * policy allows it.
+   * @param path the path id that is declared, NONE if there is none.
+   * @param missing the number of paths below it that are not in the
+   *  dictionary yet.
+   * @param cost the bytes of the entry and of the missing paths.
+   * @return true if the entries can be added.
+   */
+  private boolean fits(final int path, final int missing, final long cost) {
+    while (true) {
+      int count = 1 + missing;
+      long total = cost;
+      int current = path;
+      while (current != StackDictionary.NONE
+          && (current >= declared.length || declared[current] == null)) {
+        count++;
+        total += dictionary.stack(current).length() * 2L;
+        current = dictionary.parent(current);
+      }
+      if ((limits.entries() <= 0 || entries.size() + count <= limits.entries())
+          && (limits.bytes() <= 0 || bytes + total <= limits.bytes())) {
+        return true;
+      }
+      if (limits.policy() != LogLimits.Policy.KEEP_LATEST || !evict()) {
+        return false;
+      }
+    }
+  }
+
+  /** Accounts the given entry, that was just linked into the tree.
+   * @param path the path id of the entry, NONE if it has no path.
+   * @param entry the entry.
+   * @param parent the entry it was linked below.
+   */
+  private void admitted(final int path, final DomainLog entry,
+      final DomainLog parent) {
+    if (metrics != null) {
+      metrics.entry();
+    }
+    if (limits == LogLimits.NONE) {
+      return;
+    }
+    bytes += cost(entry);
+    switch (limits.policy()) {
+    case KEEP_LATEST:
+      evictable.add(entry);
+      evictableParents.add(parent);
+      break;
+    case KEEP_FIRST:
+      if (path != StackDictionary.NONE) {
+        if (path >= perStack.length) {
+          perStack = Arrays.copyOf(perStack, Math.max(path + 1,
+              perStack.length * 2));
+        }
+        perStack[path]++;
+      }
+      break;
+    default:
+      break;
+    }
+  }
+
+  /** Evicts the oldest entry that no other entry was linked below, and
+   * the stack entries it leaves without children.
+   * @return true if an entry was evicted.
+   */
+  private boolean evict() {
+    while (!evictable.isEmpty()) {
+      DomainLog entry = evictable.poll();
+      DomainLog parent = evictableParents.poll();
+      if (!entry.getNodes().isEmpty()) {
+        continue;
+      }
+      remove(parent, entry);
+      truncate();
+      while (parent != root && parent.getValue() == null
+          && parent.getNodes().isEmpty()) {
+        int path = dictionary.find(parent.getStack().substring(1));
+        if (path == StackDictionary.NONE || path >= declared.length
+            || declared[path] != parent) {
+          break;
+        }
+        entry = parent;
+        parent = trailing.get(entry.getStack());
+        if (parent == null) {
+          int above = dictionary.parent(path);
+          parent = above == StackDictionary.NONE ? root : first(above);
+        }
+        declared[path] = null;
+        remove(parent, entry);
+      }
+      return true;
+    }
+    return false;
+  }
+
+  /** Removes an entry, that has no children, from the tree.
+   * @param parent the parent of the entry.
+   * @param entry the entry.
+   */
+  private void remove(final DomainLog parent, final DomainLog entry) {
+    Iterator<DomainLog> siblings = parent.getNodes().iterator();
+    while (siblings.hasNext()) {
+      if (siblings.next() == entry) {
+        siblings.remove();
+        break;
+      }
+    }
+    unlink(parent, entry);
+    entries.remove(entry);
+    if (trailing.get(entry.getStack()) == entry) {
+      trailing.remove(entry.getStack());
+    }
+    bytes -= cost(entry);
+  }
+
+  /** Links an entry below its parent.
+   * @param parent the parent, it must be linked.
+   * @param entry the entry.
+   */
+  private void link(final DomainLog parent, final DomainLog entry) {
+    parent.add(entry);
+    if (linkedCount == linked.length) {
+      int capacity = linkedCount * 2;
+      linked = Arrays.copyOf(linked, capacity);
+      firstChild = Arrays.copyOf(firstChild, capacity);
+      lastChild = Arrays.copyOf(lastChild, capacity);
+      nextSibling = Arrays.copyOf(nextSibling, capacity);
+    }
+    int index = linkedCount++;
+    int parentIndex = parent.index;
+    linked[index] = entry;
+    entry.index = index;
+    if (firstChild[parentIndex] == 0) {
+      firstChild[parentIndex] = index;
+    } else {
+      nextSibling[lastChild[parentIndex]] = index;
+    }
+    lastChild[parentIndex] = index;
+    view = null;
+  }
+
+  /** Links the root, the first entry of the flat arrays.*/
+  private void linkRoot() {
+    linked[0] = root;
+    linkedCount = 1;
+  }
+
+  /** Unlinks an entry, that has no children, from its parent.
+   * @param parent the parent.
+   * @param entry the entry.
+   */
+  private void unlink(final DomainLog parent, final DomainLog entry) {
+    if (shared) {
+      linked = linked.clone();
+      firstChild = firstChild.clone();
+      lastChild = lastChild.clone();
+      nextSibling = nextSibling.clone();
+      shared = false;
+    }
+    int parentIndex = parent.index;
+    int index = entry.index;
+    int previous = 0;
+    int current = firstChild[parentIndex];
+    while (current != index) {
+      previous = current;
+      current = nextSibling[current];
+    }
+    if (previous == 0) {
+      firstChild[parentIndex] = nextSibling[index];
+    } else {
+      nextSibling[previous] = nextSibling[index];
+    }
+    if (lastChild[parentIndex] == index) {
+      lastChild[parentIndex] = previous;
+    }
+    nextSibling[index] = 0;
+    linked[index] = null;
+    view = null;
+  }
+
+  /** Counts an entry dropped or evicted because of the limits.*/
+  private void truncate() {
+    view = null;
+    truncated++;
+    if (metrics != null) {
+      metrics.truncate();
+    }
+  }
+
+  /** Estimates the bytes of the given entry, two per character.
+   * @param entry the entry.
+   * @return the estimated bytes.
+   */
+  private static long cost(final DomainLog entry) {
+    long length = entry.getStack().length();
+    if (entry.getValue() != null) {
+      length += entry.getValue().length();
+    }
+    return length * 2;
+  }
+
+  /** Sets the metrics this tree records into.
+   * @param theMetrics the metrics, null to not record them.
+   */
+  synchronized void metrics(final LoggerMetrics theMetrics) {
+    metrics = theMetrics;
+    if (columns != null) {
+      columns.metrics(theMetrics);
+    }
+  }
+
+  /** Sets the limits of this tree, from now on.
+   * @param theLimits the limits, cannot be null.
+   */
+  synchronized void limits(final LogLimits theLimits) {
+    limits = theLimits;
+    if (columns != null) {
+      columns.limits(theLimits);
+    }
+    evictable.clear();
+    evictableParents.clear();
+  }
+
+  /** Adds the given messages, in order, as if {@link #add(String, String)}
+   * was called for each one.
+   * @param stacks the stacks, cannot be null.
+   * @param messages the message of each stack, cannot be null.
+   * @param count the number of messages to add.
+   */
+  synchronized void addAll(final String[] stacks, final String[] messages,
+      final int count) {
+    for (int i = 0; i < count; i++) {
+      add(stacks[i], messages[i]);
+    }
+  }
+
+  /** Finds the first entry logged with the given stack.
+   * @param theStack the stack, starting with '.', cannot be null.
+   * @return the entry, null if there is no entry with that stack.
+   */
+  private DomainLog find(final String theStack) {
+    DomainLog entry = trailing.get(theStack);
+    if (entry == null) {
+      int path = dictionary.find(theStack.substring(1));
+      if (path != StackDictionary.NONE) {
+        entry = declared[path];
+      }
+    }
+    return entry;
+  }
+
+  /** Retrieves the first entry logged with the stack of the given path.
+   * @param path the path id, it must be declared.
+   * @return the entry, never null.
+   */
+  private DomainLog first(final int path) {
+    if (!trailing.isEmpty()) {
+      DomainLog entry = trailing.get(dictionary.stack(path));
+      if (entry != null) {
+        return entry;
+      }
+    }
+    return declared[path];
+  }
+
+  /** Declares the given path and its parents, linking a stack entry for
+   * each one that was not declared yet.
+   * @param path the path id.
+   */
+  private void declare(final int path) {
+    if (path < declared.length && declared[path] != null) {
+      return;
+    }
+    int parent = dictionary.parent(path);
+    if (parent != StackDictionary.NONE) {
+      declare(parent);
+    }
+    DomainLog entry = new DomainLog(dictionary.stack(path));
+    entries.add(entry);
+    if (limits != LogLimits.NONE) {
+      bytes += cost(entry);
+    }
+    if (metrics != null) {
+      metrics.stack();
+    }
+    DomainLog parentEntry = trailing.get(entry.getStack());
+    if (parentEntry == null) {
+      if (parent == StackDictionary.NONE) {
+        parentEntry = root;
+      } else {
+        parentEntry = first(parent);
+      }
+    }
+    link(parentEntry, entry);
+    if (path >= declared.length) {
+      declared = Arrays.copyOf(declared, Math.max(path + 1,
+          declared.length * 2));
+    }
+    declared[path] = entry;
+  }
+
+  /** Retrieves the root of the tree.
+   * @return the root log entry, never null.
+   * @throws DomainLogger.StackNotFoundException if an entry was logged
+   *  under a stack that was never declared.
+   */
+  synchronized DomainLog root() {
+    return root(true);
+  }
+
+  /** Retrieves the root of the tree.
+   * @param check false to not fail on the entries logged under a stack
+   *  that was never declared, they are not linked in the tree.
+   * @return the root log entry, never null.
+   * @throws DomainLogger.StackNotFoundException if check is true and an
+   *  entry was logged under a stack that was never declared.
+   */
+  synchronized DomainLog root(final boolean check) {
+    if (columns != null) {
+      DomainLog theView = columns.view();
+      theView.appender = appender;
+      return theView;
+    }
+    if (check && undeclaredStack != null) {
+      throw DomainLogger.StackNotFoundException.undeclaredStack(
+          undeclaredStack);
+    }
+    if (truncated > 0) {
+      mark();
+    }
+    return root;
+  }
+
+  /** Retrieves an immutable view of the tree as it is now.
+   *
+   * The view is not changed by the entries logged after this call, and
+   * the children of each entry are only resolved when they are
+   * iterated. The same view is returned until the tree changes.
+   *
+   * @return the root of the view, never null.
+   * @throws DomainLogger.StackNotFoundException if an entry was logged
+   *  under a stack that was never declared.
+   */
+  synchronized DomainLog view() {
+    if (columns != null) {
+      DomainLog theView = columns.view();
+      theView.appender = appender;
+      return theView;
+    }
+    if (undeclaredStack != null) {
+      throw DomainLogger.StackNotFoundException.undeclaredStack(
+          undeclaredStack);
+    }
+    if (view == null) {
+      DomainLog theMarker = null;
+      if (truncated > 0) {
+        theMarker = new DomainLog(LogLimits.TRUNCATED,
+            String.valueOf(truncated));
+      }
+      view = new DomainLogView(linked, firstChild, nextSibling, linkedCount,
+          theMarker);
+      view.appender = appender;
+      shared = true;
+    }
+    return view;
+  }
+
+  /** Makes the last node of the root the one that counts the truncated
+   * entries.*/
+  private void mark() {
+    List<DomainLog> nodes = root.getNodes();
+    if (marker != null) {
+      if (marked == truncated && nodes.get(nodes.size() - 1) == marker) {
+        return;
+      }
+      Iterator<DomainLog> it = nodes.iterator();
+      while (it.hasNext()) {
+        if (it.next() == marker) {
+          it.remove();
+          break;
+        }
+      }
+    }
+    marker = new DomainLog(LogLimits.TRUNCATED, String.valueOf(truncated));
+    marked = truncated;
+    root.add(marker);
+  }
+
+  /** Retrieves the number of entries of this tree, the stack entries
+   * included.
+   * @return the number of entries.
+   */
+  synchronized int size() {
+    if (columns != null) {
+      return columns.size();
+    }
+    return entries.size();
+  }
+
+  /** Retrieves the number of paths the dictionary of this tree holds.
+   * @return the number of paths.
+   */
+  synchronized int paths() {
+    return dictionary.size();
+  }
+
+  /** Keeps the entries in off heap columns instead of linking them as
+   * DomainLog objects, see {@link ColumnarLogStore}, or goes back to
+   * linking them. The tree must be empty.
+   * @param columnar true to keep the entries in columns.
+   */
+  synchronized void columnar(final boolean columnar) {
+    if (columnar == (columns != null)) {
+      return;
+    }
+    Validate.validState(entries.isEmpty()
+        && (columns == null || columns.size() == 0),
+        "The storage can only be changed while the tree is empty");
+    if (columnar) {
+      columns = new ColumnarLogStore(dictionary);
+      columns.limits(limits);
+      columns.metrics(metrics);
+    } else {
+      columns = null;
+    }
+  }
+
+  /** Removes all the entries from this tree.
+   *
+   * The capacity of the internal buffers is kept, only the root is
+   * replaced because the tree might still be in use.
+   */
+  synchronized void clear() {
+    if (columns != null) {
+      columns.clear();
+    }
+    root = new DomainLog(ROOT);
+    root.appender = appender;
+    if (shared) {
+      linked = new DomainLog[linked.length];
+      firstChild = new int[linked.length];
+      lastChild = new int[linked.length];
+      nextSibling = new int[linked.length];
+      shared = false;
+    } else {
+      Arrays.fill(linked, 0, linkedCount, null);
+      Arrays.fill(firstChild, 0, linkedCount, 0);
+      Arrays.fill(lastChild, 0, linkedCount, 0);
+      Arrays.fill(nextSibling, 0, linkedCount, 0);
+    }
+    linkRoot();
+    view = null;
+    Arrays.fill(perStack, 0, Math.min(dictionary.size(), perStack.length),
+        0);
+    bytes = 0;
+    truncated = 0;
+    marker = null;
+    evictable.clear();
+    evictableParents.clear();
+    Arrays.fill(declared, 0, Math.min(dictionary.size(), declared.length),
+        null);
+    dictionary.clear();
+    trailing.clear();
+    entries.clear();
+    undeclaredStack = null;
+  }
+
+}
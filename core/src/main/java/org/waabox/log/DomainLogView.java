@@ -0,0 +1,255 @@
+package org.waabox.log;
+
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+/** An immutable view of an entry of a tree, as the tree was when the view
+ * was taken.
+ *
+ * The view reads the flat storage of the tree through a {@link Snapshot},
+ * the children of an entry are located only the first time
+ * {@link #getNodes()} is called, and the view of each child is created
+ * only when it's retrieved from the list, so a consumer that pages
+ * through the top of a large trace never builds the rest of it.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+final class DomainLogView extends DomainLog {
+
+  /** The snapshot of the tree, it's never null.*/
+  private final Snapshot snapshot;
+
+  /** The index of the entry in the snapshot.*/
+  private final int node;
+
+  /** The children, null until they are first retrieved.*/
+  private volatile List<DomainLog> children;
+
+  /** Creates the view of the root of a tree.
+   * @param theSnapshot the snapshot of the tree, cannot be null.
+   */
+  DomainLogView(final Snapshot theSnapshot) {
+    this(theSnapshot, 0);
+  }
+
+  /** Creates the view of the root of a tree of linked entries.
+   * @param linked the linked entries of the tree, cannot be null.
+   * @param firstChild the first child of each entry, cannot be null.
+   * @param nextSibling the next sibling of each entry, cannot be null.
+   * @param count the number of linked entries in the view.
+   * @param marker the entry that counts the truncated entries, null if
+   *  there is none.
+   */
+  DomainLogView(final DomainLog[] linked, final int[] firstChild,
+      final int[] nextSibling, final int count, final DomainLog marker) {
+    this(new Linked(linked, firstChild, nextSibling, count, marker), 0);
+  }
+
+  /** Creates the view of an entry.
+   * @param theSnapshot the snapshot of the tree.
+   * @param theNode the index of the entry.
+   */
+  private DomainLogView(final Snapshot theSnapshot, final int theNode) {
+    super(theSnapshot.stack(theNode), theSnapshot.value(theNode),
+        Collections.<DomainLog>emptyList());
+    snapshot = theSnapshot;
+    node = theNode;
+  }
+
+  /** Retrieves the children of this entry, resolving them the first time.
+   * @return the children, an unmodifiable list, never null.
+   */
+  @Override
+  public List<DomainLog> getNodes() {
+    List<DomainLog> theChildren = children;
+    if (theChildren == null) {
+      theChildren = new Children(snapshot, node);
+      children = theChildren;
+    }
+    return theChildren;
+  }
+
+  /** Views are immutable.
+   * @param entry the entry.
+   * @throws UnsupportedOperationException always.
+   */
+  @Override
+  public void add(final DomainLog entry) {
+    throw new UnsupportedOperationException("The view is immutable");
+  }
+
+  /** The flat storage of a tree, up to the entries it had when the view
+   * was taken.
+   *
+   * Entries are identified by index, the root is 0 and 0 also stands for
+   * no entry in the links, as the root is never a child. The storage can
+   * keep growing after the snapshot, but the links to the entries past
+   * the count of the snapshot are ignored.
+   */
+  abstract static class Snapshot {
+
+    /** The number of entries, the ones past it were added later.*/
+    private final int count;
+
+    /** The entry that counts the truncated entries, null if there is
+     * none.*/
+    private final DomainLog marker;
+
+    /** Creates a new snapshot.
+     * @param theCount the number of entries, the root included.
+     * @param theMarker the entry that counts the truncated entries, null
+     *  if there is none.
+     */
+    Snapshot(final int theCount, final DomainLog theMarker) {
+      count = theCount;
+      marker = theMarker;
+    }
+
+    /** Retrieves the stack of an entry.
+     * @param index the index of the entry.
+     * @return the stack, never null.
+     */
+    abstract String stack(int index);
+
+    /** Retrieves the value of an entry.
+     * @param index the index of the entry.
+     * @return the value, null for stacks.
+     */
+    abstract String value(int index);
+
+    /** Retrieves the first child of an entry, as it's stored now.
+     * @param index the index of the entry.
+     * @return the index of the child, 0 if it has none.
+     */
+    abstract int firstChild(int index);
+
+    /** Retrieves the next sibling of an entry, as it's stored now.
+     * @param index the index of the entry.
+     * @return the index of the sibling, 0 if it has none.
+     */
+    abstract int nextSibling(int index);
+
+    /** Retrieves a link if it was in the tree when the view was taken.
+     * @param index the index of the linked entry, 0 for none.
+     * @return the index, or 0 if it was linked later.
+     */
+    private int link(final int index) {
+      return index < count ? index : 0;
+    }
+  }
+
+  /** The flat arrays of the linked entries of a {@link DomainLogTree}.*/
+  private static final class Linked extends Snapshot {
+
+    /** The linked entries, it's never null.*/
+    private final DomainLog[] linked;
+
+    /** The index of the first child of each entry, 0 if it has none, it's
+     * never null.*/
+    private final int[] firstChild;
+
+    /** The index of the next sibling of each entry, 0 if it has none,
+     * it's never null.*/
+    private final int[] nextSibling;
+
+    /** Creates a new snapshot.
+     * @param theLinked the linked entries.
+     * @param theFirstChild the first child of each entry.
+     * @param theNextSibling the next sibling of each entry.
+     * @param theCount the number of entries.
+     * @param theMarker the entry that counts the truncated entries.
+     */
+    Linked(final DomainLog[] theLinked, final int[] theFirstChild,
+        final int[] theNextSibling, final int theCount,
+        final DomainLog theMarker) {
+      super(theCount, theMarker);
+      linked = theLinked;
+      firstChild = theFirstChild;
+      nextSibling = theNextSibling;
+    }
+
+    /** {@inheritDoc}. */
+    @Override
+    String stack(final int index) {
+      return linked[index].getStack();
+    }
+
+    /** {@inheritDoc}. */
+    @Override
+    String value(final int index) {
+      return linked[index].getValue();
+    }
+
+    /** {@inheritDoc}. */
+    @Override
+    int firstChild(final int index) {
+      return firstChild[index];
+    }
+
+    /** {@inheritDoc}. */
+    @Override
+    int nextSibling(final int index) {
+      return nextSibling[index];
+    }
+  }
+
+  /** The children of an entry.*/
+  private static final class Children extends AbstractList<DomainLog>
+      implements RandomAccess {
+
+    /** The snapshot of the tree, it's never null.*/
+    private final Snapshot snapshot;
+
+    /** The index of each child, it's never null.*/
+    private final int[] indexes;
+
+    /** The view of each child, null until it's retrieved, it's never
+     * null.*/
+    private final DomainLog[] views;
+
+    /** Locates the children of an entry.
+     * @param theSnapshot the snapshot of the tree.
+     * @param parent the index of the entry.
+     */
+    Children(final Snapshot theSnapshot, final int parent) {
+      snapshot = theSnapshot;
+      int size = 0;
+      int child = snapshot.link(snapshot.firstChild(parent));
+      while (child != 0) {
+        size++;
+        child = snapshot.link(snapshot.nextSibling(child));
+      }
+      boolean marked = parent == 0 && snapshot.marker != null;
+      indexes = new int[size];
+      child = snapshot.link(snapshot.firstChild(parent));
+      for (int i = 0; i < size; i++) {
+        indexes[i] = child;
+        child = snapshot.link(snapshot.nextSibling(child));
+      }
+      views = new DomainLog[marked ? size + 1 : size];
+      if (marked) {
+        views[size] = snapshot.marker;
+      }
+    }
+
+    /** {@inheritDoc}. */
+    @Override
+    public DomainLog get(final int position) {
+      DomainLog view = views[position];
+      if (view == null) {
+        view = new DomainLogView(snapshot, indexes[position]);
+        views[position] = view;
+      }
+      return view;
+    }
+
+    /** {@inheritDoc}. */
+    @Override
+    public int size() {
+      return views.length;
+    }
+  }
+
+}
@@ -1,10 +1,8 @@
 package org.waabox.log;
 
 import java.util.*;
-import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.*;
 import java.util.function.*;
-import java.util.regex.*;
 
 import org.apache.commons.lang3.Validate;
 
@@ -15,40 +13,81 @@ import org.apache.commons.lang3.Validate;
 public class DomainLogger {
 
   /** The holds the instance., it's never null.*/
-  private static ThreadLocal<Map<String, DomainLogger>> instance;
+  private static ThreadLocal<ConcurrentMap<String, DomainLogger>> instance;
+
+  /** The loggers cleaned up by each thread, ready to be reused, it's
+   * never null.*/
+  private static ThreadLocal<Pool> recycled;
+
+  /** The maximum number of entries a logger can hold to be reused after
+   * it's cleaned up, 0 to never reuse them.*/
+  private static volatile int highWaterMark = 0;
+
+  /** The number of times recycling was turned off, a pool of an older
+   * generation is emptied the next time its thread uses it.*/
+  private static volatile int poolGeneration = 0;
+
+  /** The rules that decide which entries are logged, null to log them
+   * all.*/
+  private static volatile LogRuleTrie rules;
+
+  /** The limits of the new loggers, it's never null.*/
+  private static volatile LogLimits defaultLimits = LogLimits.NONE;
+
+  /** The aggregator of the traces cleaned up, null to not aggregate
+   * them.*/
+  private static volatile TraceAggregator aggregator;
 
   static {
     instance = ThreadLocal
-        .withInitial(new Supplier<Map<String, DomainLogger>>() {
+        .withInitial(new Supplier<ConcurrentMap<String, DomainLogger>>() {
           @Override
-          public Map<String, DomainLogger> get() {
+          public ConcurrentMap<String, DomainLogger> get() {
             return new ConcurrentHashMap<>();
           }
         });
+    recycled = ThreadLocal
+        .withInitial(new Supplier<Pool>() {
+          @Override
+          public Pool get() {
+            return new Pool();
+          }
+        });
   }
 
-  /** The list of log entries, it's never null.*/
-  private List<DomainLog> entries;
-
   /** The log context variables, it's never null.*/
-  private Map<String, String> contextVariables;
+  private final Map<String, String> contextVariables;
 
-  /** The root log entry.*/
-  private DomainLog root;
+  /** The tree that links the log entries as they are logged, it's never
+   * null.*/
+  private final DomainLogTree tree;
 
-  /** The set of declared stacks, it's never null.*/
-  private Set<String> stacks;
+  /** The buffers the entries are logged into when this logger is shared
+   * by many threads, null if the entries go straight into the tree.*/
+  private volatile StripedLogBuffer buffer;
 
-  /** Checks if this log is enabled or not, it's never null.*/
-  private boolean enabled;
+  /** Checks if this log is enabled or not.*/
+  private volatile boolean enabled;
 
-  /** Creates a new instance of the logger.*/
-  private DomainLogger() {
-    entries = Collections.synchronizedList(new LinkedList<DomainLog>());
+  /** The metrics of the appender of this logger, null if metrics are
+   * off.*/
+  private volatile LoggerMetrics metrics;
+
+  /** The random number of this logger for the probability rules, it
+   * changes every time the logger is cleaned up.*/
+  private volatile double draw;
+
+  /** Creates a new instance of the logger.
+   * @param appender the name of the appender of the logger.
+   */
+  private DomainLogger(final String appender) {
     contextVariables = new ConcurrentHashMap<>();
-    root = new DomainLog(".");
-    stacks = Collections.synchronizedSet(new HashSet<String>());
+    tree = new DomainLogTree(appender);
+    tree.limits(defaultLimits);
+    metrics = DomainLogMetrics.forLogger(appender);
+    tree.metrics(metrics);
     enabled = true;
+    draw = ThreadLocalRandom.current().nextDouble();
   }
 
   /** Retrieves the Domain log, never null.
@@ -57,23 +96,233 @@ public class DomainLogger {
    *  has not been registered.
    */
   public static DomainLogger get(final String appender) {
-    if (instance.get().containsKey(appender)) {
-      instance.get().get(appender);
-    } else {
-      instance.get().put(appender, new DomainLogger());
+    return get(instance.get(), appender);
+  }
+
+  /** Retrieves the logger of the given appender from the given loggers,
+   * creating it if needed.
+   * @param loggers the loggers by appender, cannot be null.
+   * @param appender the appender to retrieve, cannot be null.
+   * @return the logger, never null.
+   */
+  static DomainLogger get(final ConcurrentMap<String, DomainLogger> loggers,
+      final String appender) {
+    DomainLogger logger = loggers.get(appender);
+    if (logger == null) {
+      if (highWaterMark > 0) {
+        logger = pool().remove(appender);
+      }
+      if (logger == null) {
+        logger = new DomainLogger(appender);
+      }
+      DomainLogger previous = loggers.putIfAbsent(appender, logger);
+      if (previous != null) {
+        logger = previous;
+      }
+    }
+    return logger;
+  }
+
+  /** Retrieves the names of the appenders used by the current thread.
+   * @return the appender names, never null.
+   */
+  public static Set<String> appenders() {
+    return Collections.unmodifiableSet(instance.get().keySet());
+  }
+
+  /** Retrieves the loggers of the current thread.
+   * @return the loggers by appender, never null.
+   */
+  static ConcurrentMap<String, DomainLogger> loggers() {
+    return instance.get();
+  }
+
+  /** Makes the given loggers the loggers of the current thread.
+   * @param loggers the loggers by appender, cannot be null.
+   * @return the loggers the thread had before, never null.
+   */
+  static ConcurrentMap<String, DomainLogger> attach(
+      final ConcurrentMap<String, DomainLogger> loggers) {
+    ConcurrentMap<String, DomainLogger> previous = instance.get();
+    instance.set(loggers);
+    return previous;
+  }
+
+  /** Removes the loggers from the current thread without cleaning them
+   * up, they are still available to the {@link TraceContext} that holds
+   * them.*/
+  public static void detach() {
+    instance.remove();
+  }
+
+  /** Turns on or off the recycling of the loggers.
+   *
+   * When it's on, the loggers cleaned up by a thread are reset and kept
+   * by that thread, with the capacity of their internal buffers, and
+   * handed out again the next time the thread asks for the same appender,
+   * instead of allocating new ones on every unit of work. A logger that
+   * held more entries than the high-water mark is dropped, so a single
+   * big trace does not keep its memory for ever.
+   *
+   * The trees returned by {@link #generate()} are never reused, they
+   * might still be in use after the clean up.
+   *
+   * Turning it off empties the pools of every thread, each one the next
+   * time its thread logs or cleans up.
+   *
+   * @param theHighWaterMark the maximum number of entries a logger can
+   *  hold to be reused, 0 to turn recycling off, the default.
+   */
+  public static synchronized void recycle(final int theHighWaterMark) {
+    Validate.isTrue(theHighWaterMark >= 0,
+        "The high-water mark cannot be negative");
+    highWaterMark = theHighWaterMark;
+    if (theHighWaterMark == 0) {
+      poolGeneration++;
+      recycled.remove();
     }
-    return instance.get().get(appender);
   }
 
-  /** Cleans up the Thread Local storage values.*/
+  /** Retrieves the loggers recycled by the current thread, emptied first
+   * if recycling was turned off since the thread last used them.
+   * @return the loggers by appender, never null.
+   */
+  private static Map<String, DomainLogger> pool() {
+    Pool pool = recycled.get();
+    int generation = poolGeneration;
+    if (pool.generation != generation) {
+      pool.loggers.clear();
+      pool.generation = generation;
+    }
+    return pool.loggers;
+  }
+
+  /** Cleans up the Thread Local storage values.
+   *
+   * When recycling is on, the loggers and the thread local map are kept
+   * to be reused by the thread, so a {@link TraceContext} captured with
+   * {@link TraceContext#current()} must not be used after this call.
+   */
   public static void cleanup() {
-    for(DomainLogger log : instance.get().values()) {
-      log.entries.clear();
-      log.stacks.clear();
-      log.root = new DomainLog(".");
-      log.contextVariables.clear();
+    ConcurrentMap<String, DomainLogger> loggers = instance.get();
+    try {
+      cleanup(loggers);
+    } finally {
+      if (highWaterMark == 0) {
+        instance.remove();
+      }
+    }
+  }
+
+  /** Cleans up the given loggers.
+   * @param loggers the loggers by appender, cannot be null.
+   */
+  static void cleanup(final Map<String, DomainLogger> loggers) {
+    int mark = highWaterMark;
+    Map<String, DomainLogger> pool = null;
+    if (mark > 0) {
+      pool = pool();
+    }
+    TraceAggregator theAggregator = aggregator;
+    try {
+      for (Map.Entry<String, DomainLogger> entry : loggers.entrySet()) {
+        DomainLogger log = entry.getValue();
+        LoggerMetrics logMetrics = log.metrics;
+        long start = logMetrics == null ? 0 : System.nanoTime();
+        int size = log.tree.size();
+        boolean reuse = pool != null && size <= mark;
+        try {
+          if (theAggregator != null) {
+            theAggregator.add(log.root(false));
+          }
+        } finally {
+          log.clear();
+        }
+        if (logMetrics != null) {
+          logMetrics.cleanup(System.nanoTime() - start, size);
+        }
+        if (reuse) {
+          log.enabled = true;
+          log.buffer = null;
+          log.tree.columnar(false);
+          log.tree.limits(defaultLimits);
+          log.metrics = DomainLogMetrics.forLogger(entry.getKey());
+          log.tree.metrics(log.metrics);
+          pool.put(entry.getKey(), log);
+        }
+      }
+    } finally {
+      loggers.clear();
+    }
+  }
+
+  /** Removes the entries and the variables of this logger.*/
+  private void clear() {
+    StripedLogBuffer theBuffer = buffer;
+    if (theBuffer != null) {
+      theBuffer.clear();
+    }
+    tree.clear();
+    contextVariables.clear();
+    draw = ThreadLocalRandom.current().nextDouble();
+  }
+
+  /** Sets the aggregator that merges the trace of each logger when it's
+   * cleaned up.
+   * @param theAggregator the aggregator, null to stop aggregating.
+   */
+  public static void aggregate(final TraceAggregator theAggregator) {
+    aggregator = theAggregator;
+  }
+
+  /** Sets the limits of the loggers created from now on, and of the ones
+   * recycled.
+   * @param theLimits the limits, null for no limits.
+   */
+  public static void defaultLimits(final LogLimits theLimits) {
+    if (theLimits == null) {
+      defaultLimits = LogLimits.NONE;
+    } else {
+      defaultLimits = theLimits;
+    }
+  }
+
+  /** Sets the limits of the memory the tree of this logger can take.
+   *
+   * The entries dropped or evicted because of the limits are counted in
+   * a {@link LogLimits#TRUNCATED} node at the end of the generated tree.
+   * Entries logged by a concurrent logger are limited when they are
+   * merged into the tree.
+   *
+   * @param theLimits the limits, null for no limits.
+   * @return this logger, never null.
+   */
+  public DomainLogger limits(final LogLimits theLimits) {
+    if (theLimits == null) {
+      tree.limits(LogLimits.NONE);
+    } else {
+      tree.limits(theLimits);
+    }
+    return this;
+  }
+
+  /** Installs the rules that decide which entries are logged, replacing
+   * the ones in use.
+   *
+   * The rules are compiled once here, checking them when logging is a
+   * walk over the characters of the stack. The prefixes are matched
+   * against the stacks as they are logged, before replacing the global
+   * variables, and against the rendered stack of the structures that
+   * have no rule for their name.
+   *
+   * @param theRules the rules, null to log everything.
+   */
+  public static void rules(final LogRules theRules) {
+    if (theRules == null) {
+      rules = null;
+    } else {
+      rules = theRules.compile();
     }
-    instance.remove();
   }
 
   /** Register a global variable.
@@ -89,36 +338,78 @@ public class DomainLogger {
    * @param message the message to log, cannot be null.
    */
   public void log(final String stack, final String message) {
-    if (!isEnabled()) {
+    if (!accept(stack)) {
       return;
     }
-    Validate.notNull(stack, "The stack cannot be null");
     Validate.notNull(message, "The message cannot be null");
-    String theStack = replaceWithGlobals(stack);
-    if (!stacks.contains(theStack)) {
-      String[] paths = theStack.split(Pattern.quote("."));
-      for (int i = 0; i < paths.length; i++) {
-        String nStack = createStack(paths, i);
-        if (!stacks.contains(nStack)) {
-          stacks.add(nStack);
-          entries.add(new DomainLog(nStack));
-        }
-      }
+    add(replaceWithGlobals(stack), message);
+  }
+
+  /** Performs a log operation, only if this logger is enabled and the
+   * rules accept the stack, the message is only created in that case.
+   * @param stack the stack where the message belongs to, cannot be null.
+   * @param message creates the message to log, cannot be null.
+   */
+  public void log(final String stack, final Supplier<String> message) {
+    if (!accept(stack)) {
+      return;
+    }
+    Validate.notNull(message, "The message cannot be null");
+    String theMessage = message.get();
+    Validate.notNull(theMessage, "The message cannot be null");
+    add(replaceWithGlobals(stack), theMessage);
+  }
+
+  /** Checks if an entry of the given stack could be logged, to avoid
+   * building messages that would be discarded.
+   *
+   * The check is not counted as an entry, only the log operation counts
+   * for the rules that sample or limit the rate. A sampled stack is
+   * always enabled, as any entry might be the one logged.
+   *
+   * @param stack the stack, cannot be null.
+   * @return false if this logger is disabled or the rules would discard
+   *  the entry.
+   */
+  public boolean isEnabled(final String stack) {
+    if (!enabled) {
+      return false;
     }
-    DomainLog entry = new DomainLog("." + theStack, message);
-    if (!entries.contains(entry)) {
-      entries.add(new DomainLog("." + theStack, message));
+    Validate.notNull(stack, "The stack cannot be null");
+    LogRuleTrie theRules = rules;
+    return theRules == null || theRules.enabled(stack, draw);
+  }
+
+  /** Decides if an entry of the given stack is logged, counting it for
+   * the rules that sample or limit the rate.
+   * @param stack the stack, cannot be null.
+   * @return true if this logger is enabled and the rules accept it.
+   */
+  private boolean accept(final String stack) {
+    if (!enabled) {
+      return false;
     }
+    Validate.notNull(stack, "The stack cannot be null");
+    LogRuleTrie theRules = rules;
+    return theRules == null || theRules.accept(stack, draw);
   }
 
-  /** Creates the stack for the given paths and position.
-   * @param paths the array of paths.
-   * @param position the current path position.
-   * @return the stack.
+  /** Adds the message into the buffers of the current thread when this
+   * logger is concurrent, otherwise into the tree.
+   * @param stack the resolved stack.
+   * @param message the message.
    */
-  private String createStack(final String[] paths, final int position) {
-    String path = String.join(".", Arrays.copyOfRange(paths, 0, position + 1));
-    return "." + path;
+  private void add(final String stack, final String message) {
+    LoggerMetrics theMetrics = metrics;
+    if (theMetrics != null) {
+      theMetrics.log();
+    }
+    StripedLogBuffer theBuffer = buffer;
+    if (theBuffer == null) {
+      tree.add(stack, message);
+    } else {
+      theBuffer.add(stack, message);
+    }
   }
 
   /** Replaces the given stack with the global variables.
@@ -126,50 +417,207 @@ public class DomainLogger {
    * @return the new stack.
    */
   private String replaceWithGlobals(final String path) {
-    String stack = path;
-    Set<Entry<String, String>> values = contextVariables.entrySet();
-    for (Entry<String, String> entry : values) {
-      String key = "${" + entry.getKey() + "}";
-      if (stack.contains(key)) {
-        stack = stack.replace(key, entry.getValue());
-      }
+    if (contextVariables.isEmpty() || !StackTemplate.hasPlaceholders(path)) {
+      return path;
     }
-    return stack;
+    return StackTemplate.compile(path).render(null, contextVariables);
   }
 
   /** Performs a log operation based on the given structure.
+   *
+   * The variables of the structure that are not bound are resolved with
+   * the global variables while the stack is rendered.
+   *
    * @param structure the structure, cannot be null.
    * @param message the message to log.
    */
   public void log(final Structure structure, final String message) {
-    log(structure.getStack(), message);
+    if (!isEnabled()) {
+      return;
+    }
+    Validate.notNull(structure, "The structure cannot be null");
+    Validate.notNull(message, "The message cannot be null");
+    String stack = accept(structure);
+    if (stack != null) {
+      add(stack, message);
+    }
+  }
+
+  /** Performs a log operation based on the given structure, the message
+   * is only created if the rules accept it.
+   * @param structure the structure, cannot be null.
+   * @param message creates the message to log, cannot be null.
+   */
+  public void log(final Structure structure,
+      final Supplier<String> message) {
+    if (!isEnabled()) {
+      return;
+    }
+    Validate.notNull(structure, "The structure cannot be null");
+    Validate.notNull(message, "The message cannot be null");
+    String stack = accept(structure);
+    if (stack != null) {
+      String theMessage = message.get();
+      Validate.notNull(theMessage, "The message cannot be null");
+      add(stack, theMessage);
+    }
+  }
+
+  /** Performs a log operation based on the given structure handle, with
+   * the values of its variables as arguments.
+   *
+   * The stack is resolved into the tree without being rendered, the
+   * variables without argument are resolved with the global variables.
+   *
+   * @param structure the structure, cannot be null.
+   * @param message the message to log, cannot be null.
+   * @param arguments the value of each variable of the structure, in the
+   *  order of {@link StructureHandle#getVariables()}, cannot be null.
+   */
+  public void log(final StructureHandle structure, final String message,
+      final String... arguments) {
+    if (!isEnabled()) {
+      return;
+    }
+    Validate.notNull(structure, "The structure cannot be null");
+    Validate.notNull(message, "The message cannot be null");
+    String stack = null;
+    LogRuleTrie theRules = rules;
+    if (theRules != null) {
+      LogRules.Rule rule = theRules.structure(structure.getName());
+      if (rule == null) {
+        stack = structure.render(arguments, contextVariables);
+        rule = theRules.find(stack);
+      }
+      if (rule != null && !rule.accept(draw)) {
+        return;
+      }
+    }
+    if (stack == null && buffer == null
+        && tree.add(structure, arguments, contextVariables, message)) {
+      LoggerMetrics theMetrics = metrics;
+      if (theMetrics != null) {
+        theMetrics.log();
+      }
+      return;
+    }
+    if (stack == null) {
+      stack = structure.render(arguments, contextVariables);
+    }
+    add(stack, message);
+  }
+
+  /** Checks if the rules accept an entry of the given structure, the
+   * stack is only rendered if there is no rule for the structure name or
+   * that rule accepts the entry.
+   * @param structure the structure.
+   * @return the rendered stack, null if the entry is not logged.
+   */
+  private String accept(final Structure structure) {
+    LogRuleTrie theRules = rules;
+    if (theRules == null) {
+      return structure.render(contextVariables);
+    }
+    LogRules.Rule rule = theRules.structure(structure.getName());
+    if (rule != null) {
+      return rule.accept(draw) ? structure.render(contextVariables) : null;
+    }
+    String stack = structure.render(contextVariables);
+    return theRules.accept(stack, draw) ? stack : null;
   }
 
   /** Generates the log entry.
+   *
+   * The entries are linked into the tree while they are logged, so this
+   * operation just returns the already built tree. When this logger is
+   * concurrent, the entries of every thread are first merged into the
+   * tree in the order they were logged.
+   *
    * @return the log entry, never null.
    */
   public DomainLog generate() {
-    for (DomainLog theEntry : entries) {
-      String stack = theEntry.getStack();
-      DomainLog parent = root.search(stack);
-      if (parent == null) {
-        String parentStack = stack.substring(0, stack.lastIndexOf('.'));
-        if (parentStack.equals("")) {
-          root.add(theEntry);
-        } else {
-          DomainLog newParent = root.search(parentStack);
-          if (newParent == null) {
-            throw StackNotFoundException.undeclaredStack(parentStack);
-          }
-          newParent.add(theEntry);
-        }
-      } else {
-        parent.add(theEntry);
-      }
+    LoggerMetrics theMetrics = metrics;
+    long start = theMetrics == null ? 0 : System.nanoTime();
+    DomainLog root = root(true);
+    if (theMetrics != null) {
+      theMetrics.generate(System.nanoTime() - start);
     }
     return root;
   }
 
+  /** Generates the tree like {@link #generate()} without recording it in
+   * the metrics, for the generations this class makes on its own.
+   * @param check false to not fail on the entries logged under a stack
+   *  that was never declared, they are left out of the tree.
+   * @return the root log entry, never null.
+   */
+  private DomainLog root(final boolean check) {
+    StripedLogBuffer theBuffer = buffer;
+    if (theBuffer != null) {
+      theBuffer.drainTo(tree);
+    }
+    return tree.root(check);
+  }
+
+  /** Retrieves an immutable view of the log entries logged so far.
+   *
+   * Unlike {@link #generate()}, the view does not change when more
+   * entries are logged, and the children of each entry are only resolved
+   * when its nodes are iterated, so a large trace can be paged through
+   * without building all of it. Calling this again returns the same view
+   * if nothing was logged in between.
+   *
+   * @return the root of the view, never null.
+   */
+  public DomainLog view() {
+    StripedLogBuffer theBuffer = buffer;
+    if (theBuffer != null) {
+      theBuffer.drainTo(tree);
+    }
+    return tree.view();
+  }
+
+  /** Keeps the entries of this logger in columns of off heap buffers
+   * instead of one DomainLog object per entry, for the loggers of long
+   * running jobs that hold hundreds of thousands of entries.
+   *
+   * The trees returned by {@link #generate()} are then immutable views
+   * over the columns, like {@link #view()}. The stacks that end with '.'
+   * are logged without the trailing dots, and the keep latest policy of
+   * the limits drops the newest entries. It must be called before
+   * anything is logged, and it's undone when the logger is recycled.
+   *
+   * @return this logger, never null.
+   */
+  public synchronized DomainLogger columnar() {
+    tree.columnar(true);
+    return this;
+  }
+
+  /** Makes this logger concurrent, to be shared by many threads, like the
+   * tasks of a parallel stream or a fork join pool.
+   *
+   * Each thread logs into its own buffer without locking, and the buffers
+   * are merged into the tree by the order the entries were logged when
+   * the tree is generated. Entries logged while the tree is generated
+   * might only show up the next time it's generated.
+   *
+   * @return this logger, never null.
+   */
+  public synchronized DomainLogger concurrent() {
+    if (buffer == null) {
+      buffer = new StripedLogBuffer();
+    }
+    return this;
+  }
+
+  /** Retrieves if this logger is concurrent or not.
+   * @return true if this logger is concurrent.
+   */
+  public boolean isConcurrent() {
+    return buffer != null;
+  }
+
   /** Enable this logger.*/
   public void enable() {
     enabled = true;
@@ -187,6 +635,16 @@ public class DomainLogger {
     return enabled;
   }
 
+  /** The loggers recycled by one thread.*/
+  private static final class Pool {
+
+    /** The loggers by appender, it's never null.*/
+    private final Map<String, DomainLogger> loggers = new HashMap<>();
+
+    /** The generation of recycling the loggers were pooled in.*/
+    private int generation;
+  }
+
   /** Exception for stacks, not found scenario.
    * @author waabox (me[at]waabox[dot]org)
    */
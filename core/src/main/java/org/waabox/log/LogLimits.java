@@ -0,0 +1,174 @@
+package org.waabox.log;
+
+import org.apache.commons.lang3.Validate;
+
+/** The limits of the memory a {@link DomainLogger} tree can take, and what
+ * it does with the entries logged once they are reached.
+ *
+ * The limits are the number of entries, an estimation of their bytes from
+ * the length of their stacks and values, and the depth of their stacks,
+ * 0 means no limit. The policies are:
+ *
+ * <pre>
+ * drop newest     the entries logged once a limit is reached are dropped.
+ * keep latest     the oldest entries are evicted to make room for the new
+ *                 ones, like a ring buffer.
+ * keep first N    only the first N entries of each stack are kept, the
+ *                 newest are dropped once a limit is reached.
+ * </pre>
+ *
+ * The entries dropped or evicted are counted and the generated tree ends
+ * with a {@link #TRUNCATED} node that has that count as value. Limits are
+ * immutable, each method returns a new one:
+ *
+ * <pre>
+ * DomainLogger.get("orders").limits(LogLimits.keepLatest()
+ *     .entries(10000).bytes(4 * 1024 * 1024).depth(32));
+ * </pre>
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+public final class LogLimits {
+
+  /** The stack of the node that counts the entries that were dropped, it
+   * does not start with '.' so it can't be logged.*/
+  public static final String TRUNCATED = "#truncated";
+
+  /** The kind of policy.*/
+  enum Policy {
+    /** Drops the newest entries.*/
+    DROP_NEWEST,
+    /** Evicts the oldest entries.*/
+    KEEP_LATEST,
+    /** Keeps the first N entries of each stack.*/
+    KEEP_FIRST
+  }
+
+  /** No limits, it's never null.*/
+  static final LogLimits NONE = new LogLimits(Policy.DROP_NEWEST, 0, 0, 0,
+      0);
+
+  /** The policy, it's never null.*/
+  private final Policy policy;
+
+  /** The entries per stack kept by the keep first policy.*/
+  private final int perStack;
+
+  /** The maximum number of entries, 0 for no limit.*/
+  private final int entries;
+
+  /** The maximum estimated bytes of the entries, 0 for no limit.*/
+  private final long bytes;
+
+  /** The maximum depth of the stacks, 0 for no limit.*/
+  private final int depth;
+
+  /** Creates a new instance.
+   * @param thePolicy the policy.
+   * @param thePerStack the entries per stack of the keep first policy.
+   * @param theEntries the maximum number of entries.
+   * @param theBytes the maximum estimated bytes.
+   * @param theDepth the maximum depth.
+   */
+  private LogLimits(final Policy thePolicy, final int thePerStack,
+      final int theEntries, final long theBytes, final int theDepth) {
+    policy = thePolicy;
+    perStack = thePerStack;
+    entries = theEntries;
+    bytes = theBytes;
+    depth = theDepth;
+  }
+
+  /** Drops the entries logged once a limit is reached.
+   * @return the limits, with no limit set yet, never null.
+   */
+  public static LogLimits dropNewest() {
+    return NONE;
+  }
+
+  /** Evicts the oldest entries to make room for the new ones once a limit
+   * is reached.
+   *
+   * An entry that other entries were linked below is never evicted.
+   *
+   * @return the limits, with no limit set yet, never null.
+   */
+  public static LogLimits keepLatest() {
+    return new LogLimits(Policy.KEEP_LATEST, 0, 0, 0, 0);
+  }
+
+  /** Keeps only the first entries of each stack, and drops the newest
+   * entries once a limit is reached.
+   * @param perStack the entries kept per stack, greater than 0.
+   * @return the limits, with no limit set yet, never null.
+   */
+  public static LogLimits keepFirst(final int perStack) {
+    Validate.isTrue(perStack > 0, "The entries per stack must be"
+        + " greater than 0");
+    return new LogLimits(Policy.KEEP_FIRST, perStack, 0, 0, 0);
+  }
+
+  /** Limits the number of entries, the stack entries included.
+   * @param max the maximum, 0 for no limit.
+   * @return the new limits, never null.
+   */
+  public LogLimits entries(final int max) {
+    Validate.isTrue(max >= 0, "The maximum cannot be negative");
+    return new LogLimits(policy, perStack, max, bytes, depth);
+  }
+
+  /** Limits the estimated bytes of the entries, two per character of their
+   * stacks and values.
+   * @param max the maximum, 0 for no limit.
+   * @return the new limits, never null.
+   */
+  public LogLimits bytes(final long max) {
+    Validate.isTrue(max >= 0, "The maximum cannot be negative");
+    return new LogLimits(policy, perStack, entries, max, depth);
+  }
+
+  /** Limits the depth of the stacks, deeper entries are dropped.
+   * @param max the maximum number of segments, 0 for no limit.
+   * @return the new limits, never null.
+   */
+  public LogLimits depth(final int max) {
+    Validate.isTrue(max >= 0, "The maximum cannot be negative");
+    return new LogLimits(policy, perStack, entries, bytes, max);
+  }
+
+  /** Retrieves the policy.
+   * @return the policy, never null.
+   */
+  Policy policy() {
+    return policy;
+  }
+
+  /** Retrieves the entries kept per stack by the keep first policy.
+   * @return the entries per stack.
+   */
+  int perStack() {
+    return perStack;
+  }
+
+  /** Retrieves the maximum number of entries.
+   * @return the maximum, 0 for no limit.
+   */
+  int entries() {
+    return entries;
+  }
+
+  /** Retrieves the maximum estimated bytes.
+   * @return the maximum, 0 for no limit.
+   */
+  long bytes() {
+    return bytes;
+  }
+
+  /** Retrieves the maximum depth.
+   * @return the maximum, 0 for no limit.
+   */
+  int depth() {
+    return depth;
+  }
+
+}
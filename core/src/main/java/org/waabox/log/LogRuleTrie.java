@@ -0,0 +1,209 @@
+package org.waabox.log;
+
+import java.util.*;
+
+/** The compiled {@link LogRules}, a character trie of the stack prefixes
+ * flattened into arrays.
+ *
+ * Each state of the trie has its transitions in a range of the labels and
+ * targets arrays, and the rule of the prefix that ends in it, if any.
+ * Finding the rule of a stack walks its characters once, remembering the
+ * last rule found at a '.' or at the end of the stack, so the longest
+ * prefix wins without backtracking.
+ *
+ * The stacks logged are usually a handful of literals, so the rule found
+ * for each stack is kept in a small direct mapped cache indexed by the
+ * hash of the stack, and the check of a stack seen before is a couple of
+ * array reads.
+ *
+ * A trie is immutable but for its cache and the counters of its rules,
+ * and it's thread safe.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+final class LogRuleTrie {
+
+  /** The number of stacks of the cache, a power of 2.*/
+  private static final int CACHE_SIZE = 1024;
+
+  /** The rule found for the last stack of each slot, by hash of the stack,
+   * it's never null.*/
+  private final Cached[] cache = new Cached[CACHE_SIZE];
+
+  /** The first transition of each state, it's never null.*/
+  private final int[] first;
+
+  /** The number of transitions of each state, it's never null.*/
+  private final int[] count;
+
+  /** The character of each transition, it's never null.*/
+  private final char[] labels;
+
+  /** The state each transition goes to, it's never null.*/
+  private final int[] targets;
+
+  /** The rule of the prefix that ends in each state, null if there is no
+   * prefix ending in it, it's never null.*/
+  private final LogRules.Rule[] rules;
+
+  /** The rules of the structures by name, it's never null.*/
+  private final Map<String, LogRules.Rule> structures;
+
+  /** Creates a new trie.
+   * @param stacks the rules by stack prefix, cannot be null.
+   * @param theStructures the rules by structure name, cannot be null.
+   */
+  LogRuleTrie(final Map<String, LogRules.Rule> stacks,
+      final Map<String, LogRules.Rule> theStructures) {
+    structures = theStructures;
+
+    // builds the trie with a sorted map per state, then flattens it.
+    List<TreeMap<Character, Integer>> states = new ArrayList<>();
+    List<LogRules.Rule> stateRules = new ArrayList<>();
+    states.add(new TreeMap<Character, Integer>());
+    stateRules.add(null);
+    int transitions = 0;
+    for (Map.Entry<String, LogRules.Rule> entry : stacks.entrySet()) {
+      String prefix = entry.getKey();
+      int state = 0;
+      for (int i = 0; i < prefix.length(); i++) {
+        Integer next = states.get(state).get(prefix.charAt(i));
+        if (next == null) {
+          next = states.size();
+          states.add(new TreeMap<Character, Integer>());
+          stateRules.add(null);
+          states.get(state).put(prefix.charAt(i), next);
+          transitions++;
+        }
+        state = next;
+      }
+      stateRules.set(state, entry.getValue());
+    }
+
+    first = new int[states.size()];
+    count = new int[states.size()];
+    labels = new char[transitions];
+    targets = new int[transitions];
+    rules = stateRules.toArray(new LogRules.Rule[states.size()]);
+    int position = 0;
+    for (int state = 0; state < states.size(); state++) {
+      first[state] = position;
+      count[state] = states.get(state).size();
+      for (Map.Entry<Character, Integer> transition
+          : states.get(state).entrySet()) {
+        labels[position] = transition.getKey();
+        targets[position] = transition.getValue();
+        position++;
+      }
+    }
+  }
+
+  /** Finds the rule of the longest prefix of the given stack.
+   * @param stack the stack, cannot be null.
+   * @return the rule, null if no prefix matches.
+   */
+  LogRules.Rule find(final String stack) {
+    int slot = stack.hashCode() & (CACHE_SIZE - 1);
+    Cached cached = cache[slot];
+    if (cached != null && cached.stack.equals(stack)) {
+      return cached.rule;
+    }
+    LogRules.Rule rule = walk(stack);
+    cache[slot] = new Cached(stack, rule);
+    return rule;
+  }
+
+  /** Walks the trie to find the rule of the longest prefix of the given
+   * stack.
+   * @param stack the stack, cannot be null.
+   * @return the rule, null if no prefix matches.
+   */
+  private LogRules.Rule walk(final String stack) {
+    LogRules.Rule match = rules[0];
+    int state = 0;
+    int length = stack.length();
+    for (int i = 0; i < length; i++) {
+      char c = stack.charAt(i);
+      if (c == '.' && rules[state] != null) {
+        match = rules[state];
+      }
+      state = next(state, c);
+      if (state == -1) {
+        return match;
+      }
+    }
+    if (rules[state] != null) {
+      match = rules[state];
+    }
+    return match;
+  }
+
+  /** Finds the rule of the given structure name.
+   * @param name the name, cannot be null.
+   * @return the rule, null if there is no rule for that name.
+   */
+  LogRules.Rule structure(final String name) {
+    if (structures.isEmpty()) {
+      return null;
+    }
+    return structures.get(name);
+  }
+
+  /** Decides if an entry of the given stack is logged.
+   * @param stack the stack, cannot be null.
+   * @param draw the random number of the logger.
+   * @return true to log the entry.
+   */
+  boolean accept(final String stack, final double draw) {
+    LogRules.Rule rule = find(stack);
+    return rule == null || rule.accept(draw);
+  }
+
+  /** Checks if an entry of the given stack could be logged, without
+   * counting it as an entry.
+   * @param stack the stack, cannot be null.
+   * @param draw the random number of the logger.
+   * @return false if the entry would not be logged.
+   */
+  boolean enabled(final String stack, final double draw) {
+    LogRules.Rule rule = find(stack);
+    return rule == null || rule.enabled(draw);
+  }
+
+  /** Retrieves the state the given character goes to from a state.
+   * @param state the state.
+   * @param c the character.
+   * @return the next state, -1 if there is no transition.
+   */
+  private int next(final int state, final char c) {
+    int from = first[state];
+    int to = from + count[state];
+    for (int i = from; i < to; i++) {
+      if (labels[i] == c) {
+        return targets[i];
+      }
+    }
+    return -1;
+  }
+
+  /** The rule found for a stack, immutable so it's safely published
+   * through the cache without locking.*/
+  private static final class Cached {
+
+    /** The stack, it's never null.*/
+    private final String stack;
+
+    /** The rule of the stack, null if no prefix matches.*/
+    private final LogRules.Rule rule;
+
+    /** Creates a new cached rule.
+     * @param theStack the stack.
+     * @param theRule the rule of the stack.
+     */
+    private Cached(final String theStack, final LogRules.Rule theRule) {
+      stack = theStack;
+      rule = theRule;
+    }
+  }
+
+}
@@ -0,0 +1,326 @@
+package org.waabox.log;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.Validate;
+
+/** The rules that decide which entries are logged, by stack prefix and by
+ * structure name.
+ *
+ * Each rule has a selector and an action. The selector is a stack prefix,
+ * that matches the stacks that start with it up to a '.', or a structure
+ * name starting with '@'. The empty selector matches every stack. When
+ * many prefixes match a stack, the longest one wins. The actions are:
+ *
+ * <pre>
+ * on                log every entry.
+ * off               log no entry.
+ * sample N          log one of every N entries.
+ * rate N            log up to N entries per second.
+ * probability P     log the entries of a fraction P of the loggers, the
+ *                   same loggers every time, so a request is traced
+ *                   completely or not traced at all.
+ * </pre>
+ *
+ * The rules are installed with {@link DomainLogger#rules(LogRules)}, that
+ * compiles them and replaces the ones in use, so they can be reloaded at
+ * any time. The same rules can be parsed from a text, one per line:
+ *
+ * <pre>
+ * # comments start with '#'
+ * = on
+ * customer.orders = sample 10
+ * customer.orders.audit = off
+ * &#64;checkout = probability 0.05
+ * </pre>
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+public final class LogRules {
+
+  /** The rules in the order they were defined, it's never null.*/
+  private final Map<String, Rule> rules = new LinkedHashMap<>();
+
+  /** Creates a new empty set of rules, use the static methods.*/
+  private LogRules() {
+  }
+
+  /** Creates a new empty set of rules, that logs everything.
+   * @return the rules, never null.
+   */
+  public static LogRules create() {
+    return new LogRules();
+  }
+
+  /** Parses the rules from the given text.
+   * @param text the rules, one per line, cannot be null.
+   * @return the rules, never null.
+   * @throws IllegalArgumentException if a line is not a valid rule.
+   */
+  public static LogRules parse(final String text) {
+    Validate.notNull(text, "The text cannot be null");
+    try {
+      return parse(new StringReader(text));
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /** Parses the rules from the given reader.
+   * @param reader the rules, one per line, cannot be null.
+   * @return the rules, never null.
+   * @throws IOException if the reader fails.
+   * @throws IllegalArgumentException if a line is not a valid rule.
+   */
+  public static LogRules parse(final Reader reader) throws IOException {
+    Validate.notNull(reader, "The reader cannot be null");
+    LogRules result = new LogRules();
+    BufferedReader lines = new BufferedReader(reader);
+    String line;
+    int number = 0;
+    while ((line = lines.readLine()) != null) {
+      number++;
+      line = line.trim();
+      if (line.isEmpty() || line.charAt(0) == '#') {
+        continue;
+      }
+      int equals = line.indexOf('=');
+      Validate.isTrue(equals != -1, "Missing '=' at line %d", number);
+      String selector = line.substring(0, equals).trim();
+      String[] action = line.substring(equals + 1).trim().split("\\s+");
+      try {
+        result.rule(selector, action);
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException(e.getMessage() + " at line "
+            + number, e);
+      }
+    }
+    return result;
+  }
+
+  /** Adds the rule of the given parsed action.
+   * @param selector the selector.
+   * @param action the action and its argument.
+   */
+  private void rule(final String selector, final String[] action) {
+    String kind = action[0];
+    if (action.length == 1 && kind.equals("on")) {
+      enable(selector);
+    } else if (action.length == 1 && kind.equals("off")) {
+      disable(selector);
+    } else if (action.length == 2 && kind.equals("sample")) {
+      sample(selector, Integer.parseInt(action[1]));
+    } else if (action.length == 2 && kind.equals("rate")) {
+      rate(selector, Integer.parseInt(action[1]));
+    } else if (action.length == 2 && kind.equals("probability")) {
+      probability(selector, Double.parseDouble(action[1]));
+    } else {
+      throw new IllegalArgumentException("Invalid action "
+          + Arrays.toString(action));
+    }
+  }
+
+  /** Logs every entry of the given selector.
+   * @param selector the stack prefix or '@' and the structure name,
+   *  cannot be null.
+   * @return this.
+   */
+  public LogRules enable(final String selector) {
+    return add(selector, new Rule(Rule.ON, 0, 0));
+  }
+
+  /** Logs no entry of the given selector.
+   * @param selector the stack prefix or '@' and the structure name,
+   *  cannot be null.
+   * @return this.
+   */
+  public LogRules disable(final String selector) {
+    return add(selector, new Rule(Rule.OFF, 0, 0));
+  }
+
+  /** Logs one of every given number of entries of the given selector.
+   * @param selector the stack prefix or '@' and the structure name,
+   *  cannot be null.
+   * @param every the number of entries per logged entry, greater than 0.
+   * @return this.
+   */
+  public LogRules sample(final String selector, final int every) {
+    Validate.isTrue(every > 0, "The sample must be greater than 0");
+    return add(selector, new Rule(Rule.SAMPLE, every, 0));
+  }
+
+  /** Logs up to the given number of entries per second of the given
+   * selector.
+   * @param selector the stack prefix or '@' and the structure name,
+   *  cannot be null.
+   * @param perSecond the entries per second, cannot be negative.
+   * @return this.
+   */
+  public LogRules rate(final String selector, final int perSecond) {
+    Validate.isTrue(perSecond >= 0, "The rate cannot be negative");
+    return add(selector, new Rule(Rule.RATE, perSecond, 0));
+  }
+
+  /** Logs the entries of the given selector only in a fraction of the
+   * loggers, decided once per logger.
+   * @param selector the stack prefix or '@' and the structure name,
+   *  cannot be null.
+   * @param probability the fraction of the loggers, from 0 to 1.
+   * @return this.
+   */
+  public LogRules probability(final String selector,
+      final double probability) {
+    Validate.isTrue(probability >= 0 && probability <= 1,
+        "The probability must be between 0 and 1");
+    return add(selector, new Rule(Rule.PROBABILITY, 0, probability));
+  }
+
+  /** Adds the given rule, replacing the one of the same selector.
+   * @param selector the selector, cannot be null.
+   * @param rule the rule.
+   * @return this.
+   */
+  private LogRules add(final String selector, final Rule rule) {
+    Validate.notNull(selector, "The selector cannot be null");
+    String key = selector;
+    if (key.startsWith(".")) {
+      key = key.substring(1);
+    }
+    rules.put(key, rule);
+    return this;
+  }
+
+  /** Compiles these rules into a new trie, with new counters.
+   * @return the trie, never null.
+   */
+  LogRuleTrie compile() {
+    Map<String, Rule> stacks = new LinkedHashMap<>();
+    Map<String, Rule> structures = new HashMap<>();
+    for (Map.Entry<String, Rule> entry : rules.entrySet()) {
+      Rule rule = entry.getValue().copy();
+      if (entry.getKey().startsWith("@")) {
+        structures.put(entry.getKey().substring(1), rule);
+      } else {
+        stacks.put(entry.getKey(), rule);
+      }
+    }
+    return new LogRuleTrie(stacks, structures);
+  }
+
+  /** A compiled rule, with its own counters.*/
+  static final class Rule {
+
+    /** Logs every entry.*/
+    static final int ON = 0;
+
+    /** Logs no entry.*/
+    static final int OFF = 1;
+
+    /** Logs one of every N entries.*/
+    static final int SAMPLE = 2;
+
+    /** Logs up to N entries per second.*/
+    static final int RATE = 3;
+
+    /** Logs the entries of a fraction of the loggers.*/
+    static final int PROBABILITY = 4;
+
+    /** The action of the rule.*/
+    private final int kind;
+
+    /** The N of the sample or the rate.*/
+    private final int amount;
+
+    /** The probability of the logger to log.*/
+    private final double probability;
+
+    /** The mask of the entries logged in the window of the rate.*/
+    private static final long WINDOW_COUNT = 0xFFFFFFFFL;
+
+    /** The entries seen by the sample, it's never null.*/
+    private final AtomicLong count = new AtomicLong();
+
+    /** The window of the rate, the second it's counting in the high 32
+     * bits and the entries logged in that second in the low 32 bits, so
+     * both change at once, it's never null.*/
+    private final AtomicLong window = new AtomicLong();
+
+    /** Creates a new rule.
+     * @param theKind the action.
+     * @param theAmount the N of the sample or the rate.
+     * @param theProbability the probability of the logger to log.
+     */
+    private Rule(final int theKind, final int theAmount,
+        final double theProbability) {
+      kind = theKind;
+      amount = theAmount;
+      probability = theProbability;
+    }
+
+    /** Creates a copy of this rule with its counters reset.
+     * @return the copy, never null.
+     */
+    private Rule copy() {
+      return new Rule(kind, amount, probability);
+    }
+
+    /** Decides if an entry is logged.
+     * @param draw the random number of the logger, from 0 to 1.
+     * @return true to log the entry.
+     */
+    boolean accept(final double draw) {
+      switch (kind) {
+      case ON:
+        return true;
+      case OFF:
+        return false;
+      case SAMPLE:
+        return count.getAndIncrement() % amount == 0;
+      case RATE:
+        long now = System.currentTimeMillis() / 1000;
+        while (true) {
+          long current = window.get();
+          long logged = 0;
+          if (current >>> 32 == now) {
+            logged = current & WINDOW_COUNT;
+          }
+          if (logged >= amount) {
+            return false;
+          }
+          if (window.compareAndSet(current, now << 32 | (logged + 1))) {
+            return true;
+          }
+        }
+      default:
+        return draw < probability;
+      }
+    }
+
+    /** Checks if an entry could be logged, without counting it.
+     *
+     * A sample might log the next entry, so it's always enabled, and a
+     * rate is enabled while the current second has entries left.
+     *
+     * @param draw the random number of the logger, from 0 to 1.
+     * @return false if the entry would not be logged.
+     */
+    boolean enabled(final double draw) {
+      switch (kind) {
+      case ON:
+      case SAMPLE:
+        return true;
+      case OFF:
+        return false;
+      case RATE:
+        long current = window.get();
+        return System.currentTimeMillis() / 1000 != current >>> 32
+            || (current & WINDOW_COUNT) < amount;
+      default:
+        return draw < probability;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,203 @@
+package org.waabox.log;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/** The counters and timers of the loggers of an appender.
+ *
+ * Every value is a {@link LongAdder}, so the threads that record them
+ * never contend on the same memory. The metrics of an appender are
+ * retrieved with {@link DomainLogMetrics#get(String)}.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+public final class LoggerMetrics implements LoggerMetricsMBean {
+
+  /** The number of buckets of the generate histogram.*/
+  static final int BUCKETS = 32;
+
+  /** The name of the appender, it's never null.*/
+  private final String appender;
+
+  /** The entries logged, it's never null.*/
+  private final LongAdder logs = new LongAdder();
+
+  /** The duplicated entries, it's never null.*/
+  private final LongAdder duplicates = new LongAdder();
+
+  /** The stacks declared, it's never null.*/
+  private final LongAdder stacks = new LongAdder();
+
+  /** The entries linked, it's never null.*/
+  private final LongAdder entries = new LongAdder();
+
+  /** The entries dropped or evicted, it's never null.*/
+  private final LongAdder truncated = new LongAdder();
+
+  /** The generations, it's never null.*/
+  private final LongAdder generates = new LongAdder();
+
+  /** The time generating, it's never null.*/
+  private final LongAdder generateNanos = new LongAdder();
+
+  /** The generations by power of 2 of their microseconds, it's never
+   * null.*/
+  private final LongAdder[] generateHistogram = new LongAdder[BUCKETS];
+
+  /** The characters rendered, it's never null.*/
+  private final LongAdder renderedChars = new LongAdder();
+
+  /** The clean ups, it's never null.*/
+  private final LongAdder cleanups = new LongAdder();
+
+  /** The time cleaning up, it's never null.*/
+  private final LongAdder cleanupNanos = new LongAdder();
+
+  /** The entries cleaned up, it's never null.*/
+  private final LongAdder cleanupEntries = new LongAdder();
+
+  /** Creates a new instance.
+   * @param theAppender the name of the appender, cannot be null.
+   */
+  LoggerMetrics(final String theAppender) {
+    appender = theAppender;
+    for (int i = 0; i < BUCKETS; i++) {
+      generateHistogram[i] = new LongAdder();
+    }
+  }
+
+  /** Records a log call.*/
+  void log() {
+    logs.increment();
+  }
+
+  /** Records a duplicated entry.*/
+  void duplicate() {
+    duplicates.increment();
+  }
+
+  /** Records a new stack.*/
+  void stack() {
+    stacks.increment();
+  }
+
+  /** Records an entry linked into a tree.*/
+  void entry() {
+    entries.increment();
+  }
+
+  /** Records an entry dropped or evicted.*/
+  void truncate() {
+    truncated.increment();
+  }
+
+  /** Records a generation.
+   * @param nanos the time it took.
+   */
+  void generate(final long nanos) {
+    generates.increment();
+    generateNanos.add(nanos);
+    long micros = nanos / 1000;
+    int bucket = 64 - Long.numberOfLeadingZeros(micros);
+    generateHistogram[Math.min(bucket, BUCKETS - 1)].increment();
+  }
+
+  /** Records the characters written rendering a trace.
+   * @param chars the number of characters.
+   */
+  void render(final long chars) {
+    renderedChars.add(chars);
+  }
+
+  /** Records a clean up.
+   * @param nanos the time it took.
+   * @param theEntries the entries of the logger.
+   */
+  void cleanup(final long nanos, final int theEntries) {
+    cleanups.increment();
+    cleanupNanos.add(nanos);
+    cleanupEntries.add(theEntries);
+  }
+
+  /** {@inheritDoc}. */
+  @Override
+  public String getAppender() {
+    return appender;
+  }
+
+  /** {@inheritDoc}. */
+  @Override
+  public long getLogs() {
+    return logs.sum();
+  }
+
+  /** {@inheritDoc}. */
+  @Override
+  public long getDuplicates() {
+    return duplicates.sum();
+  }
+
+  /** {@inheritDoc}. */
+  @Override
+  public long getStacks() {
+    return stacks.sum();
+  }
+
+  /** {@inheritDoc}. */
+  @Override
+  public long getEntries() {
+    return entries.sum();
+  }
+
+  /** {@inheritDoc}. */
+  @Override
+  public long getTruncated() {
+    return truncated.sum();
+  }
+
+  /** {@inheritDoc}. */
+  @Override
+  public long getGenerates() {
+    return generates.sum();
+  }
+
+  /** {@inheritDoc}. */
+  @Override
+  public long getGenerateNanos() {
+    return generateNanos.sum();
+  }
+
+  /** {@inheritDoc}. */
+  @Override
+  public long[] getGenerateHistogram() {
+    long[] histogram = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      histogram[i] = generateHistogram[i].sum();
+    }
+    return histogram;
+  }
+
+  /** {@inheritDoc}. */
+  @Override
+  public long getRenderedChars() {
+    return renderedChars.sum();
+  }
+
+  /** {@inheritDoc}. */
+  @Override
+  public long getCleanups() {
+    return cleanups.sum();
+  }
+
+  /** {@inheritDoc}. */
+  @Override
+  public long getCleanupNanos() {
+    return cleanupNanos.sum();
+  }
+
+  /** {@inheritDoc}. */
+  @Override
+  public long getCleanupEntries() {
+    return cleanupEntries.sum();
+  }
+
+}
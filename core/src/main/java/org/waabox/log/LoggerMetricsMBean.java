@@ -0,0 +1,77 @@
+package org.waabox.log;
+
+/** The JMX view of the {@link LoggerMetrics} of an appender.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+public interface LoggerMetricsMBean {
+
+  /** Retrieves the name of the appender.
+   * @return the appender, never null.
+   */
+  String getAppender();
+
+  /** Retrieves the number of entries logged, the ones the rules or the
+   * disabled loggers filtered out are not counted.
+   * @return the number of log calls.
+   */
+  long getLogs();
+
+  /** Retrieves the number of entries that were already in the tree.
+   * @return the number of duplicated entries.
+   */
+  long getDuplicates();
+
+  /** Retrieves the number of distinct stacks declared in the trees.
+   * @return the number of stacks.
+   */
+  long getStacks();
+
+  /** Retrieves the number of entries linked into the trees.
+   * @return the number of entries.
+   */
+  long getEntries();
+
+  /** Retrieves the number of entries dropped or evicted by the limits.
+   * @return the number of truncated entries.
+   */
+  long getTruncated();
+
+  /** Retrieves the number of times a tree was generated.
+   * @return the number of generations.
+   */
+  long getGenerates();
+
+  /** Retrieves the total time spent generating trees.
+   * @return the time, in nanoseconds.
+   */
+  long getGenerateNanos();
+
+  /** Retrieves the histogram of the time spent generating each tree.
+   * @return the count of each bucket, bucket i counts the generations
+   *  that took less than 2^i microseconds, never null.
+   */
+  long[] getGenerateHistogram();
+
+  /** Retrieves the number of characters written rendering the traces.
+   * @return the number of characters.
+   */
+  long getRenderedChars();
+
+  /** Retrieves the number of loggers cleaned up, one per unit of work.
+   * @return the number of clean ups.
+   */
+  long getCleanups();
+
+  /** Retrieves the total time spent cleaning up loggers.
+   * @return the time, in nanoseconds.
+   */
+  long getCleanupNanos();
+
+  /** Retrieves the number of entries the loggers had when they were
+   * cleaned up.
+   * @return the entries of all the units of work.
+   */
+  long getCleanupEntries();
+
+}
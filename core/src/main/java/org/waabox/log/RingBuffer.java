@@ -0,0 +1,125 @@
+package org.waabox.log;
+
+import java.util.List;
+import java.util.concurrent.atomic.*;
+
+import org.apache.commons.lang3.Validate;
+
+/** A bounded, lock free queue for many producers and a single consumer.
+ *
+ * Each slot has a sequence number that tells producers when the slot is
+ * free and the consumer when it holds an element, so offering and polling
+ * only need a compare and set on the tail and plain volatile writes.
+ *
+ * @param <T> the type of the elements.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+final class RingBuffer<T> {
+
+  /** The mask to turn a position into a slot index.*/
+  private final int mask;
+
+  /** The elements, it's never null.*/
+  private final AtomicReferenceArray<T> elements;
+
+  /** The sequence number of each slot, it's never null.*/
+  private final AtomicLongArray sequences;
+
+  /** The next position to offer into, it's never null.*/
+  private final AtomicLong tail = new AtomicLong();
+
+  /** The next position to poll from, it's never null.*/
+  private final AtomicLong head = new AtomicLong();
+
+  /** Creates a new ring buffer.
+   * @param capacity the minimum capacity, it's rounded up to the next
+   *  power of two, it must be greater than 0.
+   */
+  RingBuffer(final int capacity) {
+    Validate.isTrue(capacity > 0 && capacity <= 1 << 30,
+        "The capacity must be between 1 and 2^30");
+    int size = Integer.highestOneBit(capacity);
+    if (size < capacity) {
+      size <<= 1;
+    }
+    mask = size - 1;
+    elements = new AtomicReferenceArray<>(size);
+    sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  /** Offers an element, it can be called from any thread.
+   * @param element the element, cannot be null.
+   * @return false if the buffer is full.
+   */
+  boolean offer(final T element) {
+    long position = tail.get();
+    while (true) {
+      int index = (int) (position & mask);
+      long difference = sequences.get(index) - position;
+      if (difference == 0) {
+        if (tail.compareAndSet(position, position + 1)) {
+          elements.set(index, element);
+          sequences.set(index, position + 1);
+          return true;
+        }
+        position = tail.get();
+      } else if (difference < 0) {
+        return false;
+      } else {
+        position = tail.get();
+      }
+    }
+  }
+
+  /** Polls the next element, it must be called from a single thread.
+   * @return the element, null if the buffer is empty.
+   */
+  T poll() {
+    long position = head.get();
+    int index = (int) (position & mask);
+    if (sequences.get(index) != position + 1) {
+      return null;
+    }
+    T element = elements.get(index);
+    elements.set(index, null);
+    sequences.set(index, position + mask + 1);
+    head.set(position + 1);
+    return element;
+  }
+
+  /** Polls up to the given number of elements, it must be called from a
+   * single thread.
+   * @param batch the list to add the elements to, cannot be null.
+   * @param max the maximum number of elements to poll.
+   * @return the number of elements polled.
+   */
+  int drain(final List<T> batch, final int max) {
+    int count = 0;
+    T element;
+    while (count < max && (element = poll()) != null) {
+      batch.add(element);
+      count++;
+    }
+    return count;
+  }
+
+  /** Retrieves the number of elements in the buffer, it's an estimate
+   * while other threads are offering or polling.
+   * @return the number of elements.
+   */
+  int size() {
+    return (int) Math.max(0, tail.get() - head.get());
+  }
+
+  /** Retrieves the capacity of the buffer.
+   * @return the capacity.
+   */
+  int capacity() {
+    return mask + 1;
+  }
+
+}
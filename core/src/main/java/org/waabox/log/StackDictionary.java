@@ -0,0 +1,355 @@
+package org.waabox.log;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/** Dictionary of stacks, identifies each stack prefix by an integer.
+ *
+ * Stacks are split in segments by the '.', each distinct segment gets a
+ * segment id and each stack prefix gets a path id made of its parent path
+ * id and its segment id. The canonical stack string of a path is built
+ * only once, when the path is first seen, and a stack that was already
+ * resolved is found with a single hash lookup.
+ *
+ * The segments follow the String.split rules, so trailing '.' are not
+ * part of the path, as they were never declared as stacks.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+final class StackDictionary {
+
+  /** The id of a path that does not exist, the parent of the top level
+   * paths.*/
+  static final int NONE = -1;
+
+  /** The id returned by {@link #resolved(String)} for the stacks that were
+   * never resolved.*/
+  static final int UNRESOLVED = -2;
+
+  /** The initial capacity of the path arrays.*/
+  private static final int INITIAL_CAPACITY = 64;
+
+  /** The segment ids by segment, it's never null.*/
+  private final Map<String, Integer> segments = new HashMap<>();
+
+  /** The keys of the open addressing table of the path ids, made of the
+   * parent path id and the segment id, it's never null.*/
+  private long[] pathKeys = new long[INITIAL_CAPACITY * 2];
+
+  /** The path id plus one of each key, 0 for the empty slots, it's never
+   * null.*/
+  private int[] pathIds = new int[INITIAL_CAPACITY * 2];
+
+  /** The path ids of the already resolved stacks, it's never null.*/
+  private final Map<String, Integer> resolved = new HashMap<>();
+
+  /** The parent path id of each path, it's never null.*/
+  private int[] parents = new int[INITIAL_CAPACITY];
+
+  /** The canonical stack of each path, starting with '.', it's never
+   * null.*/
+  private String[] stacks = new String[INITIAL_CAPACITY];
+
+  /** The number of segments of each path, indexed by path id, it's never
+   * null.*/
+  private int[] depths = new int[INITIAL_CAPACITY];
+
+  /** The number of paths.*/
+  private int size = 0;
+
+  /** Resolves the path id of the given stack, creating the paths that
+   * are not in this dictionary yet.
+   * @param stack the stack, without the leading '.', cannot be null.
+   * @return the path id, or {@link #NONE} if the stack has no segments.
+   */
+  synchronized int resolve(final String stack) {
+    Integer id = resolved.get(stack);
+    if (id != null) {
+      return id;
+    }
+    int end = stack.length();
+    while (end > 0 && stack.charAt(end - 1) == '.') {
+      end--;
+    }
+    int path = NONE;
+    if (end > 0 || stack.isEmpty()) {
+      int from = 0;
+      while (from <= end) {
+        int to = stack.indexOf('.', from);
+        if (to == -1 || to > end) {
+          to = end;
+        }
+        path = path(path, stack, from, to);
+        from = to + 1;
+      }
+    }
+    resolved.put(stack, path);
+    return path;
+  }
+
+  /** Retrieves the child path of the given parent, creating it if needed.
+   * @param parent the parent path id.
+   * @param stack the stack that holds the segment.
+   * @param from the start of the segment in the stack.
+   * @param to the end of the segment in the stack.
+   * @return the path id.
+   */
+  private int path(final int parent, final String stack, final int from,
+      final int to) {
+    String segment = stack.substring(from, to);
+    Integer segmentId = segments.get(segment);
+    if (segmentId == null) {
+      segmentId = segments.size();
+      segments.put(segment, segmentId);
+    }
+    long key = key(parent, segmentId);
+    int id = lookup(key);
+    if (id == NONE) {
+      id = create(key, parent, "." + stack.substring(0, to));
+    }
+    return id;
+  }
+
+  /** Retrieves the path id of a stack that was already resolved, without
+   * creating any path.
+   * @param stack the stack, without the leading '.', cannot be null.
+   * @return the path id, {@link #UNRESOLVED} if the stack was never
+   *  resolved.
+   */
+  synchronized int resolved(final String stack) {
+    Integer id = resolved.get(stack);
+    if (id == null) {
+      return UNRESOLVED;
+    }
+    return id;
+  }
+
+  /** Finds the longest prefix of the given stack that is already a path,
+   * without creating any path. The stack is split as in
+   * {@link #resolve(String)}, trailing '.' are not part of the path.
+   * @param stack the stack, without the leading '.', cannot be null.
+   * @return the path id of the prefix, or {@link #NONE} if not even the
+   *  first segment is a path.
+   */
+  synchronized int prefix(final String stack) {
+    int end = stack.length();
+    while (end > 0 && stack.charAt(end - 1) == '.') {
+      end--;
+    }
+    int path = NONE;
+    int from = 0;
+    while (from <= end) {
+      int to = stack.indexOf('.', from);
+      if (to == -1 || to > end) {
+        to = end;
+      }
+      int id = child(path, stack.substring(from, to), false);
+      if (id == NONE) {
+        return path;
+      }
+      path = id;
+      from = to + 1;
+    }
+    return path;
+  }
+
+  /** Retrieves the child path of the given parent, creating it if needed.
+   *
+   * Unlike {@link #resolve(String)} nothing is allocated when the path
+   * already exists.
+   *
+   * @param parent the parent path id, {@link #NONE} for a top level path.
+   * @param segment the segment of the child, without '.', cannot be null.
+   * @return the path id.
+   */
+  synchronized int child(final int parent, final String segment) {
+    return child(parent, segment, true);
+  }
+
+  /** Retrieves the child path of the given parent.
+   * @param parent the parent path id, {@link #NONE} for a top level path.
+   * @param segment the segment of the child, without '.', cannot be null.
+   * @param create true to create the path if it does not exist.
+   * @return the path id, {@link #NONE} if it does not exist and create is
+   *  false.
+   */
+  synchronized int child(final int parent, final String segment,
+      final boolean create) {
+    Integer segmentId = segments.get(segment);
+    if (segmentId == null) {
+      if (!create) {
+        return NONE;
+      }
+      segmentId = segments.size();
+      segments.put(segment, segmentId);
+    }
+    long key = key(parent, segmentId);
+    int id = lookup(key);
+    if (id == NONE && create) {
+      String stack;
+      if (parent == NONE) {
+        stack = "." + segment;
+      } else {
+        stack = stacks[parent] + "." + segment;
+      }
+      id = create(key, parent, stack);
+    }
+    return id;
+  }
+
+  /** Creates a new path.
+   * @param key the key of the path, see {@link #key(int, int)}.
+   * @param parent the parent path id.
+   * @param stack the canonical stack, starting with '.'.
+   * @return the path id.
+   */
+  private int create(final long key, final int parent, final String stack) {
+    int id = size++;
+    if (id == parents.length) {
+      parents = Arrays.copyOf(parents, id * 2);
+      stacks = Arrays.copyOf(stacks, id * 2);
+      depths = Arrays.copyOf(depths, id * 2);
+    }
+    parents[id] = parent;
+    depths[id] = parent == NONE ? 1 : depths[parent] + 1;
+    stacks[id] = stack;
+    if (size * 2 > pathKeys.length) {
+      rehash(pathKeys.length * 2);
+    }
+    insert(key, id);
+    return id;
+  }
+
+  /** Creates the key of a path.
+   * @param parent the parent path id.
+   * @param segmentId the segment id.
+   * @return the key.
+   */
+  private static long key(final int parent, final int segmentId) {
+    return ((long) parent << 32) | segmentId;
+  }
+
+  /** Finds the slot of the given key in the path table.
+   * @param key the key.
+   * @return the slot, that holds the key or is empty.
+   */
+  private int slot(final long key) {
+    int mask = pathKeys.length - 1;
+    long hash = key * 0x9E3779B97F4A7C15L;
+    int slot = (int) (hash ^ (hash >>> 32)) & mask;
+    while (pathIds[slot] != 0 && pathKeys[slot] != key) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  /** Finds the path id of the given key.
+   * @param key the key.
+   * @return the path id, {@link #NONE} if there is no such path.
+   */
+  private int lookup(final long key) {
+    return pathIds[slot(key)] - 1;
+  }
+
+  /** Adds a path id to the path table.
+   * @param key the key of the path.
+   * @param id the path id.
+   */
+  private void insert(final long key, final int id) {
+    int slot = slot(key);
+    pathKeys[slot] = key;
+    pathIds[slot] = id + 1;
+  }
+
+  /** Grows the path table.
+   * @param capacity the new capacity, a power of 2.
+   */
+  private void rehash(final int capacity) {
+    long[] oldKeys = pathKeys;
+    int[] oldIds = pathIds;
+    pathKeys = new long[capacity];
+    pathIds = new int[capacity];
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldIds[i] != 0) {
+        insert(oldKeys[i], oldIds[i] - 1);
+      }
+    }
+  }
+
+  /** Finds the path id of the given stack without creating it. Unlike
+   * {@link #resolve(String)}, trailing empty segments are part of the
+   * path.
+   * @param stack the stack, without the leading '.', cannot be null.
+   * @return the path id, or {@link #NONE} if the path does not exist.
+   */
+  synchronized int find(final String stack) {
+    int path = NONE;
+    int from = 0;
+    while (from <= stack.length()) {
+      int to = stack.indexOf('.', from);
+      if (to == -1) {
+        to = stack.length();
+      }
+      Integer segmentId = segments.get(stack.substring(from, to));
+      if (segmentId == null) {
+        return NONE;
+      }
+      int id = lookup(key(path, segmentId));
+      if (id == NONE) {
+        return NONE;
+      }
+      path = id;
+      from = to + 1;
+    }
+    return path;
+  }
+
+  /** Retrieves the parent of the given path.
+   * @param path the path id.
+   * @return the parent path id, {@link #NONE} for top level paths.
+   */
+  synchronized int parent(final int path) {
+    return parents[path];
+  }
+
+  /** Retrieves the canonical stack of the given path.
+   * @param path the path id.
+   * @return the stack, starting with '.', never null.
+   */
+  synchronized String stack(final int path) {
+    return stacks[path];
+  }
+
+  /** Retrieves the number of segments of the given path.
+   * @param path the path id.
+   * @return the depth, 1 for the paths of a single segment.
+   */
+  synchronized int depth(final int path) {
+    return depths[path];
+  }
+
+  /** Retrieves the canonical stack of every path.
+   * @return a copy of the stacks, indexed by path id, never null.
+   */
+  synchronized String[] stacks() {
+    return Arrays.copyOf(stacks, size);
+  }
+
+  /** Retrieves the number of paths.
+   * @return the number of paths.
+   */
+  synchronized int size() {
+    return size;
+  }
+
+  /** Removes all the paths.*/
+  synchronized void clear() {
+    segments.clear();
+    Arrays.fill(pathIds, 0);
+    resolved.clear();
+    Arrays.fill(stacks, 0, size, null);
+    size = 0;
+  }
+
+}
@@ -0,0 +1,202 @@
+package org.waabox.log;
+
+import java.util.Map;
+
+import org.apache.commons.lang3.Validate;
+
+/** A stack parsed into its literal parts and its ${variable} slots.
+ *
+ * The stack is parsed only once, then it's rendered in a single pass
+ * filling each slot with its bound value or, when the slot is not bound,
+ * with the global variable of the same name.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+final class StackTemplate {
+
+  /** The literal parts of the stack, there is always one more literal
+   * than variables, it's never null.*/
+  private final String[] literals;
+
+  /** The variable names of each slot, it's never null.*/
+  private final String[] variables;
+
+  /** The length of all the literals together.*/
+  private final int literalsLength;
+
+  /** Creates a new instance of the template.
+   * @param theLiterals the literal parts, cannot be null.
+   * @param theVariables the variable names, cannot be null.
+   */
+  private StackTemplate(final String[] theLiterals,
+      final String[] theVariables) {
+    literals = theLiterals;
+    variables = theVariables;
+    int length = 0;
+    for (String literal : theLiterals) {
+      length += literal.length();
+    }
+    literalsLength = length;
+  }
+
+  /** Parses the given stack.
+   * @param stack the stack to parse, cannot be null.
+   * @return the template, never null.
+   */
+  static StackTemplate compile(final String stack) {
+    Validate.notNull(stack, "The stack cannot be null");
+    int count = 0;
+    int position = 0;
+    while ((position = next(stack, position)) != -1) {
+      position = stack.indexOf('}', position) + 1;
+      count++;
+    }
+    String[] theLiterals = new String[count + 1];
+    String[] theVariables = new String[count];
+    int from = 0;
+    for (int i = 0; i < count; i++) {
+      int start = next(stack, from);
+      int end = stack.indexOf('}', start);
+      theLiterals[i] = stack.substring(from, start);
+      theVariables[i] = stack.substring(start + 2, end);
+      from = end + 1;
+    }
+    theLiterals[count] = stack.substring(from);
+    return new StackTemplate(theLiterals, theVariables);
+  }
+
+  /** Finds the next well formed ${variable} placeholder.
+   * @param stack the stack.
+   * @param from the position to start searching from.
+   * @return the position of the placeholder, -1 if there are no more.
+   */
+  private static int next(final String stack, final int from) {
+    int start = stack.indexOf("${", from);
+    if (start == -1) {
+      return -1;
+    }
+    int end = stack.indexOf('}', start);
+    if (end == -1) {
+      return -1;
+    }
+    return stack.lastIndexOf("${", end);
+  }
+
+  /** Checks that every ${ of the given stack opens a well formed
+   * placeholder, a non empty variable name closed by }.
+   * @param stack the stack, cannot be null.
+   * @return the description of the first malformed placeholder, null if
+   *  all of them are well formed.
+   */
+  static String validate(final String stack) {
+    int start = stack.indexOf("${");
+    while (start != -1) {
+      int end = stack.indexOf('}', start);
+      if (end == -1) {
+        return "Unclosed placeholder at column " + (start + 1);
+      }
+      String variable = stack.substring(start + 2, end);
+      if (variable.isEmpty()) {
+        return "Empty placeholder at column " + (start + 1);
+      }
+      if (variable.indexOf('$') != -1 || variable.indexOf('{') != -1) {
+        return "Malformed placeholder at column " + (start + 1);
+      }
+      start = stack.indexOf("${", end);
+    }
+    return null;
+  }
+
+  /** Checks if the given value contains placeholders.
+   * @param value the value, cannot be null.
+   * @return true if the value has at least one ${variable}.
+   */
+  static boolean hasPlaceholders(final String value) {
+    return next(value, 0) != -1;
+  }
+
+  /** Retrieves the number of variable slots.
+   * @return the number of slots.
+   */
+  int size() {
+    return variables.length;
+  }
+
+  /** Retrieves the variable name of the given slot.
+   * @param slot the slot.
+   * @return the variable name, never null.
+   */
+  String variable(final int slot) {
+    return variables[slot];
+  }
+
+  /** Retrieves the literal before the given slot, the one after the last
+   * slot is {@link #size()}.
+   * @param slot the slot.
+   * @return the literal, never null.
+   */
+  String literal(final int slot) {
+    return literals[slot];
+  }
+
+  /** Creates the bound value for a slot.
+   *
+   * Values that reference other variables are compiled so they are
+   * resolved against the globals when rendered.
+   *
+   * @param value the value, cannot be null.
+   * @return the value to keep in the bindings, never null.
+   */
+  static Object bind(final String value) {
+    Validate.notNull(value, "The value cannot be null");
+    if (hasPlaceholders(value)) {
+      return compile(value);
+    }
+    return value;
+  }
+
+  /** Renders this template.
+   * @param bindings the values of each slot, as returned by
+   *  {@link #bind(String)}, can be null if nothing is bound.
+   * @param globals the global variables, can be null.
+   * @return the rendered stack, never null.
+   */
+  String render(final Object[] bindings, final Map<String, String> globals) {
+    if (variables.length == 0) {
+      return literals[0];
+    }
+    StringBuilder sb = new StringBuilder(literalsLength + 16
+        * variables.length);
+    render(bindings, globals, sb);
+    return sb.toString();
+  }
+
+  /** Renders this template into the given builder.
+   * @param bindings the values of each slot, as returned by
+   *  {@link #bind(String)}, can be null if nothing is bound.
+   * @param globals the global variables, can be null.
+   * @param sb the builder to render into, cannot be null.
+   */
+  void render(final Object[] bindings, final Map<String, String> globals,
+      final StringBuilder sb) {
+    for (int i = 0; i < variables.length; i++) {
+      sb.append(literals[i]);
+      Object value = null;
+      if (bindings != null) {
+        value = bindings[i];
+      }
+      if (value == null && globals != null) {
+        value = globals.get(variables[i]);
+      }
+      if (value == null) {
+        sb.append("${").append(variables[i]).append('}');
+      } else if (value instanceof StackTemplate) {
+        ((StackTemplate) value).render(null, globals, sb);
+      } else {
+        sb.append((String) value);
+      }
+    }
+    sb.append(literals[variables.length]);
+  }
+
+}
@@ -0,0 +1,298 @@
+package org.waabox.log;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** The entries logged concurrently into a logger, waiting to be linked
+ * into its tree.
+ *
+ * Every thread appends into its own stripe, a list of fixed size chunks
+ * only that thread writes, so logging never takes a lock nor contends
+ * with other threads but for the sequence number of the entry. The
+ * entries are merged into the tree by sequence number when it's
+ * generated, so the tree is the same one that would be built if the
+ * entries were logged one after the other in that order.
+ *
+ * An entry logged while the tree is generated might be left for the next
+ * time it's generated. The drain stops before the lowest sequence number
+ * a thread took and did not publish yet, so an entry is never linked
+ * before an earlier one that is still being appended.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+final class StripedLogBuffer {
+
+  /** The number of entries of each chunk.*/
+  private static final int CHUNK_SIZE = 256;
+
+  /** The sequence number of the next entry, it's never null.*/
+  private final AtomicLong sequence = new AtomicLong();
+
+  /** The stripe of each thread, it's never null.*/
+  private final ThreadLocal<Stripe> local = new ThreadLocal<Stripe>() {
+    @Override
+    protected Stripe initialValue() {
+      return new Stripe();
+    }
+  };
+
+  /** The stripes of the threads that logged since the last clear, it's
+   * never null.*/
+  private final Queue<Stripe> stripes = new ConcurrentLinkedQueue<>();
+
+  /** The number of times the buffer was cleared, a stripe is added back
+   * into stripes when its thread logs after a clear.*/
+  private volatile int generation;
+
+  /** The lowest sequence number not dropped by the last clear.*/
+  private volatile long floor;
+
+  /** Appends an entry into the stripe of the current thread.
+   * @param stack the stack, cannot be null.
+   * @param message the message, cannot be null.
+   */
+  void add(final String stack, final String message) {
+    Stripe stripe = local.get();
+    int theGeneration = generation;
+    if (stripe.generation != theGeneration) {
+      stripe.generation = theGeneration;
+      stripes.add(stripe);
+    }
+    // the claim is a lower bound of the sequence taken right after it, so
+    // the drain never goes past an entry that is not published yet.
+    stripe.claim = sequence.get();
+    stripe.add(stack, message, sequence.getAndIncrement());
+    stripe.claim = Long.MAX_VALUE;
+  }
+
+  /** Links the pending entries of all the stripes into the given tree,
+   * in the order of their sequence numbers.
+   * @param tree the tree, cannot be null.
+   */
+  synchronized void drainTo(final DomainLogTree tree) {
+    long cutoff = sequence.get();
+    for (Stripe stripe : stripes) {
+      cutoff = Math.min(cutoff, stripe.claim);
+    }
+    long theFloor = floor;
+    List<Stripe> sources = new ArrayList<>();
+    int[] counts = new int[8];
+    int pending = 0;
+    for (Stripe stripe : stripes) {
+      int size = stripe.pending(theFloor, cutoff);
+      if (size > 0) {
+        if (sources.size() == counts.length) {
+          counts = Arrays.copyOf(counts, counts.length * 2);
+        }
+        counts[sources.size()] = size;
+        sources.add(stripe);
+        pending += size;
+      }
+    }
+    if (pending == 0) {
+      return;
+    }
+    long[] sequences = new long[pending];
+    String[] stacks = new String[pending];
+    String[] messages = new String[pending];
+    int runs = sources.size();
+    int[] starts = new int[runs];
+    int[] ends = new int[runs];
+    int count = 0;
+    for (int i = 0; i < runs; i++) {
+      starts[i] = count;
+      count = sources.get(i).drain(sequences, stacks, messages, count,
+          counts[i]);
+      ends[i] = count;
+    }
+    if (runs == 1) {
+      tree.addAll(stacks, messages, count);
+      return;
+    }
+    // each stripe is already sorted, merges them taking the lowest head.
+    String[] sortedStacks = new String[count];
+    String[] sortedMessages = new String[count];
+    for (int i = 0; i < count; i++) {
+      int min = -1;
+      for (int run = 0; run < runs; run++) {
+        int head = starts[run];
+        if (head < ends[run] && (min == -1
+            || sequences[head] < sequences[starts[min]])) {
+          min = run;
+        }
+      }
+      int head = starts[min]++;
+      sortedStacks[i] = stacks[head];
+      sortedMessages[i] = messages[head];
+    }
+    tree.addAll(sortedStacks, sortedMessages, count);
+  }
+
+  /** Drops the pending entries and forgets the stripes, the threads add
+   * their stripes back the next time they log.
+   *
+   * The stripes are reset in place, an entry a thread is still appending
+   * is dropped by the next drain.
+   */
+  synchronized void clear() {
+    floor = sequence.get();
+    generation++;
+    for (Stripe stripe : stripes) {
+      stripe.discard(Long.MAX_VALUE);
+    }
+    stripes.clear();
+  }
+
+  /** The entries logged by one thread.
+   *
+   * Only its thread appends, publishing each entry with a volatile write
+   * of the chunk size, and only the drain reads. The drained slots are
+   * nulled, so the drained messages are not kept alive.
+   */
+  private static final class Stripe {
+
+    /** The generation of the buffer the stripe was last added in, -1 if
+     * it was never added.*/
+    private int generation = -1;
+
+    /** A lower bound of the sequence number of the entry the thread is
+     * appending, Long.MAX_VALUE if it's not appending.*/
+    private volatile long claim = Long.MAX_VALUE;
+
+    /** The chunk the thread appends into, it's never null.*/
+    private Chunk tail;
+
+    /** The chunk the drain reads from, it's never null.*/
+    private Chunk head;
+
+    /** The index of the next entry the drain reads from head.*/
+    private int read;
+
+    /** Creates a new stripe.*/
+    private Stripe() {
+      tail = new Chunk();
+      head = tail;
+    }
+
+    /** Appends an entry, called only by the thread of the stripe.
+     * @param stack the stack.
+     * @param message the message.
+     * @param sequence the sequence number of the entry.
+     */
+    void add(final String stack, final String message,
+        final long sequence) {
+      Chunk chunk = tail;
+      int index = chunk.size;
+      if (index == CHUNK_SIZE) {
+        Chunk next = new Chunk();
+        chunk.next = next;
+        tail = next;
+        chunk = next;
+        index = 0;
+      }
+      chunk.sequences[index] = sequence;
+      chunk.stacks[index] = stack;
+      chunk.messages[index] = message;
+      chunk.size = index + 1;
+    }
+
+    /** Counts the entries published and not drained yet, a lower bound
+     * if the thread is still appending. The entries below the floor are
+     * discarded first.
+     * @param floor the lowest sequence number to keep.
+     * @param cutoff the sequence number to stop counting at.
+     * @return the number of entries with a sequence number below the
+     *  cutoff.
+     */
+    int pending(final long floor, final long cutoff) {
+      discard(floor);
+      int count = 0;
+      int index = read;
+      for (Chunk chunk = head; chunk != null; chunk = chunk.next) {
+        int size = chunk.size;
+        while (index < size && chunk.sequences[index] < cutoff) {
+          index++;
+          count++;
+        }
+        if (index < CHUNK_SIZE) {
+          break;
+        }
+        index = 0;
+      }
+      return count;
+    }
+
+    /** Drops the published entries below the given sequence number.
+     * @param below the sequence number to stop dropping at.
+     */
+    void discard(final long below) {
+      while (true) {
+        int size = head.size;
+        int index = read;
+        while (index < size && head.sequences[index] < below) {
+          index++;
+        }
+        Arrays.fill(head.stacks, read, index, null);
+        Arrays.fill(head.messages, read, index, null);
+        read = index;
+        if (read < CHUNK_SIZE || head.next == null) {
+          return;
+        }
+        head = head.next;
+        read = 0;
+      }
+    }
+
+    /** Moves the published entries into the given arrays.
+     * @param sequences the sequence numbers.
+     * @param stacks the stacks.
+     * @param messages the messages.
+     * @param from the first position to write.
+     * @param max the maximum number of entries to move.
+     * @return the position after the last entry written.
+     */
+    int drain(final long[] sequences, final String[] stacks,
+        final String[] messages, final int from, final int max) {
+      int count = from;
+      int limit = from + max;
+      while (count < limit) {
+        int size = head.size;
+        int length = Math.min(size - read, limit - count);
+        System.arraycopy(head.sequences, read, sequences, count, length);
+        System.arraycopy(head.stacks, read, stacks, count, length);
+        System.arraycopy(head.messages, read, messages, count, length);
+        Arrays.fill(head.stacks, read, read + length, null);
+        Arrays.fill(head.messages, read, read + length, null);
+        count += length;
+        read += length;
+        if (read < CHUNK_SIZE || head.next == null) {
+          break;
+        }
+        head = head.next;
+        read = 0;
+      }
+      return count;
+    }
+  }
+
+  /** A fixed size block of entries.*/
+  private static final class Chunk {
+
+    /** The sequence number of each entry, it's never null.*/
+    private final long[] sequences = new long[CHUNK_SIZE];
+
+    /** The stack of each entry, it's never null.*/
+    private final String[] stacks = new String[CHUNK_SIZE];
+
+    /** The message of each entry, it's never null.*/
+    private final String[] messages = new String[CHUNK_SIZE];
+
+    /** The number of published entries.*/
+    private volatile int size;
+
+    /** The next chunk, null if this is the last one.*/
+    private volatile Chunk next;
+  }
+
+}
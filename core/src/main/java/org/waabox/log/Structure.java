@@ -1,5 +1,7 @@
 package org.waabox.log;
 
+import java.util.Map;
+
 import org.apache.commons.lang3.Validate;
 
 /** The structure defines a DomainLog hierarchy given a name and a stack.
@@ -11,18 +13,30 @@ public class Structure {
   /** The name of the structure, it's never null.*/
   private final String name;
 
-  /** The , it's never null.*/
-  private String stack;
+  /** The compiled stack of the structure, it's never null.*/
+  private final StackTemplate template;
+
+  /** The values bound to each variable slot of the template, it's never
+   * null.*/
+  private final Object[] bindings;
 
   /** Creates a new instance of Structure.
    * @param aName the structure name, cannot be null.
    * @param initialStack the structure initial stack, cannot be null.
    */
   public Structure(final String aName, final String initialStack) {
+    this(aName, StackTemplate.compile(initialStack));
     Validate.notNull(aName, "The name cannot be null");
-    Validate.notNull(initialStack, "The stack cannot be null");
+  }
+
+  /** Creates a new instance of Structure with nothing bound.
+   * @param aName the structure name, cannot be null.
+   * @param aTemplate the compiled stack, cannot be null.
+   */
+  private Structure(final String aName, final StackTemplate aTemplate) {
     name = aName;
-    stack = initialStack;
+    template = aTemplate;
+    bindings = new Object[aTemplate.size()];
   }
 
   /** Retrieves the name.
@@ -36,14 +50,25 @@ public class Structure {
    * @return the stack, never null.
    */
   public String getStack() {
-    return stack;
+    return template.render(bindings, null);
+  }
+
+  /** Renders the stack resolving the variables that are not bound with
+   * the given global variables.
+   * @param globals the global variables, cannot be null.
+   * @return the stack, never null.
+   */
+  String render(final Map<String, String> globals) {
+    return template.render(bindings, globals);
   }
 
   /** Copy this structure into another.
    * @return the copy of this structure.
    */
   private Structure copy() {
-    return new Structure(name, stack);
+    Structure copy = new Structure(name, template);
+    System.arraycopy(bindings, 0, copy.bindings, 0, bindings.length);
+    return copy;
   }
 
   /** Retrieves an structure by its name.
@@ -60,7 +85,15 @@ public class Structure {
    * @return this.
    */
   public Structure with(final String varName, final String varValue) {
-    stack = stack.replace("${" + varName + "}", varValue);
+    Object value = null;
+    for (int i = 0; i < bindings.length; i++) {
+      if (bindings[i] == null && template.variable(i).equals(varName)) {
+        if (value == null) {
+          value = StackTemplate.bind(varValue);
+        }
+        bindings[i] = value;
+      }
+    }
     return this;
   }
 
@@ -0,0 +1,326 @@
+package org.waabox.log;
+
+import java.util.*;
+
+import org.apache.commons.lang3.Validate;
+
+/** An immutable reference to a structure, that is logged with its
+ * variables as positional arguments.
+ *
+ * Unlike {@link Structure#named(String)}, that copies the structure for
+ * each unit of work, a handle is created once, kept in a constant and
+ * shared by every thread:
+ *
+ *   static final StructureHandle PRICING =
+ *       StructureHandle.named("pricing");
+ *
+ *   logger.log(PRICING, "10% off", customer, order, rule);
+ *
+ * The arguments are the values of the variables of the stack, in the
+ * order they first show up in it, see {@link #getVariables()}. The
+ * variables without argument, or with a null one, are resolved with the
+ * global variables of the logger.
+ *
+ * The stack is not rendered into a string to log an entry, each segment
+ * is resolved into the stack index of the logger as it's walked, so
+ * nothing but the entry is allocated. The stacks with arguments that
+ * span many segments or reference other variables are rendered as
+ * usual.
+ *
+ * The handle follows the reloads of the structures.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+public final class StructureHandle {
+
+  /** The name of the structure, it's never null.*/
+  private final String name;
+
+  /** The loader of the structure, it's never null.*/
+  private final StructureLoader loader;
+
+  /** The structure compiled from the current registry of the loader, it's
+   * replaced when the loader reloads, it's never null.*/
+  private volatile Compiled compiled;
+
+  /** Creates a new instance of the handle.
+   * @param theLoader the loader of the structure, cannot be null.
+   * @param theName the name of the structure, cannot be null.
+   */
+  StructureHandle(final StructureLoader theLoader, final String theName) {
+    Validate.notNull(theLoader, "The loader cannot be null");
+    Validate.notNull(theName, "The name cannot be null");
+    loader = theLoader;
+    name = theName;
+    compiled = compile();
+  }
+
+  /** Retrieves the handle of a structure by its name.
+   * @param name the name of the structure, cannot be null.
+   * @return the handle, never null.
+   */
+  public static StructureHandle named(final String name) {
+    return new StructureHandle(StructureLoader.instance(), name);
+  }
+
+  /** Retrieves the name.
+   * @return the name, never null.
+   */
+  public String getName() {
+    return name;
+  }
+
+  /** Retrieves the variables of the stack, in the order of the arguments.
+   * @return the variables, never null.
+   */
+  public List<String> getVariables() {
+    return Collections.unmodifiableList(Arrays.asList(compiled().variables));
+  }
+
+  /** Renders the stack with the given arguments.
+   * @param arguments the value of each variable, cannot be null.
+   * @return the stack, never null.
+   */
+  public String render(final String... arguments) {
+    return render(arguments, null);
+  }
+
+  /** Renders the stack with the given arguments, resolving the rest of the
+   * variables with the given globals.
+   * @param arguments the value of each variable, cannot be null.
+   * @param globals the global variables, can be null.
+   * @return the stack, never null.
+   */
+  String render(final String[] arguments, final Map<String, String> globals) {
+    Compiled current = compiled();
+    current.check(arguments);
+    Object[] bindings = new Object[current.template.size()];
+    for (int i = 0; i < bindings.length; i++) {
+      String value = current.argument(arguments, current.slots[i]);
+      if (value != null) {
+        bindings[i] = StackTemplate.bind(value);
+      }
+    }
+    return current.template.render(bindings, globals);
+  }
+
+  /** Resolves the path id of the stack, walking the segments into the
+   * given dictionary.
+   * @param dictionary the dictionary, cannot be null.
+   * @param arguments the value of each variable, cannot be null.
+   * @param globals the global variables, cannot be null.
+   * @param create false to not create the paths that are not in the
+   *  dictionary yet, the stack has to be rendered in that case.
+   * @return the path id, or -2 if the stack needs to be rendered, when a
+   *  value spans many segments, references variables, leaves an empty
+   *  last segment or a path does not exist and create is false.
+   */
+  int resolve(final StackDictionary dictionary, final String[] arguments,
+      final Map<String, String> globals, final boolean create) {
+    Compiled current = compiled();
+    current.check(arguments);
+    int[][] segments = current.segments;
+    if (segments[segments.length - 1].length == 0) {
+      return -2;
+    }
+    int path = StackDictionary.NONE;
+    StringBuilder sb = null;
+    for (int i = 0; i < segments.length; i++) {
+      int[] segment = segments[i];
+      String value;
+      if (segment.length == 1) {
+        value = current.part(segment[0], arguments, globals);
+        if (value == null) {
+          return -2;
+        }
+      } else {
+        if (sb == null) {
+          sb = new StringBuilder();
+        } else {
+          sb.setLength(0);
+        }
+        for (int part : segment) {
+          String partValue = current.part(part, arguments, globals);
+          if (partValue == null) {
+            return -2;
+          }
+          sb.append(partValue);
+        }
+        value = sb.toString();
+      }
+      if (i == segments.length - 1 && value.isEmpty()) {
+        return -2;
+      }
+      path = dictionary.child(path, value, create);
+      if (path == StackDictionary.NONE) {
+        return -2;
+      }
+    }
+    return path;
+  }
+
+  /** Retrieves the compiled structure, compiling it again if the loader
+   * reloaded the structures.
+   * @return the compiled structure, never null.
+   */
+  private Compiled compiled() {
+    Compiled current = compiled;
+    if (current.registry != loader.registry()) {
+      current = compile();
+      compiled = current;
+    }
+    return current;
+  }
+
+  /** Compiles the structure of the current registry.
+   * @return the compiled structure, never null.
+   */
+  private Compiled compile() {
+    StructureRegistry registry = loader.registry();
+    Structure structure = registry.get(name);
+    Validate.isTrue(structure != null, "Structure: " + name + " not found");
+    return new Compiled(registry,
+        StackTemplate.compile(structure.getStack()));
+  }
+
+  /** {@inheritDoc}. */
+  @Override
+  public String toString() {
+    return name;
+  }
+
+  /** The stack of a structure split in segments.
+   *
+   * Each segment is a list of parts, a part is the index of an argument
+   * or, if it's negative, -1 minus the index of a literal.
+   */
+  private static final class Compiled {
+
+    /** The registry the structure was taken from, it's never null.*/
+    private final StructureRegistry registry;
+
+    /** The template of the stack, it's never null.*/
+    private final StackTemplate template;
+
+    /** The distinct variables, by argument index, it's never null.*/
+    private final String[] variables;
+
+    /** The placeholder of each variable, for the ones that cannot be
+     * resolved, it's never null.*/
+    private final String[] placeholders;
+
+    /** The argument index of each slot of the template, it's never
+     * null.*/
+    private final int[] slots;
+
+    /** The literal parts of the segments, it's never null.*/
+    private final String[] literals;
+
+    /** The parts of each segment, it's never null.*/
+    private final int[][] segments;
+
+    /** Creates a new instance.
+     * @param theRegistry the registry of the structure, cannot be null.
+     * @param theTemplate the stack, cannot be null.
+     */
+    Compiled(final StructureRegistry theRegistry,
+        final StackTemplate theTemplate) {
+      registry = theRegistry;
+      template = theTemplate;
+      List<String> theVariables = new ArrayList<>();
+      slots = new int[theTemplate.size()];
+      for (int i = 0; i < slots.length; i++) {
+        String variable = theTemplate.variable(i);
+        int index = theVariables.indexOf(variable);
+        if (index == -1) {
+          index = theVariables.size();
+          theVariables.add(variable);
+        }
+        slots[i] = index;
+      }
+      variables = theVariables.toArray(new String[theVariables.size()]);
+      placeholders = new String[variables.length];
+      for (int i = 0; i < variables.length; i++) {
+        placeholders[i] = "${" + variables[i] + "}";
+      }
+      List<String> theLiterals = new ArrayList<>();
+      List<int[]> theSegments = new ArrayList<>();
+      List<Integer> segment = new ArrayList<>();
+      for (int i = 0; i <= slots.length; i++) {
+        String[] pieces = theTemplate.literal(i).split("\\.", -1);
+        for (int j = 0; j < pieces.length; j++) {
+          if (j > 0) {
+            theSegments.add(toArray(segment));
+            segment.clear();
+          }
+          if (!pieces[j].isEmpty()) {
+            segment.add(-1 - theLiterals.size());
+            theLiterals.add(pieces[j]);
+          }
+        }
+        if (i < slots.length) {
+          segment.add(slots[i]);
+        }
+      }
+      theSegments.add(toArray(segment));
+      literals = theLiterals.toArray(new String[theLiterals.size()]);
+      segments = theSegments.toArray(new int[theSegments.size()][]);
+    }
+
+    /** Checks the number of arguments.
+     * @param arguments the arguments, cannot be null.
+     */
+    void check(final String[] arguments) {
+      Validate.notNull(arguments, "The arguments cannot be null");
+      Validate.isTrue(arguments.length <= variables.length,
+          "The structure has only %s variables", variables.length);
+    }
+
+    /** Retrieves an argument.
+     * @param arguments the arguments.
+     * @param index the index of the argument.
+     * @return the argument, null if it's missing.
+     */
+    String argument(final String[] arguments, final int index) {
+      return index < arguments.length ? arguments[index] : null;
+    }
+
+    /** Retrieves the value of a part of a segment.
+     * @param part the part.
+     * @param arguments the arguments.
+     * @param globals the global variables.
+     * @return the value, null if the value spans many segments or
+     *  references variables.
+     */
+    String part(final int part, final String[] arguments,
+        final Map<String, String> globals) {
+      if (part < 0) {
+        return literals[-1 - part];
+      }
+      String value = argument(arguments, part);
+      if (value == null) {
+        value = globals.get(variables[part]);
+        if (value == null) {
+          return placeholders[part];
+        }
+      }
+      if (value.indexOf('.') != -1 || value.indexOf('$') != -1) {
+        return null;
+      }
+      return value;
+    }
+
+    /** Converts the parts of a segment.
+     * @param parts the parts.
+     * @return the array of parts, never null.
+     */
+    private static int[] toArray(final List<Integer> parts) {
+      int[] result = new int[parts.size()];
+      for (int i = 0; i < result.length; i++) {
+        result[i] = parts.get(i);
+      }
+      return result;
+    }
+  }
+
+}
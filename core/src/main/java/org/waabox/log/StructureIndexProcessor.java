@@ -0,0 +1,101 @@
+package org.waabox.log;
+
+import java.io.*;
+import java.net.URI;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+import javax.annotation.processing.*;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.TypeElement;
+import javax.tools.*;
+
+/** Writes the index of the *log_structure.json of a module at build time,
+ * so the {@link StructureLoader} does not need to scan the classpath.
+ *
+ * The processor is registered as a service, then javac runs it for every
+ * module that has the core in its compile classpath. The resources are
+ * already copied to the classes directory when the sources are compiled,
+ * so it walks that directory and writes {@link StructureLoader#INDEX}
+ * with the path of each structure file, one per line. Nothing is written
+ * if the module has no structure files.
+ *
+ * On JDK 23 and later the processors in the classpath are not run by
+ * default, compile with -proc:full or declare the core in the
+ * annotationProcessorPaths of the compiler plugin.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+@SupportedAnnotationTypes("*")
+public class StructureIndexProcessor extends AbstractProcessor {
+
+  /** Whether the index was already written or not.*/
+  private boolean written;
+
+  /** {@inheritDoc}. */
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  /** {@inheritDoc}. */
+  @Override
+  public boolean process(final Set<? extends TypeElement> annotations,
+      final RoundEnvironment roundEnv) {
+    if (written) {
+      return false;
+    }
+    written = true;
+    try {
+      FileObject index = processingEnv.getFiler().createResource(
+          StandardLocation.CLASS_OUTPUT, "", StructureLoader.INDEX);
+      Path root = Paths.get(index.toUri()).getParent().getParent()
+          .getParent();
+      List<String> files = list(root);
+      if (!files.isEmpty()) {
+        Writer writer = index.openWriter();
+        try {
+          for (String file : files) {
+            writer.write(file);
+            writer.write('\n');
+          }
+        } finally {
+          writer.close();
+        }
+      }
+    } catch (IOException | IllegalArgumentException e) {
+      processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+          "Cannot write the structure index, the structures will be"
+          + " scanned at runtime: " + e.getMessage());
+    }
+    return false;
+  }
+
+  /** Lists the structure files under the given directory.
+   * @param root the classes directory, cannot be null.
+   * @return the paths relative to the directory, sorted, never null.
+   * @throws IOException if the directory cannot be walked.
+   */
+  static List<String> list(final Path root) throws IOException {
+    final List<String> files = new ArrayList<>();
+    if (!Files.isDirectory(root)) {
+      return files;
+    }
+    Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(final Path file,
+          final BasicFileAttributes attrs) {
+        if (file.getFileName().toString().endsWith(
+            StructureLoader.SUFFIX)) {
+          URI relative = root.toUri().relativize(file.toUri());
+          files.add(relative.getPath());
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    Collections.sort(files);
+    return files;
+  }
+
+}
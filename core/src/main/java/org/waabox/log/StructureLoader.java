@@ -2,72 +2,358 @@ package org.waabox.log;
 
 import org.apache.commons.lang3.Validate;
 
-import org.json.*;
-
 import java.io.*;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.net.URLClassLoader;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 
 import net.sf.corn.cps.*;
 
 /** Search within the classpath the *log_structure.json and generates
  * the Structures.
  *
+ * The files are listed by the {@link #INDEX} that the
+ * {@link StructureIndexProcessor} writes at build time into each module,
+ * all of them are read with {@link ClassLoader#getResources(String)}, so
+ * the structures are found within jars too. The classpath roots of the
+ * class loader that have no index, like the modules built without the
+ * processor, are listed on their own, and the whole classpath is scanned
+ * only if there is no index at all. The files are parsed in parallel,
+ * and the structures are kept in the order of the files.
+ *
+ * The structures are held in an immutable {@link StructureRegistry}, a
+ * reload reads every file again and swaps the registry as a whole, so
+ * the lookups see either the old or the new structures, and never lock.
+ *
  * @author waabox (me[at]waabox[dot]org)
  */
 public final class StructureLoader {
 
+  /** The resource that lists the structure files of a module.*/
+  public static final String INDEX = "META-INF/domain-logger/structures.index";
+
+  /** The suffix of the structure files.*/
+  static final String SUFFIX = "log_structure.json";
+
   /** The singleton instance, it's never null.*/
-  private static final StructureLoader INSTANCE = new StructureLoader();
+  private static final StructureLoader INSTANCE = new StructureLoader(
+      StructureLoader.class.getClassLoader());
 
-  /** Map that holds the structures by its name, it's never null.*/
-  private final Map<String, Structure> structures = new LinkedHashMap<>();
+  /** The class loader of the indexes, it's never null.*/
+  private final ClassLoader classLoader;
 
-  /** Creates a new instance of the loader.*/
-  private StructureLoader() {
-    ResourceFilter filter = new ResourceFilter().archiveName("*");
-    List<URL> urls = CPScanner.scanResources(filter);
-    for (URL url : urls) {
-      if (!url.getFile().contains("log_structure.json")) {
-        continue;
+  /** The current structures, replaced as a whole on each reload, it's
+   * never null.*/
+  private volatile StructureRegistry registry;
+
+  /** Creates a new instance of the loader.
+   * @param theClassLoader the class loader to read the indexes from,
+   *  cannot be null.
+   */
+  StructureLoader(final ClassLoader theClassLoader) {
+    Validate.notNull(theClassLoader, "The class loader cannot be null");
+    classLoader = theClassLoader;
+    registry = load();
+  }
+
+  /** Retrieves an structure by its name.
+   * @param name the name of the structure.
+   * @return the Structure, never null.
+   */
+  public static Structure named(final String name) {
+    return INSTANCE.structure(name);
+  }
+
+  /** Retrieves the loader of the classpath structures.
+   * @return the loader, never null.
+   */
+  static StructureLoader instance() {
+    return INSTANCE;
+  }
+
+  /** Watches the structure files in the file system, reloading them when
+   * they change.
+   *
+   * The files within jars are not watched. Close the watcher to stop it.
+   *
+   * @return the watcher, never null.
+   */
+  public static StructureWatcher watch() {
+    return new StructureWatcher(INSTANCE);
+  }
+
+  /** Retrieves an structure of this loader by its name.
+   * @param name the name of the structure.
+   * @return the Structure, never null.
+   */
+  Structure structure(final String name) {
+    Structure structure = registry.get(name);
+    Validate.isTrue(structure != null, "Structure: " + name + " not found");
+    return structure;
+  }
+
+  /** Retrieves the current structures.
+   * @return the structures, never null.
+   */
+  StructureRegistry registry() {
+    return registry;
+  }
+
+  /** Reads again all the structure files, and replaces the structures
+   * only if all of them are well formed.
+   * @throws IllegalArgumentException if the files are not well formed,
+   *  the previous structures are kept.
+   */
+  void reload() {
+    registry = load();
+  }
+
+  /** Retrieves the indexes of the class loader.
+   * @return the indexes, never null.
+   */
+  List<URL> indexes() {
+    try {
+      return Collections.list(classLoader.getResources(INDEX));
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /** Reads the structure files.
+   * @return the structures, never null.
+   */
+  private StructureRegistry load() {
+    List<URL> urls = index(classLoader);
+    if (urls.isEmpty()) {
+      urls = scan();
+    } else {
+      urls.addAll(unindexed(classLoader));
+    }
+    return new StructureRegistry(urls, parse(urls));
+  }
+
+  /** Reads the structure files listed by every index in the class loader.
+   * @param classLoader the class loader, cannot be null.
+   * @return the files, empty if there is no index, never null.
+   */
+  static List<URL> index(final ClassLoader classLoader) {
+    Map<String, URL> urls = new LinkedHashMap<>();
+    try {
+      Enumeration<URL> indexes = classLoader.getResources(INDEX);
+      while (indexes.hasMoreElements()) {
+        URL index = indexes.nextElement();
+        // The files are resolved against the root of the index, so they
+        // are taken from the same jar or directory.
+        URL root = new URL(index, "../../");
+        for (String line : lines(index)) {
+          String file = line.trim();
+          if (file.isEmpty() || file.startsWith("#")) {
+            continue;
+          }
+          URL url = new URL(root, file);
+          urls.put(url.toExternalForm(), url);
+        }
       }
-      BufferedReader reader = null;
-      StringBuilder sb = new StringBuilder();
-      String line;
-      try {
-        reader = new BufferedReader(new InputStreamReader(url.openStream()));
-        while ((line = reader.readLine()) != null) {
-          sb.append(line);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return new ArrayList<>(urls.values());
+  }
+
+  /** Lists the structure files of the classpath roots of the class loader
+   * that have no index.
+   * @param classLoader the class loader, cannot be null.
+   * @return the files, empty if every root has an index, never null.
+   */
+  static List<URL> unindexed(final ClassLoader classLoader) {
+    Set<String> indexed = new HashSet<>();
+    List<URL> urls = new ArrayList<>();
+    try {
+      for (URL index : Collections.list(classLoader.getResources(INDEX))) {
+        indexed.add(new URL(index, "../../").toExternalForm());
+      }
+      for (File root : roots(classLoader)) {
+        if (root.isDirectory()) {
+          URL url = root.toURI().toURL();
+          if (indexed.add(url.toExternalForm())) {
+            for (String file : StructureIndexProcessor.list(root.toPath())) {
+              urls.add(new URL(url, file));
+            }
+          }
+        } else if (root.isFile()) {
+          URL url = new URL("jar:" + root.toURI().toURL() + "!/");
+          if (indexed.add(url.toExternalForm())) {
+            try (JarFile jar = new JarFile(root)) {
+              for (JarEntry entry : Collections.list(jar.entries())) {
+                if (entry.getName().endsWith(SUFFIX)) {
+                  urls.add(new URL(url, entry.getName()));
+                }
+              }
+            }
+          }
         }
-        JSONArray jsonStructures = new JSONArray(sb.toString());
-        for (int i = 0; i < jsonStructures.length(); i++) {
-          JSONObject obj = jsonStructures.getJSONObject(i);
-          String name = obj.getString("name");
-          String stack = obj.getString("stack");
-          structures.put(name, new Structure(name, stack));
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return urls;
+  }
+
+  /** Retrieves the directories and jars of the classpath of the class
+   * loader and its parents.
+   * @param classLoader the class loader, cannot be null.
+   * @return the roots, in classpath order, never null.
+   */
+  private static Set<File> roots(final ClassLoader classLoader) {
+    Set<File> roots = new LinkedHashSet<>();
+    ClassLoader system = ClassLoader.getSystemClassLoader();
+    for (ClassLoader loader = classLoader; loader != null;
+        loader = loader.getParent()) {
+      if (loader instanceof URLClassLoader) {
+        for (URL url : ((URLClassLoader) loader).getURLs()) {
+          if (url.getProtocol().equals("file")) {
+            try {
+              roots.add(new File(url.toURI()));
+            } catch (URISyntaxException e) {
+              throw new RuntimeException(e);
+            }
+          }
         }
-      } catch (Exception e) {
-        throw new RuntimeException(e);
-      } finally {
-        if (reader != null) {
-          try {
-            reader.close();
-          } catch (IOException e) {
-            throw new RuntimeException(e);
+      }
+      if (loader == system) {
+        String classPath = System.getProperty("java.class.path", "");
+        for (String entry : classPath.split(File.pathSeparator)) {
+          if (!entry.isEmpty()) {
+            roots.add(new File(entry).getAbsoluteFile());
           }
         }
       }
     }
+    return roots;
   }
 
-  /** Retrieves an structure by its name.
-   * @param name the name of the structure.
-   * @return the Structure, never null.
+  /** Scans the whole classpath looking for the structure files.
+   * @return the files, never null.
    */
-  public static Structure named(final String name) {
-    Validate.isTrue(INSTANCE.structures.containsKey(name),
-        "Structure: " + name + " not found");
-    return INSTANCE.structures.get(name);
+  private static List<URL> scan() {
+    ResourceFilter filter = new ResourceFilter().archiveName("*");
+    List<URL> urls = new ArrayList<>();
+    for (URL url : CPScanner.scanResources(filter)) {
+      if (url.getFile().contains(SUFFIX)) {
+        urls.add(url);
+      }
+    }
+    return urls;
+  }
+
+  /** Parses the given structure files, in parallel if there are many.
+   * @param urls the files, cannot be null.
+   * @return the structures of each file, in the order of the files, never
+   *  null.
+   */
+  private static List<List<StructureParser.Parsed>> parse(
+      final List<URL> urls) {
+    List<List<StructureParser.Parsed>> result = new ArrayList<>(
+        urls.size());
+    int threads = Math.min(urls.size(),
+        Runtime.getRuntime().availableProcessors());
+    if (threads <= 1) {
+      for (URL url : urls) {
+        result.add(parse(url));
+      }
+      return result;
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(threads,
+        new ThreadFactory() {
+          @Override
+          public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(runnable, "structure-loader");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    try {
+      List<Future<List<StructureParser.Parsed>>> files = new ArrayList<>(
+          urls.size());
+      for (final URL url : urls) {
+        files.add(executor.submit(
+            new Callable<List<StructureParser.Parsed>>() {
+              @Override
+              public List<StructureParser.Parsed> call() {
+                return parse(url);
+              }
+            }));
+      }
+      for (Future<List<StructureParser.Parsed>> file : files) {
+        result.add(file.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    } finally {
+      executor.shutdown();
+    }
+    return result;
+  }
+
+  /** Parses a structure file.
+   * @param url the file, cannot be null.
+   * @return the structures, in the order of the file, never null.
+   */
+  private static List<StructureParser.Parsed> parse(final URL url) {
+    Reader reader = null;
+    try {
+      reader = new BufferedReader(new InputStreamReader(url.openStream(),
+          "UTF-8"));
+      return new StructureParser(url.getPath(), reader).parse();
+    } catch (IOException e) {
+      throw new RuntimeException("Cannot read " + url, e);
+    } finally {
+      if (reader != null) {
+        try {
+          reader.close();
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    }
+  }
+
+  /** Reads the lines of the given resource.
+   * @param url the resource, cannot be null.
+   * @return the lines, never null.
+   */
+  private static List<String> lines(final URL url) {
+    List<String> lines = new ArrayList<>();
+    BufferedReader reader = null;
+    String line;
+    try {
+      reader = new BufferedReader(new InputStreamReader(url.openStream(),
+          "UTF-8"));
+      while ((line = reader.readLine()) != null) {
+        lines.add(line);
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    } finally {
+      if (reader != null) {
+        try {
+          reader.close();
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    }
+    return lines;
   }
 
 }
@@ -0,0 +1,306 @@
+package org.waabox.log;
+
+import java.io.*;
+import java.util.*;
+
+import org.apache.commons.lang3.Validate;
+
+/** Reads a *log_structure.json, creating each structure as soon as its
+ * object is read.
+ *
+ * The file is a JSON array of objects with a name and a stack, any other
+ * attribute is skipped. The parser keeps track of the line it's reading,
+ * so the errors, the malformed JSON and ${variable} placeholders, tell
+ * where they are.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+final class StructureParser {
+
+  /** The name of the file, used in the errors, it's never null.*/
+  private final String file;
+
+  /** The reader of the file, it's never null.*/
+  private final Reader reader;
+
+  /** The current line, starting at 1.*/
+  private int line = 1;
+
+  /** The character read ahead, -2 if there is none.*/
+  private int peeked = -2;
+
+  /** Creates a new instance of the parser.
+   * @param theFile the name of the file, cannot be null.
+   * @param theReader the reader of the file, cannot be null.
+   */
+  StructureParser(final String theFile, final Reader theReader) {
+    Validate.notNull(theFile, "The file cannot be null");
+    Validate.notNull(theReader, "The reader cannot be null");
+    file = theFile;
+    reader = theReader;
+  }
+
+  /** Parses the file.
+   * @return the structures, in the order of the file, never null.
+   * @throws IOException if the file cannot be read.
+   * @throws IllegalArgumentException if the file is not well formed.
+   */
+  List<Parsed> parse() throws IOException {
+    List<Parsed> structures = new ArrayList<>();
+    expect('[');
+    if (skipWhitespace() == ']') {
+      read();
+    } else {
+      do {
+        structures.add(structure());
+      } while (separator(']'));
+    }
+    if (skipWhitespace() != -1) {
+      throw error("Unexpected content after the structures");
+    }
+    return structures;
+  }
+
+  /** Reads a structure object.
+   * @return the structure, never null.
+   * @throws IOException if the file cannot be read.
+   */
+  private Parsed structure() throws IOException {
+    expect('{');
+    int start = line;
+    String name = null;
+    String stack = null;
+    int stackLine = line;
+    if (skipWhitespace() == '}') {
+      read();
+    } else {
+      do {
+        skipWhitespace();
+        String key = string();
+        expect(':');
+        if (key.equals("name")) {
+          skipWhitespace();
+          name = string();
+        } else if (key.equals("stack")) {
+          skipWhitespace();
+          stackLine = line;
+          stack = string();
+        } else {
+          skipValue();
+        }
+      } while (separator('}'));
+    }
+    if (name == null || stack == null) {
+      line = start;
+      throw error("The structure needs a name and a stack");
+    }
+    String malformed = StackTemplate.validate(stack);
+    if (malformed != null) {
+      line = stackLine;
+      throw error("Structure " + name + ": " + malformed);
+    }
+    return new Parsed(new Structure(name, stack), file + ":" + start);
+  }
+
+  /** Reads the separator of the elements of an array or object.
+   * @param close the character that closes them.
+   * @return true if there are more elements, false if they were closed.
+   * @throws IOException if the file cannot be read.
+   */
+  private boolean separator(final char close) throws IOException {
+    int c = skipWhitespace();
+    read();
+    if (c == ',') {
+      return true;
+    }
+    if (c != close) {
+      throw error("Expected ',' or '" + close + "'");
+    }
+    return false;
+  }
+
+  /** Skips any JSON value.
+   * @throws IOException if the file cannot be read.
+   */
+  private void skipValue() throws IOException {
+    int c = skipWhitespace();
+    if (c == '"') {
+      string();
+    } else if (c == '{' || c == '[') {
+      read();
+      char close = c == '{' ? '}' : ']';
+      if (skipWhitespace() == close) {
+        read();
+        return;
+      }
+      do {
+        if (c == '{') {
+          skipWhitespace();
+          string();
+          expect(':');
+        }
+        skipValue();
+      } while (separator(close));
+    } else {
+      // A number, true, false or null.
+      int length = 0;
+      while (c != -1 && (Character.isLetterOrDigit(c) || c == '-'
+          || c == '+' || c == '.')) {
+        read();
+        c = peek();
+        length++;
+      }
+      if (length == 0) {
+        throw error("Unexpected character");
+      }
+    }
+  }
+
+  /** Reads a string.
+   * @return the string, never null.
+   * @throws IOException if the file cannot be read.
+   */
+  private String string() throws IOException {
+    if (read() != '"') {
+      throw error("Expected a string");
+    }
+    StringBuilder sb = new StringBuilder();
+    while (true) {
+      int c = read();
+      if (c == -1 || c == '\n') {
+        throw error("Unterminated string");
+      } else if (c == '"') {
+        return sb.toString();
+      } else if (c == '\\') {
+        c = read();
+        switch (c) {
+        case 'n':
+          sb.append('\n');
+          break;
+        case 't':
+          sb.append('\t');
+          break;
+        case 'r':
+          sb.append('\r');
+          break;
+        case 'b':
+          sb.append('\b');
+          break;
+        case 'f':
+          sb.append('\f');
+          break;
+        case 'u':
+          char[] hex = new char[4];
+          for (int i = 0; i < 4; i++) {
+            hex[i] = (char) read();
+          }
+          try {
+            sb.append((char) Integer.parseInt(new String(hex), 16));
+          } catch (NumberFormatException e) {
+            throw error("Malformed unicode escape");
+          }
+          break;
+        case '"':
+        case '\\':
+        case '/':
+          sb.append((char) c);
+          break;
+        default:
+          throw error("Malformed escape");
+        }
+      } else {
+        sb.append((char) c);
+      }
+    }
+  }
+
+  /** Reads the given character, skipping the whitespace before it.
+   * @param expected the character.
+   * @throws IOException if the file cannot be read.
+   */
+  private void expect(final char expected) throws IOException {
+    skipWhitespace();
+    if (read() != expected) {
+      throw error("Expected '" + expected + "'");
+    }
+  }
+
+  /** Skips the whitespace.
+   * @return the next character, without reading it, -1 at the end.
+   * @throws IOException if the file cannot be read.
+   */
+  private int skipWhitespace() throws IOException {
+    int c = peek();
+    while (c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+      read();
+      c = peek();
+    }
+    return c;
+  }
+
+  /** Retrieves the next character without reading it.
+   * @return the character, -1 at the end.
+   * @throws IOException if the file cannot be read.
+   */
+  private int peek() throws IOException {
+    if (peeked == -2) {
+      peeked = reader.read();
+    }
+    return peeked;
+  }
+
+  /** Reads the next character.
+   * @return the character, -1 at the end.
+   * @throws IOException if the file cannot be read.
+   */
+  private int read() throws IOException {
+    int c = peek();
+    peeked = -2;
+    if (c == '\n') {
+      line++;
+    }
+    return c;
+  }
+
+  /** Creates the error of the current line.
+   * @param message the message, cannot be null.
+   * @return the error, never null.
+   */
+  private IllegalArgumentException error(final String message) {
+    return new IllegalArgumentException(file + ":" + line + ": " + message);
+  }
+
+  /** A structure read from a file.*/
+  static final class Parsed {
+
+    /** The structure, it's never null.*/
+    private final Structure structure;
+
+    /** The file and line where it's declared, it's never null.*/
+    private final String location;
+
+    /** Creates a new instance.
+     * @param theStructure the structure, cannot be null.
+     * @param theLocation the file and line, cannot be null.
+     */
+    Parsed(final Structure theStructure, final String theLocation) {
+      structure = theStructure;
+      location = theLocation;
+    }
+
+    /** Retrieves the structure.
+     * @return the structure, never null.
+     */
+    Structure structure() {
+      return structure;
+    }
+
+    /** Retrieves where the structure is declared.
+     * @return the file and line, never null.
+     */
+    String location() {
+      return location;
+    }
+  }
+
+}
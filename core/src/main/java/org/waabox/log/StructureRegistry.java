@@ -0,0 +1,73 @@
+package org.waabox.log;
+
+import java.net.URL;
+import java.util.*;
+
+import org.apache.commons.lang3.Validate;
+
+/** An immutable set of structures, the ones of a given list of files.
+ *
+ * The registry is never changed once created, a reload creates a new one
+ * and the {@link StructureLoader} swaps it, so the lookups never lock.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+final class StructureRegistry {
+
+  /** The structures by name, it's never null.*/
+  private final Map<String, Structure> structures;
+
+  /** The files the structures were read from, it's never null.*/
+  private final List<URL> files;
+
+  /** Creates a new instance of the registry.
+   * @param theFiles the files, cannot be null.
+   * @param parsed the structures of each file, in the order of the files,
+   *  cannot be null.
+   * @throws IllegalArgumentException if two structures have the same name.
+   */
+  StructureRegistry(final List<URL> theFiles,
+      final List<List<StructureParser.Parsed>> parsed) {
+    Validate.notNull(theFiles, "The files cannot be null");
+    Validate.notNull(parsed, "The structures cannot be null");
+    Map<String, Structure> theStructures = new LinkedHashMap<>();
+    Map<String, String> locations = new HashMap<>();
+    for (List<StructureParser.Parsed> file : parsed) {
+      for (StructureParser.Parsed structure : file) {
+        String name = structure.structure().getName();
+        String previous = locations.put(name, structure.location());
+        if (previous != null) {
+          throw new IllegalArgumentException(structure.location()
+              + ": Duplicated structure " + name + ", already declared at "
+              + previous);
+        }
+        theStructures.put(name, structure.structure());
+      }
+    }
+    structures = Collections.unmodifiableMap(theStructures);
+    files = Collections.unmodifiableList(new ArrayList<>(theFiles));
+  }
+
+  /** Retrieves an structure by its name.
+   * @param name the name of the structure.
+   * @return the Structure, null if there is no structure with that name.
+   */
+  Structure get(final String name) {
+    return structures.get(name);
+  }
+
+  /** Retrieves the names of the structures.
+   * @return the names, in the order of the files, never null.
+   */
+  Set<String> names() {
+    return structures.keySet();
+  }
+
+  /** Retrieves the files of the structures.
+   * @return the files, never null.
+   */
+  List<URL> files() {
+    return files;
+  }
+
+}
@@ -0,0 +1,168 @@
+package org.waabox.log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.Validate;
+
+/** Watches the directories of the structure files and of their indexes,
+ * reloading the structures of a {@link StructureLoader} when they change.
+ *
+ * The changes are applied only if every file is well formed, otherwise
+ * the previous structures are kept and the error is available through
+ * {@link #getLastError()}. The structures within jars are not watched.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+public final class StructureWatcher implements Closeable {
+
+  /** The time to wait for more changes before reloading, in
+   * milliseconds.*/
+  private static final long QUIET_MILLIS = 50;
+
+  /** The loader to reload, it's never null.*/
+  private final StructureLoader loader;
+
+  /** The watch service, it's never null.*/
+  private final WatchService service;
+
+  /** The directories already watched, accessed only by the watcher
+   * thread once it's started, it's never null.*/
+  private final Set<Path> directories = new HashSet<>();
+
+  /** The thread that waits for the changes, it's never null.*/
+  private final Thread thread;
+
+  /** The number of successful reloads.*/
+  private volatile long reloads;
+
+  /** The error of the last reload, null if it was successful.*/
+  private volatile RuntimeException lastError;
+
+  /** Creates a new watcher, and starts it.
+   * @param theLoader the loader to reload, cannot be null.
+   */
+  StructureWatcher(final StructureLoader theLoader) {
+    Validate.notNull(theLoader, "The loader cannot be null");
+    loader = theLoader;
+    try {
+      service = FileSystems.getDefault().newWatchService();
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot watch the structures", e);
+    }
+    register();
+    thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        watch();
+      }
+    }, "structure-watcher");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /** Waits for the changes of the structure files until it's closed.*/
+  private void watch() {
+    try {
+      while (true) {
+        WatchKey key = service.take();
+        boolean changed = changed(key);
+        // Editors save in many steps, waits until they are done.
+        while ((key = service.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS))
+            != null) {
+          changed |= changed(key);
+        }
+        if (changed) {
+          reload();
+        }
+      }
+    } catch (InterruptedException | ClosedWatchServiceException e) {
+      return;
+    }
+  }
+
+  /** Checks if the events of the given key are about structure files.
+   * @param key the key, cannot be null.
+   * @return true if any structure file or index changed.
+   */
+  private boolean changed(final WatchKey key) {
+    boolean changed = false;
+    for (WatchEvent<?> event : key.pollEvents()) {
+      Object context = event.context();
+      if (context == null) {
+        changed = true;
+        continue;
+      }
+      String file = context.toString();
+      if (file.endsWith(StructureLoader.SUFFIX)
+          || StructureLoader.INDEX.endsWith("/" + file)) {
+        changed = true;
+      }
+    }
+    key.reset();
+    return changed;
+  }
+
+  /** Reloads the structures, keeping the previous ones on errors.*/
+  private void reload() {
+    try {
+      loader.reload();
+      lastError = null;
+      reloads++;
+      register();
+    } catch (RuntimeException e) {
+      lastError = e;
+    }
+  }
+
+  /** Watches the directories of the current structure files and of the
+   * indexes, the ones that are not watched yet.*/
+  private void register() {
+    List<URL> urls = new ArrayList<>(loader.registry().files());
+    urls.addAll(loader.indexes());
+    for (URL url : urls) {
+      if (!"file".equals(url.getProtocol())) {
+        continue;
+      }
+      try {
+        Path directory = Paths.get(url.toURI()).getParent();
+        if (directories.add(directory)) {
+          directory.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+              StandardWatchEventKinds.ENTRY_MODIFY,
+              StandardWatchEventKinds.ENTRY_DELETE);
+        }
+      } catch (IOException | URISyntaxException e) {
+        throw new IllegalStateException("Cannot watch " + url, e);
+      }
+    }
+  }
+
+  /** Retrieves the number of successful reloads.
+   * @return the number of reloads.
+   */
+  public long getReloads() {
+    return reloads;
+  }
+
+  /** Retrieves the error of the last reload.
+   * @return the error, null if the last reload was successful.
+   */
+  public RuntimeException getLastError() {
+    return lastError;
+  }
+
+  /** Stops watching.
+   * @throws IOException if the watch service cannot be closed.
+   */
+  @Override
+  public void close() throws IOException {
+    service.close();
+    thread.interrupt();
+  }
+
+}
@@ -0,0 +1,79 @@
+package org.waabox.log;
+
+import org.apache.commons.lang3.Validate;
+
+/** A finished trace, the DomainLog tree an appender generated while
+ * serving a request.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+public final class Trace {
+
+  /** The id of the request that generated the trace, it's never null.*/
+  private final String id;
+
+  /** The appender name, it's never null.*/
+  private final String appender;
+
+  /** The time the trace was finished, in milliseconds since the epoch.*/
+  private final long timestamp;
+
+  /** The generated tree, it's never null.*/
+  private final DomainLog log;
+
+  /** Creates a new trace finished now.
+   * @param theId the id of the request, cannot be null.
+   * @param theAppender the appender name, cannot be null.
+   * @param theLog the generated tree, cannot be null.
+   */
+  public Trace(final String theId, final String theAppender,
+      final DomainLog theLog) {
+    this(theId, theAppender, System.currentTimeMillis(), theLog);
+  }
+
+  /** Creates a new trace.
+   * @param theId the id of the request, cannot be null.
+   * @param theAppender the appender name, cannot be null.
+   * @param theTimestamp the time the trace was finished.
+   * @param theLog the generated tree, cannot be null.
+   */
+  public Trace(final String theId, final String theAppender,
+      final long theTimestamp, final DomainLog theLog) {
+    Validate.notNull(theId, "The id cannot be null");
+    Validate.notNull(theAppender, "The appender cannot be null");
+    Validate.notNull(theLog, "The log cannot be null");
+    id = theId;
+    appender = theAppender;
+    timestamp = theTimestamp;
+    log = theLog;
+  }
+
+  /** Retrieves the id of the request.
+   * @return the id, never null.
+   */
+  public String getId() {
+    return id;
+  }
+
+  /** Retrieves the appender name.
+   * @return the appender, never null.
+   */
+  public String getAppender() {
+    return appender;
+  }
+
+  /** Retrieves the time the trace was finished.
+   * @return the milliseconds since the epoch.
+   */
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  /** Retrieves the generated tree.
+   * @return the tree, never null.
+   */
+  public DomainLog getLog() {
+    return log;
+  }
+
+}
@@ -0,0 +1,433 @@
+package org.waabox.log;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.apache.commons.lang3.Validate;
+
+/** Aggregates the traces of many units of work into a single tree of
+ * stacks, counting how often each stack is hit and which values are the
+ * most frequent in each one.
+ *
+ * The stacks are kept in a concurrent prefix tree, one node per segment,
+ * with a {@link LongAdder} for the traces that hit the stack and another
+ * for the values logged in it, so the threads that merge their traces do
+ * not contend on them. The frequency of each value is estimated by a
+ * count-min sketch shared by all the stacks, and each stack keeps only
+ * its top values by that estimate, so the memory is bounded no matter
+ * how many distinct values are logged. Offering a value takes the lock of
+ * its stack only while the top values are not full, or when its estimate
+ * beats the smallest of them; the values that do not beat it are
+ * discarded without locking. The number of stacks is bounded too, the
+ * stacks seen once the limit is reached are only counted as dropped.
+ *
+ * Register an aggregator with {@link DomainLogger#aggregate} to merge
+ * the trace of every logger before it's cleaned up.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+public final class TraceAggregator {
+
+  /** The number of rows of the count-min sketch.*/
+  private static final int DEPTH = 4;
+
+  /** The seeds of the hash of each row, it's never null.*/
+  private static final long[] SEEDS = {0x9E3779B97F4A7C15L,
+      0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L};
+
+  /** The maximum number of stacks.*/
+  private final int maxStacks;
+
+  /** The number of values kept for each stack.*/
+  private final int topValues;
+
+  /** The counters of the count-min sketch, DEPTH rows of width
+   * counters, it's never null.*/
+  private final AtomicLongArray sketch;
+
+  /** The width of each row minus one, the width is a power of 2.*/
+  private final int mask;
+
+  /** The root of the prefix tree, it's never null.*/
+  private final Node root = new Node(DomainLogTree.ROOT, 0);
+
+  /** The number of stacks.*/
+  private final AtomicInteger stacks = new AtomicInteger();
+
+  /** The number of traces aggregated, it's never null.*/
+  private final LongAdder traces = new LongAdder();
+
+  /** The number of times a stack was not kept because of the limit, it's
+   * never null.*/
+  private final LongAdder dropped = new LongAdder();
+
+  /** Creates a new aggregator.
+   * @param theMaxStacks the maximum number of stacks, greater than 0.
+   * @param theTopValues the number of values kept for each stack, greater
+   *  than 0.
+   * @param sketchWidth the number of counters of each row of the sketch,
+   *  rounded up to a power of 2, the larger the more precise.
+   */
+  public TraceAggregator(final int theMaxStacks, final int theTopValues,
+      final int sketchWidth) {
+    Validate.isTrue(theMaxStacks > 0, "The maximum stacks must be positive");
+    Validate.isTrue(theTopValues > 0, "The top values must be positive");
+    Validate.isTrue(sketchWidth > 0 && sketchWidth <= 1 << 24,
+        "The sketch width must be between 1 and 2^24");
+    maxStacks = theMaxStacks;
+    topValues = theTopValues;
+    int width = Integer.highestOneBit(sketchWidth);
+    if (width < sketchWidth) {
+      width <<= 1;
+    }
+    mask = width - 1;
+    sketch = new AtomicLongArray(DEPTH * width);
+  }
+
+  /** Creates a new aggregator of up to 10000 stacks with their top 10
+   * values, and a sketch of 16384 counters per row, about 512KB.
+   * @return the aggregator, never null.
+   */
+  public static TraceAggregator create() {
+    return new TraceAggregator(10000, 10, 16384);
+  }
+
+  /** Merges a trace.
+   * @param trace the root of the trace, cannot be null.
+   */
+  public void add(final DomainLog trace) {
+    Validate.notNull(trace, "The trace cannot be null");
+    traces.increment();
+    for (DomainLog entry : trace.getNodes()) {
+      add(root, trace.getStack(), entry);
+    }
+  }
+
+  /** Merges an entry and its subtree.
+   * @param parent the node of the stack of the parent entry.
+   * @param parentStack the stack of the parent entry.
+   * @param entry the entry.
+   */
+  private void add(final Node parent, final String parentStack,
+      final DomainLog entry) {
+    String stack = entry.getStack();
+    Node node = parent;
+    if (!stack.equals(parentStack)) {
+      node = node(parent, parentStack, stack);
+      if (node == null) {
+        return;
+      }
+    }
+    if (entry.getValue() == null) {
+      node.hits.increment();
+    } else {
+      node.values.increment();
+      node.offer(entry.getValue(), count(node.id, entry.getValue()));
+    }
+    for (DomainLog child : entry.getNodes()) {
+      add(node, stack, child);
+    }
+  }
+
+  /** Finds the node of a stack, creating it and its parents if needed.
+   * @param parent the node of the parent stack.
+   * @param parentStack the parent stack.
+   * @param stack the stack.
+   * @return the node, null if the stack was dropped.
+   */
+  private Node node(final Node parent, final String parentStack,
+      final String stack) {
+    Node node = parent;
+    int from;
+    if (parentStack.equals(DomainLogTree.ROOT) || parentStack.isEmpty()) {
+      from = stack.startsWith(".") ? 1 : 0;
+      node = root;
+    } else if (stack.length() > parentStack.length()
+        && stack.charAt(parentStack.length()) == '.'
+        && stack.startsWith(parentStack)) {
+      from = parentStack.length() + 1;
+    } else {
+      from = stack.startsWith(".") ? 1 : 0;
+      node = root;
+    }
+    while (true) {
+      int to = stack.indexOf('.', from);
+      if (to == -1) {
+        to = stack.length();
+      }
+      node = child(node, stack, from, to);
+      if (node == null || to == stack.length()) {
+        return node;
+      }
+      from = to + 1;
+    }
+  }
+
+  /** Finds the child of a node, creating it if there is room.
+   * @param parent the parent node.
+   * @param stack the stack that holds the segment of the child.
+   * @param from the start of the segment.
+   * @param to the end of the segment.
+   * @return the child, null if it was dropped.
+   */
+  private Node child(final Node parent, final String stack, final int from,
+      final int to) {
+    String segment = stack.substring(from, to);
+    Node child = parent.children.get(segment);
+    if (child != null) {
+      return child;
+    }
+    int id = stacks.incrementAndGet();
+    if (id > maxStacks) {
+      stacks.decrementAndGet();
+      dropped.increment();
+      return null;
+    }
+    String childStack;
+    if (parent == root) {
+      childStack = "." + segment;
+    } else {
+      childStack = parent.stack + "." + segment;
+    }
+    child = new Node(childStack, id);
+    Node previous = parent.children.putIfAbsent(segment, child);
+    if (previous != null) {
+      stacks.decrementAndGet();
+      return previous;
+    }
+    return child;
+  }
+
+  /** Counts a value of a stack in the sketch.
+   * @param stack the id of the stack.
+   * @param value the value.
+   * @return the estimated count of the value in the stack.
+   */
+  private long count(final int stack, final String value) {
+    long hash = stack;
+    for (int i = 0; i < value.length(); i++) {
+      hash = 31 * hash + value.charAt(i);
+    }
+    long estimate = Long.MAX_VALUE;
+    int width = mask + 1;
+    for (int row = 0; row < DEPTH; row++) {
+      int column = (int) (mix(hash * SEEDS[row]) & mask);
+      estimate = Math.min(estimate,
+          sketch.incrementAndGet(row * width + column));
+    }
+    return estimate;
+  }
+
+  /** Mixes the bits of a hash, the splitmix64 finalizer.
+   * @param value the hash.
+   * @return the mixed hash.
+   */
+  private static long mix(final long value) {
+    long z = value;
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  /** Finds the node of a stack.
+   * @param stack the stack, starting with '.', cannot be null.
+   * @return the node, null if the stack was never aggregated.
+   */
+  private Node find(final String stack) {
+    Validate.notNull(stack, "The stack cannot be null");
+    if (stack.equals(DomainLogTree.ROOT)) {
+      return root;
+    }
+    Node node = root;
+    int from = stack.startsWith(".") ? 1 : 0;
+    while (node != null) {
+      int to = stack.indexOf('.', from);
+      if (to == -1) {
+        to = stack.length();
+      }
+      node = node.children.get(stack.substring(from, to));
+      if (to == stack.length()) {
+        break;
+      }
+      from = to + 1;
+    }
+    return node;
+  }
+
+  /** Retrieves the number of traces that hit the given stack.
+   * @param stack the stack, starting with '.', cannot be null.
+   * @return the number of traces.
+   */
+  public long hits(final String stack) {
+    Node node = find(stack);
+    return node == null ? 0 : node.hits.sum();
+  }
+
+  /** Retrieves the number of values logged in the given stack.
+   * @param stack the stack, starting with '.', cannot be null.
+   * @return the number of values.
+   */
+  public long values(final String stack) {
+    Node node = find(stack);
+    return node == null ? 0 : node.values.sum();
+  }
+
+  /** Retrieves the most frequent values of the given stack.
+   * @param stack the stack, starting with '.', cannot be null.
+   * @return the values with their estimated count, the most frequent
+   *  first, never null.
+   */
+  public List<Map.Entry<String, Long>> top(final String stack) {
+    Node node = find(stack);
+    if (node == null) {
+      return Collections.emptyList();
+    }
+    return node.top();
+  }
+
+  /** Retrieves the number of traces aggregated.
+   * @return the number of traces.
+   */
+  public long traces() {
+    return traces.sum();
+  }
+
+  /** Retrieves the number of stacks.
+   * @return the number of stacks.
+   */
+  public int stacks() {
+    return stacks.get();
+  }
+
+  /** Retrieves the number of times a stack was not kept because the
+   * maximum number of stacks was reached.
+   * @return the number of dropped stacks.
+   */
+  public long dropped() {
+    return dropped.sum();
+  }
+
+  /** Creates a tree with the aggregated stacks, for the renderers.
+   *
+   * The value of each stack entry is the number of traces that hit it,
+   * and its top values are entries with the value and its estimated
+   * count, like "10 x 25".
+   *
+   * @return the root of the tree, never null.
+   */
+  public DomainLog toDomainLog() {
+    DomainLog log = new DomainLog(DomainLogTree.ROOT);
+    for (Node child : root.children.values()) {
+      log.add(child.toDomainLog());
+    }
+    return log;
+  }
+
+  /** A stack of the prefix tree.*/
+  private final class Node {
+
+    /** The stack, it's never null.*/
+    private final String stack;
+
+    /** The id of the stack, used in the sketch.*/
+    private final int id;
+
+    /** The child stacks by segment, it's never null.*/
+    private final ConcurrentMap<String, Node> children =
+        new ConcurrentHashMap<>();
+
+    /** The traces that hit this stack, it's never null.*/
+    private final LongAdder hits = new LongAdder();
+
+    /** The values logged in this stack, it's never null.*/
+    private final LongAdder values = new LongAdder();
+
+    /** The most frequent values with their estimated count, guarded by
+     * this node, it's never null.*/
+    private final Map<String, Long> top = new HashMap<>();
+
+    /** The smallest estimate of the top values once they are full, 0
+     * before. The estimates only grow, so a value that does not beat it
+     * is discarded without taking the lock.*/
+    private volatile long floor = 0;
+
+    /** Creates a new node.
+     * @param theStack the stack.
+     * @param theId the id of the stack.
+     */
+    Node(final String theStack, final int theId) {
+      stack = theStack;
+      id = theId;
+    }
+
+    /** Offers a value to the top values.
+     * @param value the value.
+     * @param estimate its estimated count.
+     */
+    void offer(final String value, final long estimate) {
+      if (estimate <= floor) {
+        return;
+      }
+      synchronized (this) {
+        if (!top.containsKey(value) && top.size() >= topValues) {
+          String min = null;
+          long minCount = Long.MAX_VALUE;
+          for (Map.Entry<String, Long> entry : top.entrySet()) {
+            if (entry.getValue() < minCount) {
+              min = entry.getKey();
+              minCount = entry.getValue();
+            }
+          }
+          if (estimate <= minCount) {
+            return;
+          }
+          top.remove(min);
+        }
+        top.put(value, estimate);
+        if (top.size() >= topValues) {
+          long minCount = Long.MAX_VALUE;
+          for (long count : top.values()) {
+            minCount = Math.min(minCount, count);
+          }
+          floor = minCount;
+        }
+      }
+    }
+
+    /** Retrieves the top values.
+     * @return the values, the most frequent first, never null.
+     */
+    synchronized List<Map.Entry<String, Long>> top() {
+      List<Map.Entry<String, Long>> result = new ArrayList<>();
+      for (Map.Entry<String, Long> entry : top.entrySet()) {
+        result.add(new AbstractMap.SimpleImmutableEntry<>(entry));
+      }
+      Collections.sort(result, new Comparator<Map.Entry<String, Long>>() {
+        @Override
+        public int compare(final Map.Entry<String, Long> a,
+            final Map.Entry<String, Long> b) {
+          return Long.compare(b.getValue(), a.getValue());
+        }
+      });
+      return result;
+    }
+
+    /** Creates the entry of this stack, with its top values and its
+     * children.
+     * @return the entry, never null.
+     */
+    DomainLog toDomainLog() {
+      DomainLog log = new DomainLog(stack, String.valueOf(hits.sum()));
+      for (Map.Entry<String, Long> value : top()) {
+        log.add(new DomainLog(stack, value.getKey() + " x "
+            + value.getValue()));
+      }
+      for (Node child : children.values()) {
+        log.add(child.toDomainLog());
+      }
+      return log;
+    }
+  }
+
+}
@@ -0,0 +1,186 @@
+package org.waabox.log;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.apache.commons.lang3.Validate;
+
+/** The loggers of a unit of work, detached from the thread that started
+ * it.
+ *
+ * {@link DomainLogger#get(String)} keeps the loggers in a thread local, so
+ * anything logged from another thread, an executor, a virtual thread or
+ * the thread that resumes an async request, goes to a different tree.
+ * A context captures the loggers of the current thread and installs them
+ * in the thread that runs a task, for the duration of the task:
+ *
+ * <pre>
+ * TraceContext context = TraceContext.current();
+ * executor.submit(context.wrap(new Runnable() {
+ *   public void run() {
+ *     DomainLogger.get("orders").log("order.${id}", "paid");
+ *   }
+ * }));
+ * </pre>
+ *
+ * The task logs into the same trees of the thread that captured the
+ * context. The trees are thread safe, so tasks can run in parallel.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+public final class TraceContext {
+
+  /** The loggers by appender, it's never null.*/
+  private final ConcurrentMap<String, DomainLogger> loggers;
+
+  /** Creates a new context.
+   * @param theLoggers the loggers by appender, cannot be null.
+   */
+  private TraceContext(final ConcurrentMap<String, DomainLogger> theLoggers) {
+    loggers = theLoggers;
+  }
+
+  /** Captures the loggers of the current thread.
+   * @return the context, never null.
+   */
+  public static TraceContext current() {
+    return new TraceContext(DomainLogger.loggers());
+  }
+
+  /** Creates a new context with no loggers, detached from any thread.
+   * @return the context, never null.
+   */
+  public static TraceContext create() {
+    return new TraceContext(new ConcurrentHashMap<String, DomainLogger>());
+  }
+
+  /** Retrieves the logger of the given appender in this context, without
+   * looking up the current thread.
+   * @param appender the appender, cannot be null.
+   * @return the logger, never null.
+   */
+  public DomainLogger get(final String appender) {
+    Validate.notNull(appender, "The appender cannot be null");
+    return DomainLogger.get(loggers, appender);
+  }
+
+  /** Retrieves the names of the appenders used in this context.
+   * @return the appender names, never null.
+   */
+  public Set<String> appenders() {
+    return Collections.unmodifiableSet(loggers.keySet());
+  }
+
+  /** Makes this context the context of the current thread, until the
+   * returned context is attached back or {@link DomainLogger#detach()} is
+   * called.
+   *
+   * Used when the start and the end of the work are not in the same
+   * method, like in the callbacks of an async request, otherwise use
+   * {@link #run(Runnable)}. The loggers the thread had before are not
+   * cleaned up, attach the returned context once done to get them back.
+   *
+   * @return the context the thread had before, never null.
+   */
+  public TraceContext attach() {
+    return new TraceContext(DomainLogger.attach(loggers));
+  }
+
+  /** Checks if this context has no loggers.
+   * @return true if nothing was logged in this context.
+   */
+  public boolean isEmpty() {
+    return loggers.isEmpty();
+  }
+
+  /** Runs the given task with this context as the context of the current
+   * thread, the previous one is restored after it.
+   * @param task the task to run, cannot be null.
+   */
+  public void run(final Runnable task) {
+    Validate.notNull(task, "The task cannot be null");
+    ConcurrentMap<String, DomainLogger> previous = DomainLogger.attach(
+        loggers);
+    try {
+      task.run();
+    } finally {
+      DomainLogger.attach(previous);
+    }
+  }
+
+  /** Calls the given task with this context as the context of the current
+   * thread, the previous one is restored after it.
+   * @param <T> the type of the result.
+   * @param task the task to call, cannot be null.
+   * @return the result of the task.
+   * @throws Exception if the task fails.
+   */
+  public <T> T call(final Callable<T> task) throws Exception {
+    Validate.notNull(task, "The task cannot be null");
+    ConcurrentMap<String, DomainLogger> previous = DomainLogger.attach(
+        loggers);
+    try {
+      return task.call();
+    } finally {
+      DomainLogger.attach(previous);
+    }
+  }
+
+  /** Wraps the given task so it runs within this context, in whatever
+   * thread it's run.
+   * @param task the task, cannot be null.
+   * @return the wrapped task, never null.
+   */
+  public Runnable wrap(final Runnable task) {
+    Validate.notNull(task, "The task cannot be null");
+    return new Runnable() {
+      @Override
+      public void run() {
+        TraceContext.this.run(task);
+      }
+    };
+  }
+
+  /** Wraps the given task so it's called within this context, in whatever
+   * thread it's called.
+   * @param <T> the type of the result.
+   * @param task the task, cannot be null.
+   * @return the wrapped task, never null.
+   */
+  public <T> Callable<T> wrap(final Callable<T> task) {
+    Validate.notNull(task, "The task cannot be null");
+    return new Callable<T>() {
+      @Override
+      public T call() throws Exception {
+        return TraceContext.this.call(task);
+      }
+    };
+  }
+
+  /** Wraps the given executor so every task it runs, runs within this
+   * context.
+   * @param executor the executor, cannot be null.
+   * @return the wrapped executor, never null.
+   */
+  public Executor wrap(final Executor executor) {
+    Validate.notNull(executor, "The executor cannot be null");
+    return new Executor() {
+      @Override
+      public void execute(final Runnable task) {
+        executor.execute(wrap(task));
+      }
+    };
+  }
+
+  /** Clears the trees and the variables of the loggers of this context,
+   * and removes them.
+   *
+   * Call it once the unit of work is done, instead of
+   * {@link DomainLogger#cleanup()}, when it did not end in the thread that
+   * started it.
+   */
+  public void clear() {
+    DomainLogger.cleanup(loggers);
+  }
+
+}
@@ -0,0 +1,426 @@
+package org.waabox.log;
+
+import java.io.IOException;
+import java.util.*;
+
+import org.apache.commons.lang3.Validate;
+
+/** The structural differences between two DomainLog trees.
+ *
+ * Each subtree is identified by a 64 bits fingerprint of its stack, its
+ * value and the fingerprints of its children, computed in a single pass
+ * over each tree. The children are compared by stack and value, not by
+ * position, and the subtrees with the same fingerprint are skipped
+ * without descending into them, so comparing two traces takes linear
+ * time in the worst case, and much less when they are alike.
+ *
+ * The changes are reported at the top of the subtrees that differ:
+ *
+ *   added     an entry, and its subtree, that is only in the new tree.
+ *   removed   an entry, and its subtree, that is only in the old tree.
+ *   changed   the value of a stack that was replaced by another value.
+ *
+ * and written with {@link #write(Appendable)} as a compact JSON patch:
+ *
+ * <pre>
+ * [{"op":"~","stack":".a.b","from":"10","to":"20"},
+ *  {"op":"+","stack":".a.c","value":"5","nodes":1}]
+ * </pre>
+ *
+ * The trees must not change while they are compared.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+public final class TraceDiff {
+
+  /** The changes, from the top of the trees down, it's never null.*/
+  private final List<Change> changes;
+
+  /** Creates a new instance.
+   * @param theChanges the changes, cannot be null.
+   */
+  private TraceDiff(final List<Change> theChanges) {
+    changes = Collections.unmodifiableList(theChanges);
+  }
+
+  /** Compares two trees.
+   * @param before the old tree, cannot be null.
+   * @param after the new tree, cannot be null.
+   * @return the differences, never null.
+   */
+  public static TraceDiff compare(final DomainLog before,
+      final DomainLog after) {
+    Validate.notNull(before, "The old tree cannot be null");
+    Validate.notNull(after, "The new tree cannot be null");
+    Map<DomainLog, Fingerprint> fingerprints = new IdentityHashMap<>();
+    fingerprint(before, fingerprints);
+    fingerprint(after, fingerprints);
+    List<Change> changes = new ArrayList<>();
+    if (before.equals(after)) {
+      compare(before, after, fingerprints, changes);
+    } else {
+      changes.add(new Change(Change.Type.REMOVED, before,
+          fingerprints.get(before).size));
+      changes.add(new Change(Change.Type.ADDED, after,
+          fingerprints.get(after).size));
+    }
+    return new TraceDiff(changes);
+  }
+
+  /** Computes the fingerprint of a tree.
+   *
+   * Two trees with the same entries under the same parents have the same
+   * fingerprint, no matter the order of the children.
+   *
+   * @param log the tree, cannot be null.
+   * @return the fingerprint.
+   */
+  public static long fingerprint(final DomainLog log) {
+    Validate.notNull(log, "The log cannot be null");
+    return fingerprint(log, null).hash;
+  }
+
+  /** Computes the fingerprint of the subtree of a node of a persisted
+   * trace, the same as the fingerprint of its materialized tree.
+   * @param trace the trace, cannot be null.
+   * @param node the node.
+   * @return the fingerprint.
+   */
+  public static long fingerprint(final DomainLogTrace trace,
+      final int node) {
+    Validate.notNull(trace, "The trace cannot be null");
+    long children = 0;
+    for (int child = trace.firstChild(node); child != DomainLogTrace.NONE;
+        child = trace.nextSibling(child)) {
+      children += mix(fingerprint(trace, child));
+    }
+    String value = trace.value(node);
+    long hash = hash(trace.stack(node));
+    hash = mix(hash * 31 + (value == null ? 0 : hash(value) + 1));
+    return mix(hash ^ children);
+  }
+
+  /** Computes the fingerprint of a subtree.
+   * @param log the subtree.
+   * @param fingerprints where to keep the fingerprint of each node, null
+   *  to not keep them.
+   * @return the fingerprint of the subtree, never null.
+   */
+  private static Fingerprint fingerprint(final DomainLog log,
+      final Map<DomainLog, Fingerprint> fingerprints) {
+    long children = 0;
+    int size = 1;
+    for (DomainLog node : log.getNodes()) {
+      Fingerprint child = fingerprint(node, fingerprints);
+      // A sum of the mixed children does not depend on their order.
+      children += mix(child.hash);
+      size += child.size;
+    }
+    long hash = hash(log.getStack());
+    hash = mix(hash * 31 + (log.getValue() == null ? 0
+        : hash(log.getValue()) + 1));
+    Fingerprint fingerprint = new Fingerprint(mix(hash ^ children), size);
+    if (fingerprints != null) {
+      fingerprints.put(log, fingerprint);
+    }
+    return fingerprint;
+  }
+
+  /** Compares the children of two entries that are equal.
+   * @param before the old entry.
+   * @param after the new entry.
+   * @param fingerprints the fingerprint of each node.
+   * @param changes where to add the changes.
+   */
+  private static void compare(final DomainLog before, final DomainLog after,
+      final Map<DomainLog, Fingerprint> fingerprints,
+      final List<Change> changes) {
+    if (fingerprints.get(before).hash != fingerprints.get(after).hash) {
+      compare(before.getNodes(), after.getNodes(), fingerprints, changes);
+    }
+  }
+
+  /** Compares the children of two entries.
+   * @param before the old children.
+   * @param after the new children.
+   * @param fingerprints the fingerprint of each node.
+   * @param changes where to add the changes.
+   */
+  private static void compare(final List<DomainLog> before,
+      final List<DomainLog> after,
+      final Map<DomainLog, Fingerprint> fingerprints,
+      final List<Change> changes) {
+    Map<DomainLog, DomainLog> removed = new LinkedHashMap<>();
+    for (DomainLog node : before) {
+      removed.put(node, node);
+    }
+    List<DomainLog> added = new ArrayList<>();
+    List<DomainLog> matched = new ArrayList<>();
+    for (DomainLog node : after) {
+      DomainLog previous = removed.remove(node);
+      if (previous == null) {
+        added.add(node);
+      } else {
+        matched.add(previous);
+        matched.add(node);
+      }
+    }
+    // The values of the same stack replaced by another one are changes.
+    Map<String, Deque<DomainLog>> replaced = new HashMap<>();
+    for (DomainLog node : removed.values()) {
+      if (node.getValue() != null) {
+        Deque<DomainLog> values = replaced.get(node.getStack());
+        if (values == null) {
+          values = new ArrayDeque<>();
+          replaced.put(node.getStack(), values);
+        }
+        values.add(node);
+      }
+    }
+    Set<DomainLog> changedValues = Collections.newSetFromMap(
+        new IdentityHashMap<DomainLog, Boolean>());
+    for (DomainLog node : added) {
+      Deque<DomainLog> values = null;
+      if (node.getValue() != null) {
+        values = replaced.get(node.getStack());
+      }
+      if (values != null && !values.isEmpty()) {
+        DomainLog previous = values.poll();
+        changedValues.add(previous);
+        changes.add(new Change(previous, node));
+        compare(previous.getNodes(), node.getNodes(), fingerprints,
+            changes);
+      } else {
+        changes.add(new Change(Change.Type.ADDED, node,
+            fingerprints.get(node).size));
+      }
+    }
+    for (DomainLog node : removed.values()) {
+      if (!changedValues.contains(node)) {
+        changes.add(new Change(Change.Type.REMOVED, node,
+            fingerprints.get(node).size));
+      }
+    }
+    for (int i = 0; i < matched.size(); i += 2) {
+      compare(matched.get(i), matched.get(i + 1), fingerprints, changes);
+    }
+  }
+
+  /** Hashes a string into 64 bits, FNV-1a over its characters.
+   * @param value the string.
+   * @return the hash.
+   */
+  private static long hash(final String value) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < value.length(); i++) {
+      hash ^= value.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  /** Mixes the bits of a hash, the splitmix64 finalizer.
+   * @param value the hash.
+   * @return the mixed hash.
+   */
+  private static long mix(final long value) {
+    long z = value;
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  /** Checks if the trees are equal.
+   * @return true if there are no changes.
+   */
+  public boolean isEmpty() {
+    return changes.isEmpty();
+  }
+
+  /** Retrieves the changes.
+   * @return the changes, from the top of the trees down, never null.
+   */
+  public List<Change> getChanges() {
+    return changes;
+  }
+
+  /** Writes the changes as a JSON patch.
+   * @param out the destination, cannot be null.
+   * @throws IOException if the destination fails.
+   */
+  public void write(final Appendable out) throws IOException {
+    Validate.notNull(out, "The destination cannot be null");
+    DomainLogJsonWriter json = new DomainLogJsonWriter();
+    out.append('[');
+    boolean first = true;
+    for (Change change : changes) {
+      if (!first) {
+        out.append(',');
+      }
+      first = false;
+      out.append("{\"op\":\"").append(change.type.op).append("\",\"stack\":");
+      json.string(change.stack, out);
+      if (change.type == Change.Type.CHANGED) {
+        out.append(",\"from\":");
+        json.string(change.previous, out);
+        out.append(",\"to\":");
+        json.string(change.value, out);
+      } else {
+        if (change.value != null) {
+          out.append(",\"value\":");
+          json.string(change.value, out);
+        }
+        out.append(",\"nodes\":").append(String.valueOf(change.nodes));
+      }
+      out.append('}');
+    }
+    out.append(']');
+  }
+
+  /** {@inheritDoc}. */
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    try {
+      write(sb);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return sb.toString();
+  }
+
+  /** The fingerprint of a subtree.*/
+  private static final class Fingerprint {
+
+    /** The hash of the subtree.*/
+    private final long hash;
+
+    /** The number of nodes of the subtree.*/
+    private final int size;
+
+    /** Creates a new fingerprint.
+     * @param theHash the hash of the subtree.
+     * @param theSize the number of nodes of the subtree.
+     */
+    Fingerprint(final long theHash, final int theSize) {
+      hash = theHash;
+      size = theSize;
+    }
+  }
+
+  /** A difference between the trees.
+   * @author waabox (me[at]waabox[dot]org)
+   */
+  public static final class Change {
+
+    /** The kind of change.*/
+    public enum Type {
+
+      /** An entry only in the new tree.*/
+      ADDED("+"),
+
+      /** An entry only in the old tree.*/
+      REMOVED("-"),
+
+      /** A value replaced by another one in the same stack.*/
+      CHANGED("~");
+
+      /** The operation in the patch, it's never null.*/
+      private final String op;
+
+      /** Creates a new type.
+       * @param theOp the operation in the patch.
+       */
+      Type(final String theOp) {
+        op = theOp;
+      }
+    }
+
+    /** The type of change, it's never null.*/
+    private final Type type;
+
+    /** The stack of the entry, it's never null.*/
+    private final String stack;
+
+    /** The value of the entry, the new one if it changed, null for
+     * stacks.*/
+    private final String value;
+
+    /** The old value, only for changed values.*/
+    private final String previous;
+
+    /** The number of nodes added or removed, the entry included.*/
+    private final int nodes;
+
+    /** Creates an added or removed change.
+     * @param theType the type.
+     * @param entry the entry added or removed.
+     * @param theNodes the size of its subtree.
+     */
+    private Change(final Type theType, final DomainLog entry,
+        final int theNodes) {
+      type = theType;
+      stack = entry.getStack();
+      value = entry.getValue();
+      previous = null;
+      nodes = theNodes;
+    }
+
+    /** Creates a changed value.
+     * @param before the old entry.
+     * @param after the new entry.
+     */
+    private Change(final DomainLog before, final DomainLog after) {
+      type = Type.CHANGED;
+      stack = after.getStack();
+      value = after.getValue();
+      previous = before.getValue();
+      nodes = 1;
+    }
+
+    /** Retrieves the type of change.
+     * @return the type, never null.
+     */
+    public Type getType() {
+      return type;
+    }
+
+    /** Retrieves the stack of the entry.
+     * @return the stack, never null.
+     */
+    public String getStack() {
+      return stack;
+    }
+
+    /** Retrieves the value of the entry, the new one if it changed.
+     * @return the value, null for stacks.
+     */
+    public String getValue() {
+      return value;
+    }
+
+    /** Retrieves the old value of a changed entry.
+     * @return the old value, null if it's not a changed value.
+     */
+    public String getPrevious() {
+      return previous;
+    }
+
+    /** Retrieves the number of nodes added or removed.
+     * @return the size of the subtree of the entry.
+     */
+    public int getNodes() {
+      return nodes;
+    }
+
+    /** {@inheritDoc}. */
+    @Override
+    public String toString() {
+      if (type == Type.CHANGED) {
+        return type.op + " " + stack + " " + previous + " -> " + value;
+      }
+      return type.op + " " + stack + (value == null ? "" : " " + value);
+    }
+  }
+
+}
@@ -0,0 +1,455 @@
+package org.waabox.log;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import org.apache.commons.lang3.Validate;
+
+/** An append only journal of traces, kept in memory mapped segment files.
+ *
+ * Each trace is appended to the current segment, encoded by
+ * {@link DomainLogBinaryWriter}, and its location is appended to the
+ * index file of the segment. When a trace does not fit in the current
+ * segment a new one is started. The segments of a directory are named
+ * journal-N.dlj, with their index in journal-N.idx:
+ *
+ * <pre>
+ * segment record: int length of the rest of the record
+ *                 int length + UTF-8 bytes of the id
+ *                 int length + UTF-8 bytes of the appender
+ *                 long timestamp
+ *                 the encoded trace
+ * index record:   int length + UTF-8 bytes of the id
+ *                 int length + UTF-8 bytes of the appender
+ *                 int position of the record in the segment
+ * </pre>
+ *
+ * Opening a journal only reads the index files, so a trace is looked up
+ * by its request id and appender with a hash lookup and read in place
+ * from its segment, without scanning the traces.
+ *
+ * It's a {@link TraceSink}, so it can be fed by a {@link TracePipeline}.
+ * All the methods are thread safe.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+public class TraceJournal implements TraceSink, Closeable {
+
+  /** The default size of the segments, 64MB.*/
+  public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+  /** The prefix of the journal files.*/
+  private static final String PREFIX = "journal-";
+
+  /** The extension of the segment files.*/
+  private static final String SEGMENT = ".dlj";
+
+  /** The extension of the index files.*/
+  private static final String INDEX = ".idx";
+
+  /** The directory of the journal, it's never null.*/
+  private final File directory;
+
+  /** The size of new segments.*/
+  private final int segmentSize;
+
+  /** The location of each trace, keyed by id and appender, it's never
+   * null.*/
+  private final Map<Key, Location> locations = new HashMap<>();
+
+  /** The mapped segments by number, it's never null.*/
+  private final Map<Integer, MappedByteBuffer> segments = new HashMap<>();
+
+  /** The number of the segment traces are appended to, -1 if there is no
+   * segment yet.*/
+  private int current = -1;
+
+  /** The position after the last record of the current segment, -1 if
+   * it was not found yet.*/
+  private int tail = -1;
+
+  /** The index of the current segment, null if there is no segment.*/
+  private DataOutputStream index;
+
+  /** Whether the journal is closed.*/
+  private boolean closed = false;
+
+  /** Opens the journal of the given directory, creating it if needed.
+   * @param theDirectory the directory, cannot be null.
+   * @throws IOException if the journal cannot be read.
+   */
+  public TraceJournal(final File theDirectory) throws IOException {
+    this(theDirectory, DEFAULT_SEGMENT_SIZE);
+  }
+
+  /** Opens the journal of the given directory, creating it if needed.
+   * @param theDirectory the directory, cannot be null.
+   * @param theSegmentSize the size of new segments, in bytes, a trace
+   *  bigger than that gets a segment of its own size.
+   * @throws IOException if the journal cannot be read.
+   */
+  public TraceJournal(final File theDirectory, final int theSegmentSize)
+      throws IOException {
+    Validate.notNull(theDirectory, "The directory cannot be null");
+    Validate.isTrue(theSegmentSize > 0, "The segment size must be positive");
+    directory = theDirectory;
+    segmentSize = theSegmentSize;
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Cannot create the journal directory: "
+          + directory);
+    }
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        String name = file.getName();
+        if (name.startsWith(PREFIX) && name.endsWith(INDEX)) {
+          int number = Integer.parseInt(name.substring(PREFIX.length(),
+              name.length() - INDEX.length()));
+          load(number);
+          current = Math.max(current, number);
+        }
+      }
+    }
+    if (current != -1) {
+      index = openIndex(current);
+    }
+  }
+
+  /** Loads the index of a segment.
+   * @param number the segment number.
+   * @throws IOException if the index cannot be read.
+   */
+  private void load(final int number) throws IOException {
+    File file = file(number, INDEX);
+    long valid = 0;
+    DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(file)));
+    try {
+      while (valid < file.length()) {
+        byte[] id = readBytes(in);
+        byte[] appender = readBytes(in);
+        int position = in.readInt();
+        locations.put(new Key(new String(id, StandardCharsets.UTF_8),
+            new String(appender, StandardCharsets.UTF_8)),
+            new Location(number, position));
+        valid += 4 + id.length + 4 + appender.length + 4;
+      }
+    } catch (EOFException e) {
+      // The last record was half written, it's dropped below.
+    } finally {
+      in.close();
+    }
+    if (valid < file.length()) {
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      try {
+        raf.setLength(valid);
+      } finally {
+        raf.close();
+      }
+    }
+  }
+
+  /** {@inheritDoc}. */
+  @Override
+  public synchronized void write(final List<Trace> traces)
+      throws IOException {
+    for (Trace trace : traces) {
+      record(trace);
+    }
+    index.flush();
+  }
+
+  /** Appends a trace to the journal.
+   * @param trace the trace, cannot be null.
+   * @throws IOException if the trace cannot be written.
+   */
+  public synchronized void append(final Trace trace) throws IOException {
+    record(trace);
+    index.flush();
+  }
+
+  /** Appends a trace to the current segment and its location to the
+   * index, without flushing the index.
+   * @param trace the trace, cannot be null.
+   * @throws IOException if the trace cannot be written.
+   */
+  private void record(final Trace trace) throws IOException {
+    Validate.notNull(trace, "The trace cannot be null");
+    Validate.validState(!closed, "The journal is closed");
+    byte[] id = trace.getId().getBytes(StandardCharsets.UTF_8);
+    byte[] appender = trace.getAppender().getBytes(StandardCharsets.UTF_8);
+    byte[] log = DomainLogBinaryWriter.encode(trace.getLog());
+    int length = 4 + id.length + 4 + appender.length + 8 + log.length;
+
+    MappedByteBuffer segment = null;
+    if (current != -1) {
+      segment = segment(current);
+      if (tail == -1) {
+        tail = end(segment);
+      }
+    }
+    if (segment == null || segment.capacity() - tail < 4 + length) {
+      if (index != null) {
+        index.close();
+      }
+      current++;
+      segment = map(current, Math.max(segmentSize, 4 + length));
+      index = openIndex(current);
+      tail = 0;
+    }
+    int position = tail;
+    segment.position(position);
+    segment.putInt(length);
+    segment.putInt(id.length).put(id);
+    segment.putInt(appender.length).put(appender);
+    segment.putLong(trace.getTimestamp());
+    segment.put(log);
+    tail = segment.position();
+
+    writeString(index, id);
+    writeString(index, appender);
+    index.writeInt(position);
+    locations.put(new Key(trace.getId(), trace.getAppender()),
+        new Location(current, position));
+  }
+
+  /** Finds the trace of the given request and appender, read in place
+   * from its segment.
+   * @param id the request id, cannot be null.
+   * @param appender the appender, cannot be null.
+   * @return the trace, null if it's not in the journal.
+   * @throws IOException if the segment cannot be read.
+   */
+  public synchronized DomainLogTrace find(final String id,
+      final String appender) throws IOException {
+    ByteBuffer record = record(id, appender);
+    if (record == null) {
+      return null;
+    }
+    return DomainLogTrace.wrap(record);
+  }
+
+  /** Reads the trace of the given request and appender.
+   * @param id the request id, cannot be null.
+   * @param appender the appender, cannot be null.
+   * @return the trace with its tree materialized, null if it's not in the
+   *  journal.
+   * @throws IOException if the segment cannot be read.
+   */
+  public synchronized Trace read(final String id, final String appender)
+      throws IOException {
+    ByteBuffer record = record(id, appender);
+    if (record == null) {
+      return null;
+    }
+    long timestamp = record.getLong(record.position() - 8);
+    return new Trace(id, appender, timestamp,
+        DomainLogTrace.wrap(record).toDomainLog());
+  }
+
+  /** Retrieves the number of traces in the journal.
+   * @return the number of traces.
+   */
+  public synchronized int size() {
+    return locations.size();
+  }
+
+  /** Locates the encoded tree of a trace.
+   * @param id the request id, cannot be null.
+   * @param appender the appender, cannot be null.
+   * @return a buffer positioned at the encoded tree and limited to its
+   *  end, with the timestamp right before the position, or null if the
+   *  trace is not in the journal.
+   * @throws IOException if the segment cannot be read.
+   */
+  private ByteBuffer record(final String id, final String appender)
+      throws IOException {
+    Validate.notNull(id, "The id cannot be null");
+    Validate.notNull(appender, "The appender cannot be null");
+    Validate.validState(!closed, "The journal is closed");
+    Location location = locations.get(new Key(id, appender));
+    if (location == null) {
+      return null;
+    }
+    ByteBuffer record = segment(location.segment).duplicate();
+    int position = location.position;
+    int end = position + 4 + record.getInt(position);
+    position += 4;
+    position += 4 + record.getInt(position);
+    position += 4 + record.getInt(position);
+    position += 8;
+    record.limit(end);
+    record.position(position);
+    return record;
+  }
+
+  /** Retrieves a mapped segment.
+   * @param number the segment number.
+   * @return the segment, never null.
+   * @throws IOException if the segment cannot be mapped.
+   */
+  private MappedByteBuffer segment(final int number) throws IOException {
+    MappedByteBuffer segment = segments.get(number);
+    if (segment == null) {
+      segment = map(number, 0);
+    }
+    return segment;
+  }
+
+  /** Maps a segment, creating it if it does not exist.
+   * @param number the segment number.
+   * @param size the size of the segment if it has to be created.
+   * @return the segment, never null.
+   * @throws IOException if the segment cannot be mapped.
+   */
+  private MappedByteBuffer map(final int number, final int size)
+      throws IOException {
+    RandomAccessFile file = new RandomAccessFile(file(number, SEGMENT), "rw");
+    try {
+      FileChannel channel = file.getChannel();
+      long length = Math.max(channel.size(), size);
+      MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE,
+          0, length);
+      segments.put(number, segment);
+      return segment;
+    } finally {
+      file.close();
+    }
+  }
+
+  /** Finds the end of the records of a segment, the records are walked by
+   * their length, the traces are not read.
+   * @param segment the segment.
+   * @return the position after the last record.
+   */
+  private static int end(final ByteBuffer segment) {
+    int position = 0;
+    while (position + 4 <= segment.capacity()) {
+      int length = segment.getInt(position);
+      if (length <= 0 || position + 4 + length > segment.capacity()) {
+        break;
+      }
+      position += 4 + length;
+    }
+    return position;
+  }
+
+  /** Opens the index of a segment to append to it.
+   * @param number the segment number.
+   * @return the index stream, never null.
+   * @throws IOException if the index cannot be opened.
+   */
+  private DataOutputStream openIndex(final int number) throws IOException {
+    return new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(file(number, INDEX), true)));
+  }
+
+  /** Retrieves a journal file.
+   * @param number the segment number.
+   * @param extension the file extension.
+   * @return the file, never null.
+   */
+  private File file(final int number, final String extension) {
+    return new File(directory, PREFIX + number + extension);
+  }
+
+  /** Writes a length prefixed string.
+   * @param out the stream.
+   * @param bytes the UTF-8 bytes of the string.
+   * @throws IOException if the stream fails.
+   */
+  private static void writeString(final DataOutputStream out,
+      final byte[] bytes) throws IOException {
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /** Reads a length prefixed string.
+   * @param in the stream.
+   * @return the UTF-8 bytes of the string, never null.
+   * @throws IOException if the stream fails.
+   */
+  private static byte[] readBytes(final DataInputStream in)
+      throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return bytes;
+  }
+
+  /** Flushes the segments and the index and closes the journal.
+   * @throws IOException if the index cannot be closed.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    for (MappedByteBuffer segment : segments.values()) {
+      segment.force();
+    }
+    segments.clear();
+    if (index != null) {
+      index.close();
+    }
+  }
+
+  /** The key of a trace, its request id and appender.*/
+  private static final class Key {
+
+    /** The request id, it's never null.*/
+    private final String id;
+
+    /** The appender, it's never null.*/
+    private final String appender;
+
+    /** Creates a new key.
+     * @param theId the request id.
+     * @param theAppender the appender.
+     */
+    Key(final String theId, final String theAppender) {
+      id = theId;
+      appender = theAppender;
+    }
+
+    /** {@inheritDoc}. */
+    @Override
+    public int hashCode() {
+      return 31 * id.hashCode() + appender.hashCode();
+    }
+
+    /** {@inheritDoc}. */
+    @Override
+    public boolean equals(final Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key another = (Key) obj;
+      return id.equals(another.id) && appender.equals(another.appender);
+    }
+  }
+
+  /** The location of a trace in the journal.*/
+  private static final class Location {
+
+    /** The segment number.*/
+    private final int segment;
+
+    /** The position of the record in the segment.*/
+    private final int position;
+
+    /** Creates a new location.
+     * @param theSegment the segment number.
+     * @param thePosition the position of the record.
+     */
+    Location(final int theSegment, final int thePosition) {
+      segment = theSegment;
+      position = thePosition;
+    }
+  }
+
+}
@@ -0,0 +1,223 @@
+package org.waabox.log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.lang3.Validate;
+
+/** Hands off the finished traces to the sinks, out of the request thread.
+ *
+ * {@link #offer(Trace)} puts the trace in a bounded lock free ring buffer
+ * and returns; a background thread drains the buffer in batches and writes
+ * each batch into every sink. What happens when the buffer is full is
+ * decided by the {@link Backpressure} policy, and every trace that does
+ * not make it into the buffer is counted as dropped.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+public class TracePipeline implements Closeable {
+
+  /** The time the consumer waits when the buffer is empty, in nanos.*/
+  private static final long IDLE_WAIT = TimeUnit.MILLISECONDS.toNanos(1);
+
+  /** The time a blocked producer waits before retrying, in nanos.*/
+  private static final long BLOCK_WAIT = TimeUnit.MICROSECONDS.toNanos(100);
+
+  /** The buffer of traces waiting for the sinks, it's never null.*/
+  private final RingBuffer<Trace> buffer;
+
+  /** The maximum number of traces written to the sinks at once.*/
+  private final int batchSize;
+
+  /** The policy when the buffer is full, it's never null.*/
+  private final Backpressure backpressure;
+
+  /** The sinks, it's never null.*/
+  private final List<TraceSink> sinks;
+
+  /** The background thread that writes into the sinks, it's never null.*/
+  private final Thread consumer;
+
+  /** The number of traces seen while sampling, it's never null.*/
+  private final AtomicLong sampled = new AtomicLong();
+
+  /** The number of traces accepted into the buffer, it's never null.*/
+  private final LongAdder accepted = new LongAdder();
+
+  /** The number of traces dropped, it's never null.*/
+  private final LongAdder dropped = new LongAdder();
+
+  /** The number of batches a sink failed to write, it's never null.*/
+  private final LongAdder failures = new LongAdder();
+
+  /** Whether the pipeline accepts traces or not.*/
+  private volatile boolean open = true;
+
+  /** The number of offers in progress, the consumer does not stop while
+   * there is one, so a trace that saw the pipeline open is always
+   * written, it's never null.*/
+  private final AtomicInteger offering = new AtomicInteger();
+
+  /** Creates a new pipeline, it must be started to write into the sinks.
+   * @param capacity the number of traces the buffer holds, it's rounded up
+   *  to the next power of two.
+   * @param theBatchSize the maximum number of traces written to the sinks
+   *  at once, greater than 0.
+   * @param theBackpressure the policy when the buffer is full, cannot be
+   *  null.
+   * @param theSinks the sinks, cannot be null.
+   */
+  public TracePipeline(final int capacity, final int theBatchSize,
+      final Backpressure theBackpressure, final List<TraceSink> theSinks) {
+    Validate.isTrue(theBatchSize > 0, "The batch size must be positive");
+    Validate.notNull(theBackpressure, "The backpressure cannot be null");
+    Validate.noNullElements(theSinks, "The sinks cannot be null");
+    buffer = new RingBuffer<>(capacity);
+    batchSize = theBatchSize;
+    backpressure = theBackpressure;
+    sinks = new ArrayList<>(theSinks);
+    consumer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        consume();
+      }
+    }, "domain-log-trace-pipeline");
+    consumer.setDaemon(true);
+  }
+
+  /** Starts the background thread that writes into the sinks.
+   * @return this.
+   */
+  public TracePipeline start() {
+    consumer.start();
+    return this;
+  }
+
+  /** Hands off a trace to the sinks.
+   *
+   * It never waits unless the policy is {@link Backpressure#block()} and
+   * the buffer is full.
+   *
+   * @param trace the trace, cannot be null.
+   * @return true if the trace was accepted, false if it was dropped.
+   */
+  public boolean offer(final Trace trace) {
+    Validate.notNull(trace, "The trace cannot be null");
+    offering.incrementAndGet();
+    try {
+      return enqueue(trace);
+    } finally {
+      offering.decrementAndGet();
+    }
+  }
+
+  /** Puts a trace in the buffer, applying the backpressure policy.
+   * @param trace the trace.
+   * @return true if the trace was accepted, false if it was dropped.
+   */
+  private boolean enqueue(final Trace trace) {
+    if (!open) {
+      dropped.increment();
+      return false;
+    }
+    if (backpressure.kind() == Backpressure.Kind.SAMPLE
+        && buffer.size() >= buffer.capacity() / 2
+        && sampled.getAndIncrement() % backpressure.rate() != 0) {
+      dropped.increment();
+      return false;
+    }
+    while (!buffer.offer(trace)) {
+      if (backpressure.kind() != Backpressure.Kind.BLOCK || !open) {
+        dropped.increment();
+        return false;
+      }
+      LockSupport.parkNanos(BLOCK_WAIT);
+    }
+    accepted.increment();
+    return true;
+  }
+
+  /** Drains the buffer into the sinks until the pipeline is closed, no
+   * offer is in progress and the buffer is empty.*/
+  private void consume() {
+    List<Trace> batch = new ArrayList<>(batchSize);
+    List<Trace> view = Collections.unmodifiableList(batch);
+    while (open || offering.get() > 0 || buffer.size() > 0) {
+      batch.clear();
+      if (buffer.drain(batch, batchSize) == 0) {
+        LockSupport.parkNanos(IDLE_WAIT);
+        continue;
+      }
+      for (TraceSink sink : sinks) {
+        try {
+          sink.write(view);
+        } catch (Exception e) {
+          failures.increment();
+        }
+      }
+    }
+  }
+
+  /** Retrieves the number of traces accepted into the buffer.
+   * @return the number of traces.
+   */
+  public long getAccepted() {
+    return accepted.sum();
+  }
+
+  /** Retrieves the number of traces dropped, because the buffer was full,
+   * they were sampled out or the pipeline was closed.
+   * @return the number of traces.
+   */
+  public long getDropped() {
+    return dropped.sum();
+  }
+
+  /** Retrieves the number of batches the sinks failed to write.
+   * @return the number of failures.
+   */
+  public long getFailures() {
+    return failures.sum();
+  }
+
+  /** Retrieves the number of traces waiting for the sinks.
+   * @return the number of traces.
+   */
+  public int getPending() {
+    return buffer.size();
+  }
+
+  /** Stops accepting traces, waits for the pending ones to be written and
+   * closes the sinks that are closeable.
+   * @throws IOException if a sink fails to close.
+   */
+  @Override
+  public void close() throws IOException {
+    if (!open) {
+      return;
+    }
+    open = false;
+    if (consumer.getState() == Thread.State.NEW) {
+      consume();
+    } else {
+      LockSupport.unpark(consumer);
+      try {
+        consumer.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    for (TraceSink sink : sinks) {
+      if (sink instanceof Closeable) {
+        ((Closeable) sink).close();
+      }
+    }
+  }
+
+}
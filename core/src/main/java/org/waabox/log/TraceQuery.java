@@ -0,0 +1,508 @@
+package org.waabox.log;
+
+import java.util.*;
+import java.util.function.*;
+import java.util.stream.*;
+
+import org.apache.commons.lang3.Validate;
+
+/** Finds the entries of a tree whose stack matches a glob pattern.
+ *
+ * The pattern is made of segments separated by '.', like the stacks:
+ *
+ *   .order.*.pricing     the pricing of every order.
+ *   .order.**            everything under order, at any depth.
+ *   .order.1*.price?     wildcards within a segment.
+ *
+ * A '*' segment matches exactly one segment, a '**' segment matches any
+ * number of segments, and within a segment '*' matches any characters
+ * and '?' a single one. The leading '.' is optional.
+ *
+ * The pattern is compiled into an automaton whose states are the
+ * positions of the pattern, the set of active states of each node is
+ * derived from the one of its parent by consuming only the segments it
+ * adds, so the tree is walked once, and the subtrees that cannot match
+ * are skipped. The matches are found lazily, while they are iterated.
+ *
+ * It works on generated trees, on the tree of a {@link DomainLogger}
+ * and on persisted traces read with {@link DomainLogTrace}. The trees
+ * must not change while they are iterated.
+ *
+ * Queries are immutable and thread safe.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+public final class TraceQuery {
+
+  /** The maximum number of segments of a pattern.*/
+  private static final int MAX_SEGMENTS = 63;
+
+  /** The segment that matches any number of segments.*/
+  private static final String ANY_SEGMENTS = "**";
+
+  /** The pattern, it's never null.*/
+  private final String pattern;
+
+  /** The segments of the pattern, the state i consumes segment i, it's
+   * never null.*/
+  private final String[] segments;
+
+  /** The states that are '**' segments, as a bit set.*/
+  private final long anySegments;
+
+  /** The state reached when all the pattern is consumed, as a bit set.*/
+  private final long accept;
+
+  /** The active states before consuming any segment.*/
+  private final long initial;
+
+  /** Whether only the entries with a value match or not.*/
+  private final boolean valuesOnly;
+
+  /** Creates a new query.
+   * @param thePattern the pattern, cannot be null.
+   * @param theSegments the segments of the pattern, cannot be null.
+   * @param onlyValues whether only the entries with a value match.
+   */
+  private TraceQuery(final String thePattern, final String[] theSegments,
+      final boolean onlyValues) {
+    pattern = thePattern;
+    segments = theSegments;
+    valuesOnly = onlyValues;
+    long any = 0;
+    for (int i = 0; i < theSegments.length; i++) {
+      if (theSegments[i].equals(ANY_SEGMENTS)) {
+        any |= 1L << i;
+      }
+    }
+    anySegments = any;
+    accept = 1L << theSegments.length;
+    initial = close(1L);
+  }
+
+  /** Compiles the given pattern.
+   * @param pattern the pattern, cannot be null.
+   * @return the query, never null.
+   */
+  public static TraceQuery compile(final String pattern) {
+    Validate.notNull(pattern, "The pattern cannot be null");
+    String path = pattern;
+    if (path.startsWith(".")) {
+      path = path.substring(1);
+    }
+    Validate.isTrue(!path.isEmpty(), "The pattern cannot be empty");
+    String[] theSegments = path.split("\\.", -1);
+    Validate.isTrue(theSegments.length <= MAX_SEGMENTS,
+        "The pattern has more than %s segments", MAX_SEGMENTS);
+    return new TraceQuery(pattern, theSegments, false);
+  }
+
+  /** Creates a query that only matches the entries with a value, not the
+   * stacks.
+   * @return the query, never null.
+   */
+  public TraceQuery values() {
+    return new TraceQuery(pattern, segments, true);
+  }
+
+  /** Checks if the given stack matches the pattern.
+   * @param stack the stack, cannot be null.
+   * @return true if it matches.
+   */
+  public boolean matches(final String stack) {
+    Validate.notNull(stack, "The stack cannot be null");
+    return (start(stack) & accept) != 0;
+  }
+
+  /** Finds the entries below the given one that match.
+   * @param root the entry to search, cannot be null.
+   * @return the matches, in pre-order, never null.
+   */
+  public Iterator<DomainLog> find(final DomainLog root) {
+    Validate.notNull(root, "The root cannot be null");
+    return new TreeMatches(root);
+  }
+
+  /** Finds the entries of the given logger that match.
+   * @param logger the logger, cannot be null.
+   * @return the matches, in pre-order, never null.
+   */
+  public Iterator<DomainLog> find(final DomainLogger logger) {
+    Validate.notNull(logger, "The logger cannot be null");
+    return find(logger.generate());
+  }
+
+  /** Finds the nodes of the given trace that match.
+   * @param trace the trace, cannot be null.
+   * @return the node indexes, in pre-order, never null.
+   */
+  public PrimitiveIterator.OfInt find(final DomainLogTrace trace) {
+    Validate.notNull(trace, "The trace cannot be null");
+    return new TraceMatches(trace);
+  }
+
+  /** Streams the entries below the given one that match.
+   * @param root the entry to search, cannot be null.
+   * @return the matches, in pre-order, never null.
+   */
+  public Stream<DomainLog> stream(final DomainLog root) {
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+        find(root), Spliterator.ORDERED | Spliterator.NONNULL), false);
+  }
+
+  /** Streams the nodes of the given trace that match.
+   * @param trace the trace, cannot be null.
+   * @return the node indexes, in pre-order, never null.
+   */
+  public IntStream stream(final DomainLogTrace trace) {
+    return StreamSupport.intStream(Spliterators.spliteratorUnknownSize(
+        find(trace), Spliterator.ORDERED | Spliterator.DISTINCT), false);
+  }
+
+  /** Computes the states of the given stack from the initial ones.
+   * @param stack the stack.
+   * @return the active states.
+   */
+  private long start(final String stack) {
+    if (stack.equals(DomainLogTree.ROOT) || stack.isEmpty()) {
+      return initial;
+    }
+    int from = stack.charAt(0) == '.' ? 1 : 0;
+    return consume(initial, stack, from);
+  }
+
+  /** Computes the states of a stack from the ones of its parent stack.
+   * @param states the states of the parent.
+   * @param parent the parent stack.
+   * @param stack the stack.
+   * @return the active states.
+   */
+  private long advance(final long states, final String parent,
+      final String stack) {
+    if (stack.equals(parent)) {
+      return states;
+    }
+    if (parent.equals(DomainLogTree.ROOT) || parent.isEmpty()) {
+      return start(stack);
+    }
+    int length = parent.length();
+    if (stack.length() > length && stack.charAt(length) == '.'
+        && stack.startsWith(parent)) {
+      return consume(states, stack, length + 1);
+    }
+    return start(stack);
+  }
+
+  /** Consumes the segments of the given stack.
+   * @param states the active states.
+   * @param stack the stack.
+   * @param from the start of the first segment to consume.
+   * @return the active states after the segments, 0 if none.
+   */
+  private long consume(final long states, final String stack,
+      final int from) {
+    long current = states;
+    int start = from;
+    while (current != 0) {
+      int end = stack.indexOf('.', start);
+      if (end == -1) {
+        end = stack.length();
+      }
+      current = step(current, stack, start, end);
+      if (end == stack.length()) {
+        break;
+      }
+      start = end + 1;
+    }
+    return current;
+  }
+
+  /** Consumes one segment.
+   * @param states the active states.
+   * @param stack the stack that holds the segment.
+   * @param from the start of the segment.
+   * @param to the end of the segment.
+   * @return the active states after the segment.
+   */
+  private long step(final long states, final String stack, final int from,
+      final int to) {
+    long result = 0;
+    long remaining = states & ~accept;
+    while (remaining != 0) {
+      int state = Long.numberOfTrailingZeros(remaining);
+      remaining &= remaining - 1;
+      long bit = 1L << state;
+      if ((anySegments & bit) != 0) {
+        result |= bit;
+      } else if (glob(segments[state], 0, stack, from, to)) {
+        result |= bit << 1;
+      }
+    }
+    return close(result);
+  }
+
+  /** Adds the states reached skipping the '**' segments.
+   * @param states the states.
+   * @return the states with their closure.
+   */
+  private long close(final long states) {
+    long result = states;
+    long any = result & anySegments;
+    while (any != 0) {
+      long bit = Long.lowestOneBit(any);
+      any &= any - 1;
+      long next = bit << 1;
+      if ((result & next) == 0) {
+        result |= next;
+        any |= next & anySegments;
+      }
+    }
+    return result;
+  }
+
+  /** Matches a segment of a stack against a segment of the pattern.
+   * @param glob the pattern segment.
+   * @param globFrom the position in the pattern segment.
+   * @param stack the stack.
+   * @param from the position in the stack.
+   * @param to the end of the segment in the stack.
+   * @return true if the rest of the segment matches.
+   */
+  private static boolean glob(final String glob, final int globFrom,
+      final String stack, final int from, final int to) {
+    int g = globFrom;
+    int s = from;
+    int star = -1;
+    int starMatch = from;
+    while (s < to) {
+      if (g < glob.length() && (glob.charAt(g) == '?'
+          || glob.charAt(g) == stack.charAt(s))) {
+        g++;
+        s++;
+      } else if (g < glob.length() && glob.charAt(g) == '*') {
+        star = g++;
+        starMatch = s;
+      } else if (star != -1) {
+        g = star + 1;
+        s = ++starMatch;
+      } else {
+        return false;
+      }
+    }
+    while (g < glob.length() && glob.charAt(g) == '*') {
+      g++;
+    }
+    return g == glob.length();
+  }
+
+  /** Checks if an entry is a match.
+   * @param states the states of the entry.
+   * @param value the value of the entry.
+   * @return true if it matches.
+   */
+  private boolean match(final long states, final String value) {
+    return (states & accept) != 0 && (!valuesOnly || value != null);
+  }
+
+  /** {@inheritDoc}. */
+  @Override
+  public String toString() {
+    return pattern;
+  }
+
+  /** The matches within a DomainLog tree, walked depth first.*/
+  private final class TreeMatches implements Iterator<DomainLog> {
+
+    /** The children still to walk of each level, it's never null.*/
+    private final Deque<Iterator<DomainLog>> children = new ArrayDeque<>();
+
+    /** The entry of each level, it's never null.*/
+    private final Deque<DomainLog> parents = new ArrayDeque<>();
+
+    /** The states of each level, it's never null.*/
+    private long[] states = new long[16];
+
+    /** The next match, null if it was not found yet.*/
+    private DomainLog next;
+
+    /** Creates the matches.
+     * @param root the root of the tree.
+     */
+    TreeMatches(final DomainLog root) {
+      states[0] = start(root.getStack());
+      if (states[0] != 0) {
+        parents.push(root);
+        children.push(root.getNodes().iterator());
+      }
+    }
+
+    /** {@inheritDoc}. */
+    @Override
+    public boolean hasNext() {
+      while (next == null && !children.isEmpty()) {
+        Iterator<DomainLog> level = children.peek();
+        if (!level.hasNext()) {
+          children.pop();
+          parents.pop();
+          continue;
+        }
+        int depth = parents.size();
+        DomainLog entry = level.next();
+        long entryStates = advance(states[depth - 1],
+            parents.peek().getStack(), entry.getStack());
+        if (entryStates == 0) {
+          continue;
+        }
+        if (match(entryStates, entry.getValue())) {
+          next = entry;
+        }
+        if (!entry.getNodes().isEmpty()) {
+          if (depth == states.length) {
+            states = Arrays.copyOf(states, depth * 2);
+          }
+          states[depth] = entryStates;
+          parents.push(entry);
+          children.push(entry.getNodes().iterator());
+        }
+      }
+      return next != null;
+    }
+
+    /** {@inheritDoc}. */
+    @Override
+    public DomainLog next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      DomainLog result = next;
+      next = null;
+      return result;
+    }
+
+    /** {@inheritDoc}. */
+    @Override
+    public void forEachRemaining(final Consumer<? super DomainLog> action) {
+      while (hasNext()) {
+        action.accept(next());
+      }
+    }
+
+    /** {@inheritDoc}. */
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /** The matches within a persisted trace, walked in pre-order.*/
+  private final class TraceMatches implements PrimitiveIterator.OfInt {
+
+    /** The trace, it's never null.*/
+    private final DomainLogTrace trace;
+
+    /** The end of the subtree of each level, it's never null.*/
+    private int[] ends = new int[16];
+
+    /** The states of each level, it's never null.*/
+    private long[] states = new long[16];
+
+    /** The stack of each level, it's never null.*/
+    private String[] stacks = new String[16];
+
+    /** The number of levels.*/
+    private int depth;
+
+    /** The node to visit.*/
+    private int node;
+
+    /** The next match, -1 if it was not found yet.*/
+    private int next = -1;
+
+    /** Creates the matches.
+     * @param theTrace the trace.
+     */
+    TraceMatches(final DomainLogTrace theTrace) {
+      trace = theTrace;
+      ends[0] = trace.size();
+      stacks[0] = trace.stack(0);
+      states[0] = start(stacks[0]);
+      depth = states[0] == 0 ? 0 : 1;
+      node = 1;
+    }
+
+    /** {@inheritDoc}. */
+    @Override
+    public boolean hasNext() {
+      while (next == -1 && depth > 0) {
+        if (node >= ends[depth - 1]) {
+          depth--;
+          continue;
+        }
+        String stack = trace.stack(node);
+        long nodeStates = advance(states[depth - 1], stacks[depth - 1],
+            stack);
+        int end = node + trace.subtreeSize(node);
+        if (nodeStates == 0) {
+          node = end;
+          continue;
+        }
+        if (match(nodeStates, trace.value(node))) {
+          next = node;
+        }
+        if (end > node + 1) {
+          if (depth == ends.length) {
+            ends = Arrays.copyOf(ends, depth * 2);
+            states = Arrays.copyOf(states, depth * 2);
+            stacks = Arrays.copyOf(stacks, depth * 2);
+          }
+          ends[depth] = end;
+          states[depth] = nodeStates;
+          stacks[depth] = stack;
+          depth++;
+        }
+        node++;
+      }
+      return next != -1;
+    }
+
+    /** {@inheritDoc}. */
+    @Override
+    public int nextInt() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      int result = next;
+      next = -1;
+      return result;
+    }
+
+    /** {@inheritDoc}. */
+    @Override
+    public Integer next() {
+      return nextInt();
+    }
+
+    /** {@inheritDoc}. */
+    @Override
+    public void forEachRemaining(final IntConsumer action) {
+      while (hasNext()) {
+        action.accept(nextInt());
+      }
+    }
+
+    /** {@inheritDoc}. */
+    @Override
+    public void forEachRemaining(final Consumer<? super Integer> action) {
+      while (hasNext()) {
+        action.accept(nextInt());
+      }
+    }
+
+    /** {@inheritDoc}. */
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+}
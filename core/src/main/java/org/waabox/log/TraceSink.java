@@ -0,0 +1,24 @@
+package org.waabox.log;
+
+import java.io.IOException;
+import java.util.List;
+
+/** Receives the finished traces from a {@link TracePipeline}.
+ *
+ * Sinks are called from the pipeline background thread only, one batch
+ * at a time. If the sink is also {@link java.io.Closeable} it's closed
+ * when the pipeline is closed.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+public interface TraceSink {
+
+  /** Writes a batch of traces.
+   * @param traces the traces in the order they were handed off, never
+   *  null nor empty, it's only valid during this call.
+   * @throws IOException if the traces cannot be written, the batch is
+   *  then lost for this sink.
+   */
+  void write(List<Trace> traces) throws IOException;
+
+}
@@ -0,0 +1,94 @@
+package org.waabox.log;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.apache.commons.lang3.Validate;
+
+/** Writes the traces as JSON lines into a Writer, a file or the standard
+ * output.
+ *
+ * Each trace is written in a line:
+ *
+ * <pre>
+ * {"id":"...","appender":"...","timestamp":0,"log":{"stack":".",...}}
+ * </pre>
+ *
+ * where log is the tree as written by {@link DomainLogJsonWriter}. The
+ * writer is flushed after each batch.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+public class WriterTraceSink implements TraceSink, Closeable {
+
+  /** The destination, it's never null.*/
+  private final Writer writer;
+
+  /** Whether the destination is closed with this sink or not.*/
+  private final boolean closeWriter;
+
+  /** The tree writer, it's never null.*/
+  private final DomainLogJsonWriter json = new DomainLogJsonWriter();
+
+  /** Creates a new sink.
+   * @param theWriter the destination, cannot be null.
+   * @param close true to close the destination when the sink is closed.
+   */
+  public WriterTraceSink(final Writer theWriter, final boolean close) {
+    Validate.notNull(theWriter, "The writer cannot be null");
+    writer = theWriter;
+    closeWriter = close;
+  }
+
+  /** Creates a sink that writes into the standard output.
+   * @return the sink, never null.
+   */
+  public static WriterTraceSink stdout() {
+    return new WriterTraceSink(new BufferedWriter(
+        new OutputStreamWriter(System.out, StandardCharsets.UTF_8)), false);
+  }
+
+  /** Creates a sink that appends the traces to the given file, encoded as
+   * UTF-8.
+   * @param file the file, cannot be null.
+   * @return the sink, never null.
+   * @throws IOException if the file cannot be opened.
+   */
+  public static WriterTraceSink file(final File file) throws IOException {
+    Validate.notNull(file, "The file cannot be null");
+    return new WriterTraceSink(new BufferedWriter(new OutputStreamWriter(
+        new FileOutputStream(file, true), StandardCharsets.UTF_8)), true);
+  }
+
+  /** {@inheritDoc}. */
+  @Override
+  public void write(final List<Trace> traces) throws IOException {
+    for (Trace trace : traces) {
+      writer.write("{\"id\":");
+      json.string(trace.getId(), writer);
+      writer.write(",\"appender\":");
+      json.string(trace.getAppender(), writer);
+      writer.write(",\"timestamp\":");
+      writer.write(Long.toString(trace.getTimestamp()));
+      writer.write(",\"log\":");
+      json.write(trace.getLog(), writer);
+      writer.write("}\n");
+      if (trace.getLog().appender == null) {
+        DomainLogMetrics.rendered(trace.getAppender(), json.getWritten());
+      }
+    }
+    writer.flush();
+  }
+
+  /** {@inheritDoc}. */
+  @Override
+  public void close() throws IOException {
+    if (closeWriter) {
+      writer.close();
+    } else {
+      writer.flush();
+    }
+  }
+
+}
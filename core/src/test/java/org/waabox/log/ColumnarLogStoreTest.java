@@ -0,0 +1,120 @@
+package org.waabox.log;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.List;
+
+import org.junit.*;
+
+public class ColumnarLogStoreTest {
+
+  @Before public void setUp() {
+    DomainLogger.cleanup();
+  }
+
+  @After public void after() {
+    DomainLogger.cleanup();
+  }
+
+  private void log(final DomainLogger log) {
+    log.log("waabox.formulas.sum", "10");
+    log.log("waabox.formulas.pow", "20");
+    log.log("waabox.formulas.sum", "10");
+    log.log("waabox.formulas", "\u00e1\u00e9 \ud83d\ude00");
+    log.log("waabox_2.formulas.sum", "20");
+    log.log("waabox.formulas.sum", "30");
+  }
+
+  @Test public void sameAsLinked() {
+    DomainLogger linked = DomainLogger.get("linked");
+    DomainLogger columnar = DomainLogger.get("columnar").columnar();
+    log(linked);
+    log(columnar);
+    assertThat(columnar.generate().toString(),
+        is(linked.generate().toString()));
+    assertThat(TraceDiff.compare(linked.generate(), columnar.generate())
+        .isEmpty(), is(true));
+  }
+
+  @Test public void immutableViews() {
+    DomainLogger log = DomainLogger.get("columnar").columnar();
+    log.log("orders.order", "1");
+    DomainLog view = log.generate();
+    String before = view.toString();
+    for (int i = 2; i < 5000; i++) {
+      log.log("orders.order", String.valueOf(i));
+    }
+    assertThat(view.toString(), is(before));
+    List<DomainLog> orders = log.view().getNodes().get(0).getNodes().get(0)
+        .getNodes();
+    assertThat(orders.size(), is(4999));
+    assertThat(orders.get(4998).getValue(), is("4999"));
+
+    DomainLogger.cleanup();
+    assertThat(view.toString(), is(before));
+  }
+
+  @Test public void limits() {
+    DomainLogger log = DomainLogger.get("columnar").columnar()
+        .limits(LogLimits.keepFirst(2));
+    for (int i = 0; i < 10; i++) {
+      log.log("orders.order", String.valueOf(i));
+    }
+    DomainLog root = log.generate();
+    assertThat(root.getNodes().get(0).getNodes().get(0).getNodes().size(),
+        is(2));
+    assertThat(root.getNodes().get(1).getStack(), is(LogLimits.TRUNCATED));
+    assertThat(root.getNodes().get(1).getValue(), is("8"));
+  }
+
+  @Test public void limitsCountStacks() {
+    DomainLogger log = DomainLogger.get("columnar").columnar()
+        .limits(LogLimits.dropNewest().entries(3));
+    log.log("a.b.c", "1");
+    log.log("a", "1");
+    DomainLog root = log.generate();
+    assertThat(root.getNodes().size(), is(2));
+    assertThat(root.getNodes().get(0).getNodes().get(0).getValue(), is("1"));
+    assertThat(root.getNodes().get(1).getValue(), is("1"));
+
+    DomainLogTree tree = new DomainLogTree();
+    tree.columnar(true);
+    tree.limits(LogLimits.keepFirst(1).entries(10));
+    for (int i = 0; i < 10000; i++) {
+      tree.add("orders.order" + i, "1");
+    }
+    assertThat(tree.size(), is(9));
+    assertThat(tree.paths(), is(5));
+  }
+
+  @Test public void clearKeepsViews() {
+    DomainLogTree tree = new DomainLogTree();
+    tree.columnar(true);
+    for (int i = 0; i < 2000; i++) {
+      tree.add("orders.order", String.valueOf(i));
+    }
+    DomainLog view = tree.view();
+    String before = view.toString();
+    tree.add("orders.order", "2000");
+    tree.clear();
+    tree.add("orders.order", "x");
+    tree.add("customer", "john");
+    assertThat(view.toString(), is(before));
+    assertThat(tree.view().getNodes().size(), is(2));
+  }
+
+  @Test public void reuse() {
+    DomainLogger log = DomainLogger.get("columnar").columnar();
+    for (int i = 0; i < 3000; i++) {
+      log.log("orders.order" + (i % 10), String.valueOf(i));
+    }
+    DomainLogger.cleanup();
+    log = DomainLogger.get("columnar").columnar();
+    log.log("orders.order", "1");
+    DomainLogger linked = DomainLogger.get("linked");
+    linked.log("orders.order", "1");
+    assertThat(log.generate().toString(), is(linked.generate().toString()));
+  }
+
+}
@@ -0,0 +1,98 @@
+package org.waabox.log;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import org.junit.*;
+
+public class DomainLogMetricsTest {
+
+  @After public void after() {
+    DomainLogMetrics.disable();
+    DomainLogger.cleanup();
+  }
+
+  @Test public void record() throws Exception {
+    DomainLogMetrics.enable();
+    DomainLogger log = DomainLogger.get("metrics");
+    log.log("waabox.formulas.sum", "10");
+    log.log("waabox.formulas.sum", "10");
+    log.log("waabox.formulas.pow", "20");
+    log.generate();
+
+    Trace trace = new Trace("1", "metrics", log.generate());
+    new WriterTraceSink(new StringWriter(), true).write(Arrays.asList(trace));
+    DomainLogger.cleanup();
+
+    LoggerMetrics metrics = DomainLogMetrics.get("metrics");
+    assertThat(metrics.getLogs(), is(3L));
+    assertThat(metrics.getDuplicates(), is(1L));
+    assertThat(metrics.getStacks(), is(4L));
+    assertThat(metrics.getEntries(), is(2L));
+    assertThat(metrics.getGenerates(), is(2L));
+    long generated = 0;
+    for (long count : metrics.getGenerateHistogram()) {
+      generated += count;
+    }
+    assertThat(generated, is(2L));
+    assertThat(metrics.getRenderedChars() > 0, is(true));
+    assertThat(metrics.getCleanups(), is(1L));
+    assertThat(metrics.getCleanupEntries(), is(6L));
+  }
+
+  @Test public void renderedChars() throws Exception {
+    DomainLogMetrics.enable();
+    DomainLogger log = DomainLogger.get("metrics-rendered");
+    log.log("waabox.formulas.sum", "1\"0");
+    log.log("waabox.formulas.pow", "20");
+    DomainLog root = log.generate();
+
+    StringBuilder json = new StringBuilder();
+    DomainLogJsonWriter writer = new DomainLogJsonWriter();
+    writer.write(root, json);
+    assertThat(writer.getWritten(), is((long) json.length()));
+
+    String text = root.toString();
+    LoggerMetrics metrics = DomainLogMetrics.get("metrics-rendered");
+    assertThat(metrics.getRenderedChars(),
+        is((long) (json.length() + text.length())));
+  }
+
+  @Test public void aggregated() {
+    DomainLogMetrics.enable();
+    DomainLogger.aggregate(TraceAggregator.create());
+    try {
+      DomainLogger log = DomainLogger.get("metrics-aggregated");
+      log.log("waabox.formulas.sum", "10");
+      log.generate();
+      DomainLogger.cleanup();
+    } finally {
+      DomainLogger.aggregate(null);
+    }
+    LoggerMetrics metrics = DomainLogMetrics.get("metrics-aggregated");
+    assertThat(metrics.getGenerates(), is(1L));
+    assertThat(metrics.getCleanups(), is(1L));
+  }
+
+  @Test public void disabled() {
+    DomainLogger.get("metrics-off").log("waabox", "10");
+    assertThat(DomainLogMetrics.get("metrics-off").getLogs(), is(0L));
+  }
+
+  @Test public void jmx() throws Exception {
+    DomainLogMetrics.Listener listener = DomainLogMetrics.registerMBeans();
+    try {
+      DomainLogger.get("metrics-jmx").log("waabox", "10");
+      Object logs = ManagementFactory.getPlatformMBeanServer().getAttribute(
+          DomainLogMetrics.objectName("metrics-jmx"), "Logs");
+      assertThat(logs, is((Object) 1L));
+    } finally {
+      DomainLogMetrics.removeListener(listener);
+    }
+  }
+
+}
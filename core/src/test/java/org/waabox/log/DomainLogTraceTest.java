@@ -0,0 +1,103 @@
+package org.waabox.log;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+import org.junit.*;
+
+public class DomainLogTraceTest {
+
+  private DomainLog tree;
+
+  @Before public void setUp() {
+    DomainLogger.cleanup();
+    DomainLogger log = DomainLogger.get("test");
+    log.log("waabox.formulas.sum", "10");
+    log.log("waabox.formulas.pow", "20");
+    log.log("waabox_2.formulas.sum", "\u00e1\u00e9");
+    tree = log.generate();
+  }
+
+  @After public void after() {
+    DomainLogger.cleanup();
+  }
+
+  @Test public void navigate() {
+    DomainLogTrace trace = DomainLogTrace.wrap(
+        DomainLogBinaryWriter.encode(tree));
+
+    assertThat(trace.size(), is(11));
+    assertThat(trace.stack(0), is("."));
+    assertThat(trace.value(0), is(nullValue()));
+    assertThat(trace.parent(0), is(DomainLogTrace.NONE));
+    assertThat(trace.childCount(0), is(2));
+
+    int waabox = trace.firstChild(0);
+    assertThat(trace.stack(waabox), is(".waabox"));
+    int waabox2 = trace.nextSibling(waabox);
+    assertThat(trace.stack(waabox2), is(".waabox_2"));
+    assertThat(trace.nextSibling(waabox2), is(DomainLogTrace.NONE));
+
+    int formulas = trace.firstChild(waabox2);
+    int sum = trace.firstChild(trace.firstChild(formulas));
+    assertThat(trace.stack(sum), is(".waabox_2.formulas.sum"));
+    assertThat(trace.value(sum), is("\u00e1\u00e9"));
+    assertThat(trace.parent(trace.parent(sum)), is(formulas));
+  }
+
+  @Test public void page() throws IOException {
+    DomainLogTrace trace = DomainLogTrace.wrap(
+        DomainLogBinaryWriter.encode(tree));
+    assertThat(TraceDiff.fingerprint(trace, 0),
+        is(TraceDiff.fingerprint(tree)));
+    assertThat(trace.fingerprint(), is(TraceDiff.fingerprint(tree)));
+
+    StringBuilder out = new StringBuilder();
+    DomainLogJsonWriter writer = new DomainLogJsonWriter();
+    int next = writer.write(trace, 0, DomainLogTrace.NONE, 1, 1, out);
+    assertThat(out.toString(), is("{\"stack\":\".\",\"size\":2,\"nodes\":["
+        + "{\"stack\":\".waabox\",\"size\":1,\"nodes\":[]}]}"));
+    assertThat(trace.stack(next), is(".waabox_2"));
+
+    out.setLength(0);
+    next = writer.write(trace, 0, next, 1, 2, out);
+    assertThat(out.toString(), is("{\"stack\":\".\",\"size\":2,\"nodes\":["
+        + "{\"stack\":\".waabox_2\",\"size\":1,\"nodes\":["
+        + "{\"stack\":\".waabox_2.formulas\",\"size\":1,\"nodes\":[]}]}]}"));
+    assertThat(next, is(DomainLogTrace.NONE));
+  }
+
+  @Test public void toDomainLog() {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+    buffer.put((byte) 1);
+    buffer.put(DomainLogBinaryWriter.encode(tree));
+    buffer.flip();
+    buffer.position(1);
+
+    DomainLog decoded = DomainLogTrace.wrap(buffer).toDomainLog();
+    assertThat(decoded.toString(), is(tree.toString()));
+  }
+
+  @Test public void map() throws Exception {
+    File file = File.createTempFile("trace", ".dlt");
+    file.deleteOnExit();
+    OutputStream out = new FileOutputStream(file);
+    try {
+      DomainLogBinaryWriter.write(tree, out);
+    } finally {
+      out.close();
+    }
+    DomainLogTrace trace = DomainLogTrace.map(file);
+    assertThat(trace.toDomainLog().toString(), is(tree.toString()));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void wrap_invalid() {
+    DomainLogTrace.wrap(new byte[16]);
+  }
+
+}
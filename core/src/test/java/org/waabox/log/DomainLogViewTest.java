@@ -0,0 +1,77 @@
+package org.waabox.log;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.List;
+
+import org.junit.*;
+
+public class DomainLogViewTest {
+
+  @Before public void setUp() {
+    DomainLogger.cleanup();
+  }
+
+  @After public void after() {
+    DomainLogger.cleanup();
+  }
+
+  @Test public void sameAsGenerate() {
+    DomainLogger log = DomainLogger.get("view");
+    log.log("order.pricing", "10");
+    log.log("order.pricing.discount", "2");
+    log.log("order.shipping", "5");
+    log.log("customer", "john");
+    assertThat(log.view().toString(), is(log.generate().toString()));
+    assertThat(TraceDiff.compare(log.generate(), log.view()).isEmpty(),
+        is(true));
+  }
+
+  @Test public void immutable() {
+    DomainLogger log = DomainLogger.get("view");
+    log.log("order.pricing", "10");
+    DomainLog view = log.view();
+    assertThat(log.view(), sameInstance(view));
+    String before = view.toString();
+
+    log.log("order.pricing", "20");
+    log.log("order.shipping", "5");
+    assertThat(view.toString(), is(before));
+    assertThat(log.view().toString(), is(log.generate().toString()));
+
+    List<DomainLog> order = view.getNodes().get(0).getNodes();
+    assertThat(order.size(), is(1));
+    try {
+      order.add(new DomainLog(".order.tax", "1"));
+      Assert.fail();
+    } catch (UnsupportedOperationException e) {
+    }
+    DomainLogger.cleanup();
+    assertThat(view.toString(), is(before));
+  }
+
+  @Test public void evicted() {
+    DomainLogger log = DomainLogger.get("view")
+        .limits(LogLimits.keepLatest().entries(5));
+    for (int i = 0; i < 3; i++) {
+      log.log("orders.order", String.valueOf(i));
+    }
+    DomainLog view = log.view();
+    String before = view.toString();
+    for (int i = 3; i < 10; i++) {
+      log.log("orders.order", String.valueOf(i));
+    }
+    assertThat(view.toString(), is(before));
+
+    DomainLog latest = log.view();
+    assertThat(latest.toString(), is(log.generate().toString()));
+    List<DomainLog> nodes = latest.getNodes();
+    assertThat(nodes.get(nodes.size() - 1).getStack(),
+        is(LogLimits.TRUNCATED));
+    assertThat(nodes.get(0).getNodes().get(0).getNodes().get(0).getValue(),
+        is("7"));
+  }
+
+}
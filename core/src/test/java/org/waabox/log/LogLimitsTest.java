@@ -0,0 +1,127 @@
+package org.waabox.log;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.List;
+
+import org.junit.*;
+
+public class LogLimitsTest {
+
+  @After public void after() {
+    DomainLogger.defaultLimits(null);
+    DomainLogger.cleanup();
+  }
+
+  private DomainLog last(final DomainLog log) {
+    List<DomainLog> nodes = log.getNodes();
+    return nodes.get(nodes.size() - 1);
+  }
+
+  @Test public void dropNewest() {
+    DomainLogger log = DomainLogger.get("test")
+        .limits(LogLimits.dropNewest().entries(12));
+    for (int i = 0; i < 100; i++) {
+      log.log("orders.order", String.valueOf(i));
+    }
+    DomainLog root = log.generate();
+    DomainLog order = root.getNodes().get(0).getNodes().get(0);
+    assertThat(order.getNodes().size(), is(10));
+    assertThat(order.getNodes().get(9).getValue(), is("9"));
+    assertThat(last(root).getStack(), is(LogLimits.TRUNCATED));
+    assertThat(last(root).getValue(), is("90"));
+
+    log.log("orders.order", "100");
+    log.log("payments", "1");
+    assertThat(last(log.generate()).getValue(), is("92"));
+    assertThat(log.generate().getNodes().size(), is(2));
+  }
+
+  @Test public void keepLatest() {
+    DomainLogger log = DomainLogger.get("test")
+        .limits(LogLimits.keepLatest().entries(12));
+    for (int i = 0; i < 100; i++) {
+      log.log("orders.order", String.valueOf(i));
+    }
+    DomainLog order = log.generate().getNodes().get(0).getNodes().get(0);
+    assertThat(order.getNodes().size(), is(10));
+    assertThat(order.getNodes().get(0).getValue(), is("90"));
+    assertThat(order.getNodes().get(9).getValue(), is("99"));
+    assertThat(last(log.generate()).getValue(), is("90"));
+  }
+
+  @Test public void keepFirst() {
+    DomainLogger log = DomainLogger.get("test")
+        .limits(LogLimits.keepFirst(2));
+    for (int i = 0; i < 10; i++) {
+      log.log("orders.order", String.valueOf(i));
+      log.log("orders.payment", String.valueOf(i));
+    }
+    DomainLog orders = log.generate().getNodes().get(0);
+    assertThat(orders.getNodes().get(0).getNodes().size(), is(2));
+    assertThat(orders.getNodes().get(1).getNodes().size(), is(2));
+    assertThat(last(log.generate()).getValue(), is("16"));
+  }
+
+  @Test public void depthAndBytes() {
+    DomainLogger.defaultLimits(LogLimits.dropNewest().depth(2).bytes(40));
+    DomainLogger log = DomainLogger.get("test");
+    log.log("a.b.c", "1");
+    log.log("a.b", "1");
+    log.log("a.b", "222222222222");
+    DomainLog root = log.generate();
+    assertThat(root.getNodes().size(), is(2));
+    assertThat(root.getNodes().get(0).getNodes().get(0).getNodes().size(),
+        is(1));
+    assertThat(last(root).getValue(), is("2"));
+  }
+
+  @Test public void clear() {
+    DomainLogger log = DomainLogger.get("test")
+        .limits(LogLimits.dropNewest().entries(2));
+    log.log("a", "1");
+    log.log("a", "2");
+    assertThat(last(log.generate()).getStack(), is(LogLimits.TRUNCATED));
+    DomainLogger.cleanup();
+
+    log = DomainLogger.get("test");
+    log.log("a", "2");
+    assertThat(last(log.generate()).getStack(), is(".a"));
+  }
+
+  @Test public void droppedStacksAreNotResolved() {
+    DomainLogTree tree = new DomainLogTree();
+    tree.limits(LogLimits.keepFirst(1).entries(10));
+    for (int i = 0; i < 10000; i++) {
+      tree.add("orders.order" + i, "1");
+    }
+    assertThat(tree.size(), is(9));
+    assertThat(tree.paths(), is(5));
+  }
+
+  @Test public void keepLatestStacks() {
+    DomainLogger log = DomainLogger.get("test")
+        .limits(LogLimits.keepLatest().entries(50));
+    for (int i = 0; i < 1000; i++) {
+      log.log("order" + i, String.valueOf(i));
+    }
+    List<DomainLog> nodes = log.generate().getNodes();
+    assertThat(nodes.size(), is(26));
+    assertThat(nodes.get(0).getStack(), is(".order975"));
+    assertThat(nodes.get(24).getNodes().get(0).getValue(), is("999"));
+    assertThat(last(log.generate()).getValue(), is("975"));
+  }
+
+  @Test public void stacksCount() {
+    DomainLogger log = DomainLogger.get("test")
+        .limits(LogLimits.dropNewest().entries(3));
+    log.log("a.b.c", "1");
+    log.log("a", "1");
+    DomainLog root = log.generate();
+    assertThat(root.getNodes().size(), is(2));
+    assertThat(root.getNodes().get(0).getNodes().get(0).getValue(), is("1"));
+    assertThat(last(root).getValue(), is("1"));
+  }
+
+}
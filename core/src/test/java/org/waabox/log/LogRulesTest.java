@@ -0,0 +1,150 @@
+package org.waabox.log;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.*;
+
+public class LogRulesTest {
+
+  @After public void after() {
+    DomainLogger.rules(null);
+    DomainLogger.cleanup();
+  }
+
+  @Test public void prefix() {
+    DomainLogger.rules(LogRules.parse("# rules\n"
+        + "customer = off\n"
+        + "customer.orders = on\n"
+        + "customer.orders.audit = off\n"));
+    DomainLogger log = DomainLogger.get("test");
+
+    assertThat(log.isEnabled("customer"), is(false));
+    assertThat(log.isEnabled("customer.name"), is(false));
+    assertThat(log.isEnabled("customers.name"), is(true));
+    assertThat(log.isEnabled("customer.orders"), is(true));
+    assertThat(log.isEnabled("customer.orders.order.total"), is(true));
+    assertThat(log.isEnabled("customer.ordersX"), is(false));
+    assertThat(log.isEnabled("customer.orders.audit.user"), is(false));
+    assertThat(log.isEnabled("payments"), is(true));
+  }
+
+  @Test public void sample() {
+    DomainLogger.rules(LogRules.create().disable("").sample("orders", 3));
+    DomainLogger log = DomainLogger.get("test");
+    for (int i = 0; i < 9; i++) {
+      log.log("orders.order", String.valueOf(i));
+      log.log("payments", String.valueOf(i));
+    }
+    DomainLog orders = log.generate().getNodes().get(0).getNodes().get(0);
+    assertThat(log.generate().getNodes().size(), is(1));
+    assertThat(orders.getNodes().size(), is(3));
+    assertThat(orders.getNodes().get(1).getValue(), is("3"));
+  }
+
+  @Test public void rate() {
+    DomainLogger.rules(LogRules.create().rate("orders", 2));
+    DomainLogger log = DomainLogger.get("test");
+    for (int i = 0; i < 10; i++) {
+      if (log.isEnabled("orders")) {
+        log.log("orders", String.valueOf(i));
+      }
+    }
+    int accepted = log.generate().getNodes().get(0).getNodes().size();
+    assertThat(accepted >= 2 && accepted <= 4, is(true));
+  }
+
+  @Test public void rate_concurrent() throws Exception {
+    DomainLogger.rules(LogRules.create().rate("orders", 50));
+    final AtomicInteger accepted = new AtomicInteger();
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          DomainLogger log = DomainLogger.get("test");
+          for (int i = 0; i < 1000; i++) {
+            log.log("orders", String.valueOf(i));
+          }
+          accepted.addAndGet(
+              log.generate().getNodes().get(0).getNodes().size());
+          DomainLogger.cleanup();
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    // the threads might log across two seconds.
+    assertThat(accepted.get() <= 100, is(true));
+  }
+
+  @Test public void guardedSample() {
+    DomainLogger.rules(LogRules.create().sample("orders", 2));
+    DomainLogger log = DomainLogger.get("test");
+    for (int i = 0; i < 10; i++) {
+      if (log.isEnabled("orders")) {
+        log.log("orders", String.valueOf(i));
+      }
+    }
+    assertThat(log.generate().getNodes().get(0).getNodes().size(), is(5));
+  }
+
+  @Test public void disabledStructureIsNotRendered() {
+    DomainLogger.rules(LogRules.create().disable("@sum"));
+    DomainLogger log = DomainLogger.get("test");
+    final int[] renders = new int[1];
+    Structure sum = new Structure("sum", "formulas.sum") {
+      @Override
+      String render(final Map<String, String> globals) {
+        renders[0]++;
+        return super.render(globals);
+      }
+    };
+    log.log(sum, "10");
+    assertThat(renders[0], is(0));
+    assertThat(log.generate().getNodes().isEmpty(), is(true));
+  }
+
+  @Test public void probability() {
+    DomainLogger.rules(LogRules.create().probability("orders", 0)
+        .probability("payments", 1));
+    DomainLogger log = DomainLogger.get("test");
+    assertThat(log.isEnabled("orders"), is(false));
+    assertThat(log.isEnabled("payments"), is(true));
+  }
+
+  @Test public void structureAndSupplier() {
+    DomainLogger.rules(LogRules.create().disable("@sum"));
+    DomainLogger log = DomainLogger.get("test");
+    final int[] calls = new int[1];
+    Supplier<String> message = new Supplier<String>() {
+      @Override
+      public String get() {
+        calls[0]++;
+        return "10";
+      }
+    };
+    log.log(new Structure("sum", "formulas.sum"), message);
+    assertThat(calls[0], is(0));
+    log.log(new Structure("pow", "formulas.pow"), message);
+    log.log("formulas.total", message);
+    assertThat(calls[0], is(2));
+    assertThat(log.generate().getNodes().get(0).getNodes().size(), is(2));
+
+    DomainLogger.rules(LogRules.create());
+    log.log(new Structure("sum", "formulas.sum"), message);
+    assertThat(calls[0], is(3));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void parse_invalid() {
+    LogRules.parse("orders = sample often");
+  }
+
+}
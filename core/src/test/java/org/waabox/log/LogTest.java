@@ -3,6 +3,10 @@ package org.waabox.log;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.*;
+
+import org.json.JSONObject;
 import org.junit.*;
 
 public class LogTest {
@@ -89,4 +93,202 @@ public class LogTest {
     assertThat(waaboxPowEntry.getValue(), is("20"));
   }
 
+  @Test public void test_generateTwice() {
+    DomainLogger log = DomainLogger.get("test");
+    log.log("waabox.formulas.sum", "10");
+    log.log("waabox.formulas.pow", "20");
+
+    assertThat(log.generate().toString(), is(log.generate().toString()));
+    assertThat(log.generate().getNodes().size(), is(1));
+    assertThat(log.generate().getNodes().get(0).getNodes().get(0)
+        .getNodes().size(), is(2));
+  }
+
+  @Test(expected = DomainLogger.StackNotFoundException.class)
+  public void test_undeclaredStack() {
+    DomainLogger log = DomainLogger.get("test");
+    log.log("waabox..", "10");
+    log.generate();
+  }
+
+  @Test public void test_duplicatedEntries() {
+    DomainLogger log = DomainLogger.get("test");
+    log.log("waabox.formulas.sum", "10");
+    log.log("waabox.formulas.sum", "10");
+    log.log("waabox.formulas.sum", "20");
+
+    DomainLog sum = log.generate().getNodes().get(0).getNodes().get(0)
+        .getNodes().get(0);
+    assertThat(sum.getNodes().size(), is(2));
+    assertThat(sum.getNodes().get(0).getValue(), is("10"));
+    assertThat(sum.getNodes().get(1).getValue(), is("20"));
+  }
+
+  @Test public void test_globalVarsOnUnboundStructure() {
+    DomainLogger log = DomainLogger.get("test");
+    log.registerGlobal("name", "waabox");
+
+    Structure s = Structure.named("testExample").with("formulaName", "sum");
+    assertThat(s.getStack(), is("${name}.formulas.sum"));
+    log.log(s, "10");
+
+    DomainLog waabox = log.generate().getNodes().get(0);
+    assertThat(waabox.getStack(), is(".waabox"));
+  }
+
+  @Test public void test_render() throws Exception {
+    DomainLogger log = DomainLogger.get("test");
+    log.log("waabox.formulas.sum", "10");
+    log.log("waabox.formulas.pow", "20");
+
+    String expected = ".[\n"
+        + "  .waabox[\n"
+        + "    .waabox.formulas[\n"
+        + "      .waabox.formulas.sum[\n"
+        + "        .waabox.formulas.sum:10\n"
+        + "        ]\n"
+        + ",\n"
+        + "      .waabox.formulas.pow[\n"
+        + "        .waabox.formulas.pow:20\n"
+        + "        ]\n"
+        + "\n"
+        + "      ]\n"
+        + "\n"
+        + "    ]\n"
+        + "\n"
+        + "  ]\n";
+    assertThat(log.generate().toString(), is(expected));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    DomainLogRenderer.render(log.generate(), out);
+    assertThat(out.toString("UTF-8"), is(expected));
+  }
+
+  @Test public void test_json() throws Exception {
+    DomainLogger log = DomainLogger.get("test");
+    log.log("waabox.formulas.sum", "10");
+    log.log("waabox.formulas.pow", "\"20\"\n");
+
+    StringBuilder sb = new StringBuilder();
+    new DomainLogJsonWriter().write(log.generate(), sb);
+
+    JSONObject json = new JSONObject(sb.toString());
+    assertThat(json.getString("stack"), is("."));
+    assertThat(json.has("value"), is(false));
+    JSONObject formulas = json.getJSONArray("nodes").getJSONObject(0)
+        .getJSONArray("nodes").getJSONObject(0);
+    assertThat(formulas.getString("stack"), is(".waabox.formulas"));
+    JSONObject pow = formulas.getJSONArray("nodes").getJSONObject(1)
+        .getJSONArray("nodes").getJSONObject(0);
+    assertThat(pow.getString("value"), is("\"20\"\n"));
+    assertThat(pow.getJSONArray("nodes").length(), is(0));
+  }
+
+  @Test public void test_concurrent() throws Exception {
+    final DomainLogger log = DomainLogger.get("test").concurrent();
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      final String stack = "thread" + t + ".item";
+      threads[t] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; i < 1000; i++) {
+            log.log(stack, String.valueOf(i));
+          }
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    DomainLog root = log.generate();
+    assertThat(root.getNodes().size(), is(4));
+    for (DomainLog thread : root.getNodes()) {
+      DomainLog item = thread.getNodes().get(0);
+      assertThat(item.getNodes().size(), is(1000));
+      for (int i = 0; i < 1000; i++) {
+        assertThat(item.getNodes().get(i).getValue(),
+            is(String.valueOf(i)));
+      }
+    }
+  }
+
+  @Test public void test_concurrent_sameTree() {
+    DomainLogger concurrent = DomainLogger.get("concurrent").concurrent();
+    DomainLogger log = DomainLogger.get("test");
+    for (int i = 0; i < 600; i++) {
+      concurrent.log("waabox.formulas" + (i % 7) + ".sum", "" + (i % 50));
+      log.log("waabox.formulas" + (i % 7) + ".sum", "" + (i % 50));
+      if (i == 300) {
+        assertThat(concurrent.generate().toString(),
+            is(log.generate().toString()));
+      }
+    }
+    assertThat(concurrent.isConcurrent(), is(true));
+    assertThat(concurrent.generate().toString(),
+        is(log.generate().toString()));
+  }
+
+  @Test public void test_concurrent_clear() {
+    DomainLogger concurrent = DomainLogger.get("concurrent").concurrent();
+    concurrent.log("waabox.formulas.sum", "10");
+    DomainLogger.cleanup();
+    concurrent.log("waabox.formulas.pow", "20");
+    String tree = concurrent.generate().toString();
+    assertThat(tree.contains("sum"), is(false));
+    assertThat(tree.contains("pow"), is(true));
+  }
+
+  @Test public void test_recycle() {
+    DomainLogger.recycle(100);
+    try {
+      DomainLogger log = DomainLogger.get("test");
+      log.registerGlobal("name", "waabox");
+      log.log("${name}.formulas.sum", "10");
+      log.disable();
+      DomainLogger.cleanup();
+
+      DomainLogger recycled = DomainLogger.get("test");
+      assertThat(recycled == log, is(true));
+      assertThat(recycled.isEnabled(), is(true));
+      assertThat(recycled.generate().getNodes().isEmpty(), is(true));
+      recycled.log("${name}.formulas.sum", "10");
+      assertThat(recycled.generate().getNodes().get(0).getStack(),
+          is(".${name}"));
+
+      for (int i = 0; i < 200; i++) {
+        recycled.log("waabox.formulas.sum", String.valueOf(i));
+      }
+      DomainLogger.cleanup();
+      assertThat(DomainLogger.get("test") == recycled, is(false));
+    } finally {
+      DomainLogger.recycle(0);
+    }
+  }
+
+  @Test public void test_recycle_off() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    DomainLogger.recycle(100);
+    try {
+      Callable<DomainLogger> task = new Callable<DomainLogger>() {
+        @Override
+        public DomainLogger call() {
+          DomainLogger log = DomainLogger.get("test");
+          DomainLogger.cleanup();
+          return log;
+        }
+      };
+      DomainLogger first = executor.submit(task).get();
+      assertThat(executor.submit(task).get() == first, is(true));
+      DomainLogger.recycle(0);
+      DomainLogger.recycle(100);
+      assertThat(executor.submit(task).get() == first, is(false));
+    } finally {
+      DomainLogger.recycle(0);
+      executor.shutdown();
+    }
+  }
+
 }
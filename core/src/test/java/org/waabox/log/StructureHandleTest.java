@@ -0,0 +1,68 @@
+package org.waabox.log;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+
+import org.junit.*;
+
+public class StructureHandleTest {
+
+  private static final StructureHandle EXAMPLE =
+      StructureHandle.named("testExample");
+
+  @After public void after() {
+    DomainLogger.cleanup();
+  }
+
+  @Test public void variables() {
+    assertThat(EXAMPLE.getVariables(),
+        is(Arrays.asList("name", "formulaName")));
+    assertThat(EXAMPLE.render("waabox", "sum"), is("waabox.formulas.sum"));
+    assertThat(EXAMPLE.render("waabox"), is("waabox.formulas.${formulaName}"));
+  }
+
+  @Test public void log_sameTreeAsStructure() {
+    DomainLogger handles = DomainLogger.get("handles");
+    handles.log(EXAMPLE, "10", "waabox", "sum");
+    handles.log(EXAMPLE, "20", "waabox_2", "pow");
+    handles.log(EXAMPLE, "30", "waabox", "pow");
+    handles.log(EXAMPLE, "30", "waabox", "pow");
+
+    DomainLogger structures = DomainLogger.get("structures");
+    structures.log(Structure.named("testExample").with("name", "waabox")
+        .with("formulaName", "sum"), "10");
+    structures.log(Structure.named("testExample").with("name", "waabox_2")
+        .with("formulaName", "pow"), "20");
+    structures.log(Structure.named("testExample").with("name", "waabox")
+        .with("formulaName", "pow"), "30");
+
+    assertThat(handles.generate().toString(),
+        is(structures.generate().toString()));
+  }
+
+  @Test public void log_globalsAndRenderedStacks() {
+    DomainLogger log = DomainLogger.get("handles");
+    log.registerGlobal("formulaName", "sum");
+    log.log(EXAMPLE, "10", "waabox");
+    // The values that span segments are rendered.
+    log.log(EXAMPLE, "20", "waabox.orders", "pow");
+    log.log("waabox.formulas.sum", "30");
+
+    DomainLog root = log.generate();
+    DomainLog sum = root.getNodes().get(0).getNodes().get(0).getNodes()
+        .get(0);
+    assertThat(sum.getStack(), is(".waabox.formulas.sum"));
+    assertThat(sum.getNodes().size(), is(2));
+    DomainLog pow = root.getNodes().get(0).getNodes().get(1).getNodes()
+        .get(0).getNodes().get(0);
+    assertThat(pow.getStack(), is(".waabox.orders.formulas.pow"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void log_tooManyArguments() {
+    DomainLogger.get("handles").log(EXAMPLE, "10", "a", "b", "c");
+  }
+
+}
@@ -0,0 +1,191 @@
+package org.waabox.log;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.util.List;
+
+import org.junit.Test;
+
+public class StructureLoaderTest {
+
+  @Test public void index_generatedAtBuildTime() {
+    List<URL> urls = StructureLoader.index(getClass().getClassLoader());
+    assertThat(urls.size(), is(1));
+    assertThat(urls.get(0).getFile().endsWith(
+        "test-example.log_structure.json"), is(true));
+    assertThat(StructureLoader.named("testExample").getStack(),
+        is("${name}.formulas.${formulaName}"));
+  }
+
+  @Test public void index_inJar() throws Exception {
+    Path jar = Files.createTempFile("structures", ".jar");
+    try {
+      try (java.util.jar.JarOutputStream out =
+          new java.util.jar.JarOutputStream(Files.newOutputStream(jar))) {
+        entry(out, StructureLoader.INDEX, "# structures\nb.log_structure.json"
+            + "\nstructures/a.log_structure.json\n");
+        entry(out, "b.log_structure.json",
+            "[{\"name\" : \"b\", \"stack\" : \"b.${id}\"}]");
+        entry(out, "structures/a.log_structure.json",
+            "[{\"name\" : \"a\", \"stack\" : \"a\"},"
+            + " {\"name\" : \"c\", \"stack\" : \"a.c\"}]");
+      }
+      try (URLClassLoader classLoader = new URLClassLoader(
+          new URL[] {jar.toUri().toURL()}, null)) {
+        StructureLoader loader = new StructureLoader(classLoader);
+        assertThat(loader.structure("a").getStack(), is("a"));
+        assertThat(loader.structure("b").getStack(), is("b.${id}"));
+        // The files are loaded in the order of the index.
+        assertThat(loader.registry().names().toString(), is("[b, a, c]"));
+      }
+    } finally {
+      Files.delete(jar);
+    }
+  }
+
+  @Test public void index_rootsWithoutIndex() throws Exception {
+    Path indexed = directory("a", "a");
+    Path classes = Files.createTempDirectory("classes");
+    Files.createDirectories(classes.resolve("org"));
+    Files.write(classes.resolve("org/b.log_structure.json"),
+        "[{\"name\" : \"b\", \"stack\" : \"b\"}]".getBytes("UTF-8"));
+    Path jar = Files.createTempFile("structures", ".jar");
+    try {
+      try (java.util.jar.JarOutputStream out =
+          new java.util.jar.JarOutputStream(Files.newOutputStream(jar))) {
+        entry(out, "c.log_structure.json",
+            "[{\"name\" : \"c\", \"stack\" : \"c\"}]");
+      }
+      try (URLClassLoader classLoader = new URLClassLoader(new URL[] {
+          indexed.toUri().toURL(), classes.toUri().toURL(),
+          jar.toUri().toURL()}, null)) {
+        StructureLoader loader = new StructureLoader(classLoader);
+        assertThat(loader.registry().names().toString(), is("[a, b, c]"));
+      }
+    } finally {
+      Files.delete(jar);
+    }
+  }
+
+  @Test public void list() throws Exception {
+    Path root = Files.createTempDirectory("classes");
+    Path dir = Files.createDirectories(root.resolve("org/waabox"));
+    Files.write(dir.resolve("x.log_structure.json"), "[]".getBytes());
+    Files.write(dir.resolve("x.json"), "[]".getBytes());
+    assertThat(StructureIndexProcessor.list(root).toString(),
+        is("[org/waabox/x.log_structure.json]"));
+  }
+
+  @Test public void parse_malformedPlaceholder() throws Exception {
+    String json = "[\n  {\"name\" : \"a\", \"stack\" : \"a\"},\n"
+        + "  {\"name\" : \"b\",\n   \"stack\" : \"b.${id\"}\n]";
+    try {
+      new StructureParser("x.log_structure.json", new StringReader(json))
+          .parse();
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e.getMessage(), is("x.log_structure.json:4: Structure b:"
+          + " Unclosed placeholder at column 3"));
+    }
+  }
+
+  @Test public void parse_skipsOtherAttributes() throws Exception {
+    String json = "[{\"doc\" : {\"x\" : [1, -2.5e3, true, null, \"\\\"\"]},"
+        + " \"name\" : \"a\", \"stack\" : \"a.\\u0062\"}]";
+    List<StructureParser.Parsed> parsed = new StructureParser(
+        "x.log_structure.json", new StringReader(json)).parse();
+    assertThat(parsed.size(), is(1));
+    assertThat(parsed.get(0).structure().getStack(), is("a.b"));
+  }
+
+  @Test public void duplicated() throws Exception {
+    Path root = directory("a", "a");
+    Files.write(root.resolve("b.log_structure.json"),
+        "[\n{\"name\" : \"a\", \"stack\" : \"b\"}]".getBytes("UTF-8"));
+    Files.write(root.resolve(StructureLoader.INDEX),
+        "a.log_structure.json\nb.log_structure.json\n".getBytes("UTF-8"));
+    try (URLClassLoader classLoader = classLoader(root)) {
+      new StructureLoader(classLoader);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e.getMessage().endsWith("b.log_structure.json:2:"
+          + " Duplicated structure a, already declared at "
+          + root.toUri().getPath() + "a.log_structure.json:1"), is(true));
+    }
+  }
+
+  @Test public void reload_keepsPreviousOnErrors() throws Exception {
+    Path root = directory("a", "a.${id}");
+    try (URLClassLoader classLoader = classLoader(root)) {
+      StructureLoader loader = new StructureLoader(classLoader);
+      Structure previous = loader.structure("a");
+      structure(root, "a", "a.${}");
+      try {
+        loader.reload();
+        fail();
+      } catch (IllegalArgumentException e) {
+        assertThat(loader.structure("a"), is(previous));
+      }
+      structure(root, "a", "a.b");
+      loader.reload();
+      assertThat(loader.structure("a").getStack(), is("a.b"));
+    }
+  }
+
+  @Test public void watch() throws Exception {
+    Path root = directory("a", "a");
+    try (URLClassLoader classLoader = classLoader(root)) {
+      StructureLoader loader = new StructureLoader(classLoader);
+      try (StructureWatcher watcher = new StructureWatcher(loader)) {
+        structure(root, "a", "a.${");
+        long timeout = System.currentTimeMillis() + 20000;
+        while (watcher.getLastError() == null
+            && System.currentTimeMillis() < timeout) {
+          Thread.sleep(20);
+        }
+        assertThat(watcher.getLastError() != null, is(true));
+        assertThat(loader.structure("a").getStack(), is("a"));
+
+        structure(root, "a", "a.b");
+        while (watcher.getReloads() == 0
+            && System.currentTimeMillis() < timeout) {
+          Thread.sleep(20);
+        }
+        assertThat(loader.structure("a").getStack(), is("a.b"));
+      }
+    }
+  }
+
+  private Path directory(final String name, final String stack)
+      throws IOException {
+    Path root = Files.createTempDirectory("structures");
+    Files.createDirectories(root.resolve(StructureLoader.INDEX).getParent());
+    Files.write(root.resolve(StructureLoader.INDEX),
+        "a.log_structure.json\n".getBytes("UTF-8"));
+    structure(root, name, stack);
+    return root;
+  }
+
+  private void structure(final Path root, final String name,
+      final String stack) throws IOException {
+    Files.write(root.resolve("a.log_structure.json"), ("[{\"name\" : \""
+        + name + "\", \"stack\" : \"" + stack + "\"}]").getBytes("UTF-8"));
+  }
+
+  private URLClassLoader classLoader(final Path root) throws IOException {
+    return new URLClassLoader(new URL[] {root.toUri().toURL()}, null);
+  }
+
+  private void entry(final java.util.jar.JarOutputStream out,
+      final String name, final String content) throws IOException {
+    out.putNextEntry(new java.util.zip.ZipEntry(name));
+    out.write(content.getBytes("UTF-8"));
+    out.closeEntry();
+  }
+
+}
@@ -0,0 +1,120 @@
+package org.waabox.log;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.*;
+
+public class TraceAggregatorTest {
+
+  private TraceAggregator aggregator;
+
+  @Before public void setUp() {
+    DomainLogger.cleanup();
+    aggregator = TraceAggregator.create();
+    DomainLogger.aggregate(aggregator);
+  }
+
+  @After public void after() {
+    DomainLogger.aggregate(null);
+    DomainLogger.cleanup();
+  }
+
+  @Test public void aggregateOnCleanup() {
+    for (int i = 0; i < 10; i++) {
+      DomainLogger log = DomainLogger.get("aggregate");
+      log.log("order.pricing", String.valueOf(i % 3));
+      log.log("order.pricing", "10");
+      if (i % 2 == 0) {
+        log.log("order.shipping", "5");
+      }
+      DomainLogger.cleanup();
+    }
+    assertThat(aggregator.traces(), is(10L));
+    assertThat(aggregator.hits(".order"), is(10L));
+    assertThat(aggregator.hits(".order.pricing"), is(10L));
+    assertThat(aggregator.values(".order.pricing"), is(20L));
+    assertThat(aggregator.hits(".order.shipping"), is(5L));
+    assertThat(aggregator.hits(".customer"), is(0L));
+    assertThat(aggregator.stacks(), is(3));
+
+    List<Map.Entry<String, Long>> top = aggregator.top(".order.pricing");
+    assertThat(top.get(0).getKey(), is("10"));
+    assertThat(top.get(0).getValue(), is(10L));
+    assertThat(top.size(), is(4));
+  }
+
+  @Test public void undeclaredStack() {
+    DomainLogger log = DomainLogger.get("aggregate");
+    log.log("order.pricing", "10");
+    log.log("waabox..", "1");
+    DomainLogger.get("other").log("order.shipping", "5");
+    DomainLogger.cleanup();
+    assertThat(aggregator.traces(), is(2L));
+    assertThat(aggregator.hits(".order.pricing"), is(1L));
+    assertThat(aggregator.hits(".order.shipping"), is(1L));
+    assertThat(DomainLogger.get("aggregate").generate().getNodes().size(),
+        is(0));
+  }
+
+  @Test public void boundedTopValues() {
+    TraceAggregator small = new TraceAggregator(10, 2, 1024);
+    for (int i = 0; i < 100; i++) {
+      DomainLog root = new DomainLog(DomainLogTree.ROOT);
+      DomainLog stack = new DomainLog(".status");
+      root.add(stack);
+      stack.add(new DomainLog(".status", "value-" + i));
+      stack.add(new DomainLog(".status", i % 4 == 0 ? "error" : "ok"));
+      small.add(root);
+    }
+    List<Map.Entry<String, Long>> top = small.top(".status");
+    assertThat(top.size(), is(2));
+    assertThat(top.get(0).getKey(), is("ok"));
+    assertThat(top.get(1).getKey(), is("error"));
+    assertThat(small.values(".status"), is(200L));
+  }
+
+  @Test public void boundedStacks() {
+    TraceAggregator small = new TraceAggregator(3, 2, 1024);
+    DomainLog root = new DomainLog(DomainLogTree.ROOT);
+    for (int i = 0; i < 5; i++) {
+      root.add(new DomainLog(".order" + i, "1"));
+    }
+    small.add(root);
+    assertThat(small.stacks(), is(3));
+    assertThat(small.dropped(), is(2L));
+    assertThat(small.values(".order0"), is(1L));
+    assertThat(small.values(".order4"), is(0L));
+  }
+
+  @Test public void concurrent() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    List<Future<?>> tasks = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      tasks.add(executor.submit(new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; i < 250; i++) {
+            DomainLogger log = DomainLogger.get("aggregate");
+            log.log("request.status", "200");
+            DomainLogger.cleanup();
+          }
+        }
+      }));
+    }
+    for (Future<?> task : tasks) {
+      task.get();
+    }
+    executor.shutdown();
+    assertThat(aggregator.traces(), is(1000L));
+    assertThat(aggregator.hits(".request.status"), is(1000L));
+    assertThat(aggregator.top(".request.status").get(0).getValue(),
+        is(1000L));
+    assertThat(aggregator.toDomainLog().getNodes().get(0).getValue(),
+        is("1000"));
+  }
+
+}
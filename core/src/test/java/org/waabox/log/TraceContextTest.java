@@ -0,0 +1,72 @@
+package org.waabox.log;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.*;
+
+import org.junit.*;
+
+public class TraceContextTest {
+
+  @After public void cleanup() {
+    DomainLogger.cleanup();
+  }
+
+  @Test public void wrap() throws Exception {
+    DomainLogger.get("context").log("order", "1");
+    TraceContext context = TraceContext.current();
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    Executor wrapped = context.wrap(executor);
+    final CountDownLatch done = new CountDownLatch(10);
+    for (int i = 0; i < 10; i++) {
+      final String item = String.valueOf(i);
+      wrapped.execute(new Runnable() {
+        @Override
+        public void run() {
+          DomainLogger.get("context").log("order.item", item);
+          done.countDown();
+        }
+      });
+    }
+    done.await();
+    Future<String> value = executor.submit(context.wrap(
+        new Callable<String>() {
+          @Override
+          public String call() {
+            DomainLogger.get("context").log("order.status", "paid");
+            return "ok";
+          }
+        }));
+    assertThat(value.get(), is("ok"));
+    executor.shutdown();
+
+    String trace = DomainLogger.get("context").generate().toString();
+    for (int i = 0; i < 10; i++) {
+      assertThat(trace.contains(".order.item:" + i), is(true));
+    }
+    assertThat(trace.contains(".order.status:paid"), is(true));
+    assertThat(context.get("context"), is(DomainLogger.get("context")));
+  }
+
+  @Test public void run_restoresPrevious() {
+    DomainLogger.get("context").log("before", "1");
+    TraceContext other = TraceContext.create();
+    other.run(new Runnable() {
+      @Override
+      public void run() {
+        DomainLogger.get("context").log("other", "1");
+      }
+    });
+
+    assertThat(DomainLogger.get("context").generate().getNodes().get(0)
+        .getStack(), is(".before"));
+    assertThat(other.get("context").generate().getNodes().get(0)
+        .getStack(), is(".other"));
+
+    other.clear();
+    assertThat(other.appenders().isEmpty(), is(true));
+  }
+
+}
@@ -0,0 +1,62 @@
+package org.waabox.log;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertThat;
+
+import org.junit.*;
+
+public class TraceDiffTest {
+
+  @After public void after() {
+    DomainLogger.cleanup();
+  }
+
+  @Test public void equal() {
+    DomainLog before = tree("before", false);
+    DomainLog after = tree("after", false);
+    assertThat(TraceDiff.fingerprint(before),
+        is(TraceDiff.fingerprint(after)));
+    assertThat(TraceDiff.compare(before, after).isEmpty(), is(true));
+    assertThat(TraceDiff.compare(before, after).toString(), is("[]"));
+  }
+
+  @Test public void equal_inAnotherOrder() {
+    DomainLogger log = DomainLogger.get("reversed");
+    log.log("order.2.shipping", "5");
+    log.log("order.1.pricing", "10");
+    log.log("order.1.pricing", "11");
+    assertThat(TraceDiff.compare(tree("before", false), log.generate())
+        .isEmpty(), is(true));
+  }
+
+  @Test public void changes() {
+    DomainLog before = tree("before", false);
+    DomainLog after = tree("after", true);
+    assertThat(TraceDiff.fingerprint(before),
+        is(not(TraceDiff.fingerprint(after))));
+
+    TraceDiff diff = TraceDiff.compare(before, after);
+    assertThat(diff.getChanges().toString(), is("[+ .order.3,"
+        + " - .order.2, ~ .order.1.pricing 11 -> 12]"));
+    assertThat(diff.getChanges().get(0).getNodes(), is(3));
+    assertThat(diff.toString(), is("["
+        + "{\"op\":\"+\",\"stack\":\".order.3\",\"nodes\":3},"
+        + "{\"op\":\"-\",\"stack\":\".order.2\",\"nodes\":3},"
+        + "{\"op\":\"~\",\"stack\":\".order.1.pricing\",\"from\":\"11\","
+        + "\"to\":\"12\"}]"));
+  }
+
+  private DomainLog tree(final String appender, final boolean changed) {
+    DomainLogger log = DomainLogger.get(appender);
+    log.log("order.1.pricing", "10");
+    log.log("order.1.pricing", changed ? "12" : "11");
+    if (changed) {
+      log.log("order.3.pricing", "30");
+    } else {
+      log.log("order.2.shipping", "5");
+    }
+    return log.generate();
+  }
+
+}
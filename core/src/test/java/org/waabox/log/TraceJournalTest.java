@@ -0,0 +1,63 @@
+package org.waabox.log;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+public class TraceJournalTest {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private DomainLog tree(final String value) {
+    DomainLog root = new DomainLog(".");
+    DomainLog stack = new DomainLog(".orders");
+    stack.add(new DomainLog(".orders", value));
+    root.add(stack);
+    return root;
+  }
+
+  @Test public void appendAndRead() throws Exception {
+    File directory = folder.newFolder("journal");
+    TraceJournal journal = new TraceJournal(directory, 256);
+    for (int i = 0; i < 20; i++) {
+      journal.write(Arrays.asList(
+          new Trace("request-" + i, "test", i, tree(String.valueOf(i)))));
+    }
+    assertThat(directory.list().length > 2, is(true));
+
+    Trace trace = journal.read("request-7", "test");
+    assertThat(trace.getTimestamp(), is(7L));
+    assertThat(trace.getLog().toString(), is(tree("7").toString()));
+    assertThat(journal.find("request-7", "test").value(2), is("7"));
+    assertThat(journal.read("request-7", "other"), is(nullValue()));
+    journal.close();
+  }
+
+  @Test public void reopen() throws Exception {
+    File directory = folder.newFolder("journal");
+    TraceJournal journal = new TraceJournal(directory, 1024);
+    journal.append(new Trace("1", "test", 1, tree("1")));
+    journal.append(new Trace("2", "test", 2, tree("2")));
+    journal.close();
+
+    journal = new TraceJournal(directory, 1024);
+    assertThat(journal.size(), is(2));
+    journal.append(new Trace("3", "test", 3, tree("3")));
+    journal.close();
+
+    journal = new TraceJournal(directory, 1024);
+    assertThat(journal.size(), is(3));
+    assertThat(journal.read("1", "test").getLog().toString(),
+        is(tree("1").toString()));
+    assertThat(journal.read("3", "test").getLog().toString(),
+        is(tree("3").toString()));
+    journal.close();
+  }
+
+}
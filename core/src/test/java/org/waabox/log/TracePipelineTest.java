@@ -0,0 +1,106 @@
+package org.waabox.log;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.*;
+import java.util.*;
+
+import org.json.JSONObject;
+import org.junit.*;
+
+public class TracePipelineTest {
+
+  private final List<Trace> received =
+      Collections.synchronizedList(new ArrayList<Trace>());
+
+  private final TraceSink sink = new TraceSink() {
+    @Override
+    public void write(final List<Trace> traces) {
+      received.addAll(traces);
+    }
+  };
+
+  private Trace trace(final int id) {
+    return new Trace(String.valueOf(id), "test", new DomainLog("."));
+  }
+
+  @Test public void offer() throws Exception {
+    TracePipeline pipeline = new TracePipeline(16, 4, Backpressure.block(),
+        Arrays.asList(sink)).start();
+    for (int i = 0; i < 1000; i++) {
+      assertThat(pipeline.offer(trace(i)), is(true));
+    }
+    pipeline.close();
+
+    assertThat(received.size(), is(1000));
+    for (int i = 0; i < 1000; i++) {
+      assertThat(received.get(i).getId(), is(String.valueOf(i)));
+    }
+    assertThat(pipeline.getAccepted(), is(1000L));
+    assertThat(pipeline.getDropped(), is(0L));
+    assertThat(pipeline.offer(trace(1000)), is(false));
+  }
+
+  @Test public void offer_close() throws Exception {
+    final TracePipeline pipeline = new TracePipeline(64, 4,
+        Backpressure.block(), Arrays.asList(sink)).start();
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          int i = 0;
+          while (pipeline.offer(trace(i++))) {
+          }
+        }
+      });
+      threads[t].start();
+    }
+    Thread.sleep(20);
+    pipeline.close();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertThat((long) received.size(), is(pipeline.getAccepted()));
+  }
+
+  @Test public void offer_drop() throws Exception {
+    TracePipeline pipeline = new TracePipeline(4, 4, Backpressure.drop(),
+        Arrays.asList(sink));
+    for (int i = 0; i < 10; i++) {
+      pipeline.offer(trace(i));
+    }
+    assertThat(pipeline.getAccepted(), is(4L));
+    assertThat(pipeline.getDropped(), is(6L));
+
+    pipeline.close();
+    assertThat(received.size(), is(4));
+  }
+
+  @Test public void offer_sample() throws Exception {
+    TracePipeline pipeline = new TracePipeline(8, 4,
+        Backpressure.sample(2), Arrays.asList(sink));
+    for (int i = 0; i < 8; i++) {
+      pipeline.offer(trace(i));
+    }
+    assertThat(pipeline.getAccepted(), is(6L));
+    assertThat(pipeline.getDropped(), is(2L));
+    pipeline.close();
+  }
+
+  @Test public void writerSink() throws Exception {
+    StringWriter out = new StringWriter();
+    DomainLog log = new DomainLog(".");
+    log.add(new DomainLog(".a", "1"));
+    new WriterTraceSink(out, true).write(
+        Arrays.asList(new Trace("id", "test", 10, log)));
+
+    JSONObject json = new JSONObject(out.toString().trim());
+    assertThat(json.getString("id"), is("id"));
+    assertThat(json.getLong("timestamp"), is(10L));
+    assertThat(json.getJSONObject("log").getJSONArray("nodes")
+        .getJSONObject(0).getString("value"), is("1"));
+  }
+
+}
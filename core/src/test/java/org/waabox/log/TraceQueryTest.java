@@ -0,0 +1,85 @@
+package org.waabox.log;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.*;
+
+import org.junit.*;
+
+public class TraceQueryTest {
+
+  private DomainLogger log;
+
+  @Before public void setUp() {
+    DomainLogger.cleanup();
+    log = DomainLogger.get("query");
+    log.log("order.1.pricing", "10");
+    log.log("order.1.pricing.discount", "2");
+    log.log("order.2.pricing", "20");
+    log.log("order.2.shipping", "5");
+    log.log("order.12.pricing", "30");
+    log.log("customer.pricing", "40");
+  }
+
+  @After public void after() {
+    DomainLogger.cleanup();
+  }
+
+  @Test public void wildcardSegment() {
+    TraceQuery query = TraceQuery.compile(".order.*.pricing").values();
+    assertThat(values(query.find(log)), is("[10, 20, 30]"));
+  }
+
+  @Test public void anySegments() {
+    TraceQuery query = TraceQuery.compile("order.**").values();
+    assertThat(values(query.find(log.generate())),
+        is("[10, 2, 20, 5, 30]"));
+    assertThat(values(TraceQuery.compile("**.pricing").values()
+        .find(log)), is("[10, 20, 30, 40]"));
+    assertThat(values(TraceQuery.compile(".order.**.discount").values()
+        .find(log)), is("[2]"));
+  }
+
+  @Test public void globWithinSegment() {
+    TraceQuery query = TraceQuery.compile(".order.1?.pric*").values();
+    assertThat(values(query.find(log)), is("[30]"));
+    assertThat(query.matches(".order.12.pricing"), is(true));
+    assertThat(query.matches(".order.1.pricing"), is(false));
+  }
+
+  @Test public void stacks() {
+    TraceQuery query = TraceQuery.compile(".order.*");
+    List<String> stacks = new ArrayList<>();
+    Iterator<DomainLog> matches = query.find(log);
+    while (matches.hasNext()) {
+      stacks.add(matches.next().getStack());
+    }
+    assertThat(stacks.toString(),
+        is("[.order.1, .order.2, .order.12]"));
+    assertThat(query.stream(log.generate()).count(), is(3L));
+  }
+
+  @Test public void trace() {
+    DomainLogTrace trace = DomainLogTrace.wrap(
+        DomainLogBinaryWriter.encode(log.generate()));
+    TraceQuery query = TraceQuery.compile(".order.*.pricing").values();
+    List<String> values = new ArrayList<>();
+    PrimitiveIterator.OfInt nodes = query.find(trace);
+    while (nodes.hasNext()) {
+      values.add(trace.value(nodes.nextInt()));
+    }
+    assertThat(values.toString(), is("[10, 20, 30]"));
+    assertThat(TraceQuery.compile("**").values().stream(trace).count(),
+        is(6L));
+  }
+
+  private String values(final Iterator<DomainLog> matches) {
+    List<String> values = new ArrayList<>();
+    while (matches.hasNext()) {
+      values.add(matches.next().getValue());
+    }
+    return values.toString();
+  }
+
+}
@@ -0,0 +1,81 @@
+package org.waabox.log.spring;
+
+import java.util.concurrent.Callable;
+
+import javax.servlet.ServletRequest;
+
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.async.CallableProcessingInterceptorAdapter;
+
+import org.waabox.log.DomainLogger;
+import org.waabox.log.TraceContext;
+
+/** Runs the Callable returned by a controller within the TraceContext of
+ * its request.
+ *
+ * Spring calls the Callable in a thread of its task executor, so without
+ * this interceptor the entries logged by it would go to the loggers of
+ * that thread and never reach the trace of the request. The loggers the
+ * executor thread had before are attached back once the Callable is done.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+public class DomainLogCallableInterceptor
+    extends CallableProcessingInterceptorAdapter {
+
+  /** The request attribute with the TraceContext the executor thread had
+   * before the Callable.*/
+  private static final String PREVIOUS_ATTRIBUTE =
+      DomainLogCallableInterceptor.class.getName() + ".previous";
+
+  /** {@inheritDoc}.
+   *
+   * Keeps the context of the request, in the thread of the request.
+   */
+  @Override
+  public <T> void beforeConcurrentHandling(final NativeWebRequest request,
+      final Callable<T> task) throws Exception {
+    context(request);
+  }
+
+  /** {@inheritDoc}.
+   *
+   * Makes the context of the request the context of the executor thread.
+   */
+  @Override
+  public <T> void preProcess(final NativeWebRequest request,
+      final Callable<T> task) throws Exception {
+    request.setAttribute(PREVIOUS_ATTRIBUTE, context(request).attach(),
+        RequestAttributes.SCOPE_REQUEST);
+  }
+
+  /** {@inheritDoc}.
+   *
+   * Attaches back the context the executor thread had before.
+   */
+  @Override
+  public <T> void postProcess(final NativeWebRequest request,
+      final Callable<T> task, final Object concurrentResult)
+          throws Exception {
+    TraceContext previous = (TraceContext) request.getAttribute(
+        PREVIOUS_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+    if (previous == null) {
+      DomainLogger.detach();
+    } else {
+      request.removeAttribute(PREVIOUS_ATTRIBUTE,
+          RequestAttributes.SCOPE_REQUEST);
+      previous.attach();
+    }
+  }
+
+  /** Retrieves the context of the given request.
+   * @param request the request.
+   * @return the context, never null.
+   */
+  private TraceContext context(final NativeWebRequest request) {
+    return DomainLogFilter.context(
+        request.getNativeRequest(ServletRequest.class));
+  }
+
+}
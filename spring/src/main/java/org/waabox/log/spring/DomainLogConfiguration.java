@@ -21,6 +21,8 @@ import org.springframework.web.servlet.config.annotation.*;
 
 import org.springframework.web.servlet.support.*;
 
+import org.waabox.log.TracePipeline;
+
 /** Configuration class for Domain DomainLog.
  *
  * @author waabox (me[at]waabox[dot]org)
@@ -41,7 +43,18 @@ public class DomainLogConfiguration
   public void onStartup(final ServletContext servletContext)
       throws ServletException {
     super.onStartup(servletContext);
-    servletContext.addFilter("DomainLogFilter", DomainLogFilter.class);
+    servletContext.addFilter("DomainLogFilter",
+        new DomainLogFilter(tracePipeline())).setAsyncSupported(true);
+  }
+
+  /** Retrieves the pipeline that receives the trace of each request.
+   *
+   * Override it to keep the traces, by default they are dropped.
+   *
+   * @return the started pipeline, null to drop the traces.
+   */
+  protected TracePipeline tracePipeline() {
+    return null;
   }
 
   /** {@inheritDoc}. */
@@ -55,9 +68,15 @@ public class DomainLogConfiguration
       final ContentNegotiationConfigurer configurer) {
   }
 
-  /** {@inheritDoc}. */
+  /** {@inheritDoc}.
+   *
+   * Runs the Callables returned by the controllers within the context of
+   * their request.
+   */
   @Override
   public void configureAsyncSupport(final AsyncSupportConfigurer configurer) {
+    configurer.registerCallableInterceptors(
+        new DomainLogCallableInterceptor());
   }
 
   /** {@inheritDoc}. */
@@ -109,10 +128,14 @@ public class DomainLogConfiguration
       final List<HttpMessageConverter<?>> converters) {
   }
 
-  /** {@inheritDoc}. */
+  /** {@inheritDoc}.
+   *
+   * Adds the converter that streams the DomainLog trees as JSON.
+   */
   @Override
   public void extendMessageConverters(
       final List<HttpMessageConverter<?>> converters) {
+    converters.add(0, new DomainLogHttpMessageConverter());
   }
 
   /** {@inheritDoc}. */
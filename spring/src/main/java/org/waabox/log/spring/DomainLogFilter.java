@@ -1,17 +1,64 @@
 package org.waabox.log.spring;
 
 import java.io.IOException;
+import java.util.UUID;
 
 import javax.servlet.*;
+import javax.servlet.http.HttpServletRequest;
 
+import org.waabox.log.DomainLog;
 import org.waabox.log.DomainLogger;
+import org.waabox.log.Trace;
+import org.waabox.log.TraceContext;
+import org.waabox.log.TracePipeline;
 
 /** Cleans up the ThreadLocal storage located in the DomainLogger.
+ *
+ * When it has a {@link TracePipeline}, the trace of every appender is
+ * handed off to the pipeline before the clean up, identified by the
+ * X-Request-Id header of the request or by a random id.
+ *
+ * The loggers of the request are kept in a {@link TraceContext} stored as
+ * a request attribute. When the request goes async, the thread only
+ * forgets them, and the trace is handed off and cleaned up once the async
+ * request completes. Every dispatch of the same request logs into the
+ * same trees, no matter the thread that runs it.
+ *
+ * The loggers the thread had before the request are attached back after
+ * each dispatch, they are never dropped. When the thread had logged
+ * nothing, the request uses the loggers of the thread itself, so a
+ * request that ends in the same dispatch reuses them, recycled when
+ * {@link DomainLogger#recycle(int)} is on, instead of allocating new
+ * ones.
  *
  * @author waabox (me[at]waabox[dot]org)
  */
 public class DomainLogFilter implements Filter {
 
+  /** The header with the id of the request.*/
+  public static final String REQUEST_ID_HEADER = "X-Request-Id";
+
+  /** The request attribute with the TraceContext of the request.*/
+  public static final String CONTEXT_ATTRIBUTE =
+      DomainLogFilter.class.getName() + ".context";
+
+  /** The pipeline that receives the finished traces, null to just drop
+   * them.*/
+  private final TracePipeline pipeline;
+
+  /** Creates a new filter that drops the traces.*/
+  public DomainLogFilter() {
+    this(null);
+  }
+
+  /** Creates a new filter.
+   * @param thePipeline the pipeline that receives the finished traces,
+   *  null to just drop them.
+   */
+  public DomainLogFilter(final TracePipeline thePipeline) {
+    pipeline = thePipeline;
+  }
+
   /** {@inheritDoc}. */
   @Override
   public void init(final FilterConfig filterConfig) throws ServletException {
@@ -23,10 +70,92 @@ public class DomainLogFilter implements Filter {
       final ServletRequest request,
       final ServletResponse response,
       final FilterChain chain) throws IOException, ServletException {
+    TraceContext context;
+    context = (TraceContext) request.getAttribute(CONTEXT_ATTRIBUTE);
+    TraceContext previous = null;
+    if (context == null) {
+      context = TraceContext.current();
+      if (!context.isEmpty()) {
+        context = TraceContext.create();
+        previous = context.attach();
+      }
+      request.setAttribute(CONTEXT_ATTRIBUTE, context);
+    } else {
+      previous = context.attach();
+    }
     try {
       chain.doFilter(request, response);
     } finally {
-      DomainLogger.cleanup();
+      boolean async = false;
+      try {
+        async = request.isAsyncStarted();
+        if (async) {
+          request.getAsyncContext().addListener(new Completion(context));
+        } else {
+          finish(request, context);
+        }
+      } finally {
+        if (previous != null) {
+          previous.attach();
+        } else if (async) {
+          DomainLogger.detach();
+        }
+      }
+    }
+  }
+
+  /** Retrieves the context of the given request, creating it on the first
+   * dispatch.
+   * @param request the request.
+   * @return the context, never null.
+   */
+  static TraceContext context(final ServletRequest request) {
+    TraceContext context;
+    context = (TraceContext) request.getAttribute(CONTEXT_ATTRIBUTE);
+    if (context == null) {
+      context = TraceContext.create();
+      request.setAttribute(CONTEXT_ATTRIBUTE, context);
+    }
+    return context;
+  }
+
+  /** Hands off the trace of the given request and cleans it up.
+   * @param request the request that generated the traces.
+   * @param context the context of the request.
+   */
+  private void finish(final ServletRequest request,
+      final TraceContext context) {
+    try {
+      if (pipeline != null) {
+        handOff(request, context);
+      }
+    } finally {
+      context.clear();
+      request.removeAttribute(CONTEXT_ATTRIBUTE);
+    }
+  }
+
+  /** Hands off the trace of every appender to the pipeline.
+   * @param request the request that generated the traces.
+   * @param context the context of the request.
+   */
+  private void handOff(final ServletRequest request,
+      final TraceContext context) {
+    String id = null;
+    if (request instanceof HttpServletRequest) {
+      id = ((HttpServletRequest) request).getHeader(REQUEST_ID_HEADER);
+    }
+    if (id == null) {
+      id = UUID.randomUUID().toString();
+    }
+    for (String appender : context.appenders()) {
+      DomainLog log;
+      try {
+        log = context.get(appender).generate();
+      } catch (DomainLogger.StackNotFoundException e) {
+        continue;
+      }
+      pipeline.offer(new Trace(id, appender, log));
     }
   }
 
@@ -35,4 +164,44 @@ public class DomainLogFilter implements Filter {
   public void destroy() {
   }
 
+  /** Finishes the trace of an async request once it completes.
+   *
+   * The container calls onComplete after a timeout or an error too, and
+   * a new listener is registered on each dispatch that starts the request
+   * async again.
+   */
+  private final class Completion implements AsyncListener {
+
+    /** The context of the request, it's never null.*/
+    private final TraceContext context;
+
+    /** Creates a new listener.
+     * @param theContext the context of the request, cannot be null.
+     */
+    private Completion(final TraceContext theContext) {
+      context = theContext;
+    }
+
+    /** {@inheritDoc}. */
+    @Override
+    public void onComplete(final AsyncEvent event) throws IOException {
+      finish(event.getSuppliedRequest(), context);
+    }
+
+    /** {@inheritDoc}. */
+    @Override
+    public void onTimeout(final AsyncEvent event) throws IOException {
+    }
+
+    /** {@inheritDoc}. */
+    @Override
+    public void onError(final AsyncEvent event) throws IOException {
+    }
+
+    /** {@inheritDoc}. */
+    @Override
+    public void onStartAsync(final AsyncEvent event) throws IOException {
+    }
+  }
+
 }
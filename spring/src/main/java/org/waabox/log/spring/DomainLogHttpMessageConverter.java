@@ -0,0 +1,77 @@
+package org.waabox.log.spring;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import org.waabox.log.DomainLog;
+import org.waabox.log.DomainLogJsonWriter;
+
+/** Writes the DomainLog trees returned by the controllers as JSON, the
+ * format the log view of the front-end reads.
+ *
+ * The tree is streamed straight into the response body. The content
+ * length is not known up front, so the response is sent chunked and, for
+ * big traces, it's flushed every chunk size characters instead of being
+ * buffered as a whole.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+public class DomainLogHttpMessageConverter
+    extends AbstractHttpMessageConverter<DomainLog> {
+
+  /** The default number of characters written between flushes.*/
+  public static final int DEFAULT_CHUNK_SIZE = 8192;
+
+  /** The number of characters written between flushes, 0 to flush only
+   * at the end.*/
+  private final int chunkSize;
+
+  /** Creates a new converter that flushes every
+   * {@link #DEFAULT_CHUNK_SIZE} characters.*/
+  public DomainLogHttpMessageConverter() {
+    this(DEFAULT_CHUNK_SIZE);
+  }
+
+  /** Creates a new converter.
+   * @param theChunkSize the number of characters written between
+   *  flushes, 0 to flush only at the end.
+   */
+  public DomainLogHttpMessageConverter(final int theChunkSize) {
+    super(new MediaType("application", "json", StandardCharsets.UTF_8));
+    chunkSize = theChunkSize;
+  }
+
+  /** {@inheritDoc}. */
+  @Override
+  protected boolean supports(final Class<?> clazz) {
+    return DomainLog.class.isAssignableFrom(clazz);
+  }
+
+  /** {@inheritDoc}. */
+  @Override
+  protected boolean canRead(final MediaType mediaType) {
+    return false;
+  }
+
+  /** {@inheritDoc}. */
+  @Override
+  protected DomainLog readInternal(final Class<? extends DomainLog> clazz,
+      final HttpInputMessage inputMessage) throws IOException {
+    throw new HttpMessageNotReadableException(
+        "DomainLog trees cannot be read");
+  }
+
+  /** {@inheritDoc}. */
+  @Override
+  protected void writeInternal(final DomainLog log,
+      final HttpOutputMessage outputMessage) throws IOException {
+    new DomainLogJsonWriter(chunkSize).write(log, outputMessage.getBody());
+  }
+
+}
@@ -0,0 +1,137 @@
+package org.waabox.log.spring;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import org.waabox.log.DomainLogMetrics;
+import org.waabox.log.LoggerMetrics;
+
+/** Publishes the {@link DomainLogMetrics} into a Micrometer registry, with
+ * the appender as a tag.
+ *
+ * Micrometer is an optional dependency, declare this binder as a bean, or
+ * bind it to the registry, only when it's in the classpath. Binding it
+ * enables the metrics of the loggers.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+public class DomainLogMeterBinder implements MeterBinder {
+
+  /** The prefix of the name of the meters.*/
+  public static final String PREFIX = "domainlog.";
+
+  /** {@inheritDoc}. */
+  @Override
+  public void bindTo(final MeterRegistry registry) {
+    DomainLogMetrics.addListener(new DomainLogMetrics.Listener() {
+      @Override
+      public void created(final LoggerMetrics metrics) {
+        bind(registry, metrics);
+      }
+    });
+    DomainLogMetrics.enable();
+  }
+
+  /** Registers the meters of an appender.
+   * @param registry the registry.
+   * @param metrics the metrics of the appender.
+   */
+  private void bind(final MeterRegistry registry,
+      final LoggerMetrics metrics) {
+    Tags appender = Tags.of("appender", metrics.getAppender());
+    counter(registry, "logs", appender, metrics,
+        new ToDoubleFunction<LoggerMetrics>() {
+          @Override
+          public double applyAsDouble(final LoggerMetrics m) {
+            return m.getLogs();
+          }
+        });
+    counter(registry, "duplicates", appender, metrics,
+        new ToDoubleFunction<LoggerMetrics>() {
+          @Override
+          public double applyAsDouble(final LoggerMetrics m) {
+            return m.getDuplicates();
+          }
+        });
+    counter(registry, "stacks", appender, metrics,
+        new ToDoubleFunction<LoggerMetrics>() {
+          @Override
+          public double applyAsDouble(final LoggerMetrics m) {
+            return m.getStacks();
+          }
+        });
+    counter(registry, "entries", appender, metrics,
+        new ToDoubleFunction<LoggerMetrics>() {
+          @Override
+          public double applyAsDouble(final LoggerMetrics m) {
+            return m.getEntries();
+          }
+        });
+    counter(registry, "truncated", appender, metrics,
+        new ToDoubleFunction<LoggerMetrics>() {
+          @Override
+          public double applyAsDouble(final LoggerMetrics m) {
+            return m.getTruncated();
+          }
+        });
+    counter(registry, "rendered.chars", appender, metrics,
+        new ToDoubleFunction<LoggerMetrics>() {
+          @Override
+          public double applyAsDouble(final LoggerMetrics m) {
+            return m.getRenderedChars();
+          }
+        });
+    counter(registry, "cleanup.entries", appender, metrics,
+        new ToDoubleFunction<LoggerMetrics>() {
+          @Override
+          public double applyAsDouble(final LoggerMetrics m) {
+            return m.getCleanupEntries();
+          }
+        });
+    registry.more().timer(PREFIX + "generate", appender, metrics,
+        new ToLongFunction<LoggerMetrics>() {
+          @Override
+          public long applyAsLong(final LoggerMetrics m) {
+            return m.getGenerates();
+          }
+        },
+        new ToDoubleFunction<LoggerMetrics>() {
+          @Override
+          public double applyAsDouble(final LoggerMetrics m) {
+            return m.getGenerateNanos();
+          }
+        }, TimeUnit.NANOSECONDS);
+    registry.more().timer(PREFIX + "cleanup", appender, metrics,
+        new ToLongFunction<LoggerMetrics>() {
+          @Override
+          public long applyAsLong(final LoggerMetrics m) {
+            return m.getCleanups();
+          }
+        },
+        new ToDoubleFunction<LoggerMetrics>() {
+          @Override
+          public double applyAsDouble(final LoggerMetrics m) {
+            return m.getCleanupNanos();
+          }
+        }, TimeUnit.NANOSECONDS);
+  }
+
+  /** Registers a counter of an appender.
+   * @param registry the registry.
+   * @param name the name of the counter, without the prefix.
+   * @param appender the tag of the appender.
+   * @param metrics the metrics of the appender.
+   * @param value retrieves the value of the counter.
+   */
+  private void counter(final MeterRegistry registry, final String name,
+      final Tags appender, final LoggerMetrics metrics,
+      final ToDoubleFunction<LoggerMetrics> value) {
+    registry.more().counter(PREFIX + name, appender, metrics, value);
+  }
+
+}
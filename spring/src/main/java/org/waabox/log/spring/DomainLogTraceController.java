@@ -0,0 +1,214 @@
+package org.waabox.log.spring;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.PrimitiveIterator;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.Validate;
+
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.context.request.WebRequest;
+
+import org.waabox.log.DomainLogJsonWriter;
+import org.waabox.log.DomainLogMetrics;
+import org.waabox.log.DomainLogTrace;
+import org.waabox.log.TraceJournal;
+import org.waabox.log.TraceQuery;
+
+/** Serves the traces of a {@link TraceJournal} a page at a time, so the
+ * log view of the front-end can browse traces of any size.
+ *
+ * GET /log/traces/{id}/{appender} returns the subtree of the entry with
+ * the given stack, the root by default, with up to limit children per
+ * entry and depth levels below it:
+ *
+ * <pre>
+ * {"node":{"stack":".a","size":250,"nodes":[...]},
+ *  "next":"64.9f86d081884c7d65"}
+ * </pre>
+ *
+ * The "size" of each entry is its number of children, and "next" is the
+ * cursor to request the following page of children of the entry, absent
+ * on the last page. The trace is read in place from the journal and
+ * streamed in chunks, only the entries of the page are read.
+ *
+ * The ETag of the response and the cursors carry the fingerprint of the
+ * trace, see {@link DomainLogTrace#fingerprint()}, that was stored with
+ * it when it was written, so a client that sends the ETag back in
+ * If-None-Match gets a 304 while the trace is not replaced, and a cursor
+ * of a replaced trace is rejected.
+ *
+ * Declare it as a bean of the dispatcher servlet context to enable it.
+ *
+ * @author waabox (me[at]waabox[dot]org)
+ */
+@Controller
+public class DomainLogTraceController {
+
+  /** The default number of children written per entry.*/
+  public static final int DEFAULT_LIMIT = 100;
+
+  /** The maximum number of children written per entry.*/
+  public static final int MAX_LIMIT = 1000;
+
+  /** The maximum number of levels written below the entry.*/
+  public static final int MAX_DEPTH = 8;
+
+  /** The journal with the traces, it's never null.*/
+  private final TraceJournal journal;
+
+  /** The number of characters written between flushes.*/
+  private final int chunkSize;
+
+  /** Creates a new controller that flushes the response every
+   * {@link DomainLogHttpMessageConverter#DEFAULT_CHUNK_SIZE} characters.
+   * @param theJournal the journal with the traces, cannot be null.
+   */
+  public DomainLogTraceController(final TraceJournal theJournal) {
+    this(theJournal, DomainLogHttpMessageConverter.DEFAULT_CHUNK_SIZE);
+  }
+
+  /** Creates a new controller.
+   * @param theJournal the journal with the traces, cannot be null.
+   * @param theChunkSize the number of characters written between
+   *  flushes, 0 to flush only at the end.
+   */
+  public DomainLogTraceController(final TraceJournal theJournal,
+      final int theChunkSize) {
+    Validate.notNull(theJournal, "The journal cannot be null");
+    Validate.isTrue(theChunkSize >= 0, "The chunk size cannot be negative");
+    journal = theJournal;
+    chunkSize = theChunkSize;
+  }
+
+  /** Writes a page of the subtree of an entry of a trace.
+   * @param id the request id of the trace.
+   * @param appender the appender of the trace.
+   * @param stack the stack of the entry, the root if it's null.
+   * @param cursor the cursor of the page, the first page if it's null.
+   * @param limit the maximum number of children per entry.
+   * @param depth the number of levels below the entry.
+   * @param request the request, to check the ETag.
+   * @param response the response.
+   * @throws IOException if the journal or the response fail.
+   */
+  @RequestMapping(value = "/log/traces/{id}/{appender:.+}",
+      method = RequestMethod.GET)
+  public void trace(
+      @PathVariable("id") final String id,
+      @PathVariable("appender") final String appender,
+      @RequestParam(value = "stack", required = false) final String stack,
+      @RequestParam(value = "cursor", required = false) final String cursor,
+      @RequestParam(value = "limit", defaultValue = "" + DEFAULT_LIMIT)
+      final int limit,
+      @RequestParam(value = "depth", defaultValue = "1") final int depth,
+      final WebRequest request, final HttpServletResponse response)
+      throws IOException {
+    if (limit <= 0 || limit > MAX_LIMIT || depth < 0 || depth > MAX_DEPTH) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+          "The limit must be between 1 and " + MAX_LIMIT
+          + " and the depth between 0 and " + MAX_DEPTH);
+      return;
+    }
+    DomainLogTrace trace = journal.find(id, appender);
+    if (trace == null) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+    int node = find(trace, stack);
+    if (node == DomainLogTrace.NONE) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+    long fingerprint = trace.fingerprint();
+    int from = DomainLogTrace.NONE;
+    if (cursor != null) {
+      from = from(trace, node, cursor, fingerprint);
+      if (from == DomainLogTrace.NONE) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+            "The cursor is not one of this entry, or the entry changed");
+        return;
+      }
+    }
+    String etag = "\"" + Long.toHexString(fingerprint) + "-" + limit + "-"
+        + depth + (cursor == null ? "" : "-" + cursor) + "\"";
+    if (request.checkNotModified(etag)) {
+      return;
+    }
+    response.setContentType("application/json;charset=UTF-8");
+    Writer out = new BufferedWriter(new OutputStreamWriter(
+        response.getOutputStream(), StandardCharsets.UTF_8));
+    out.write("{\"node\":");
+    DomainLogJsonWriter json = new DomainLogJsonWriter(chunkSize);
+    int next = json.write(trace, node, from, limit, depth, out);
+    String tail = "}";
+    if (next != DomainLogTrace.NONE) {
+      tail = ",\"next\":\"" + next + "." + Long.toHexString(fingerprint)
+          + "\"}";
+    }
+    out.write(tail);
+    out.flush();
+    DomainLogMetrics.rendered(appender, "{\"node\":".length()
+        + json.getWritten() + tail.length());
+  }
+
+  /** Finds the first entry of a trace with the given stack, preferring
+   * the entry that declares the stack over the ones with a value.
+   * @param trace the trace.
+   * @param stack the stack, null or "." for the root.
+   * @return the entry, NONE if there is none.
+   */
+  private static int find(final DomainLogTrace trace, final String stack) {
+    if (stack == null || stack.isEmpty() || stack.equals(".")) {
+      return 0;
+    }
+    String theStack = stack.startsWith(".") ? stack : "." + stack;
+    PrimitiveIterator.OfInt nodes;
+    try {
+      nodes = TraceQuery.compile(theStack).find(trace);
+    } catch (IllegalArgumentException e) {
+      return DomainLogTrace.NONE;
+    }
+    while (nodes.hasNext()) {
+      int node = nodes.nextInt();
+      if (trace.stack(node).equals(theStack)) {
+        return node;
+      }
+    }
+    return DomainLogTrace.NONE;
+  }
+
+  /** Resolves the child of an entry a cursor continues from.
+   * @param trace the trace.
+   * @param node the entry.
+   * @param cursor the cursor, the child and the fingerprint of the trace.
+   * @param fingerprint the fingerprint of the trace.
+   * @return the child, NONE if the cursor is not valid for the entry.
+   */
+  private static int from(final DomainLogTrace trace, final int node,
+      final String cursor, final long fingerprint) {
+    int dot = cursor.indexOf('.');
+    if (dot == -1
+        || !cursor.substring(dot + 1).equals(Long.toHexString(fingerprint))) {
+      return DomainLogTrace.NONE;
+    }
+    int child;
+    try {
+      child = Integer.parseInt(cursor.substring(0, dot));
+    } catch (NumberFormatException e) {
+      return DomainLogTrace.NONE;
+    }
+    if (child <= node || child >= trace.size()
+        || trace.parent(child) != node) {
+      return DomainLogTrace.NONE;
+    }
+    return child;
+  }
+
+}
@@ -0,0 +1,110 @@
+package org.waabox.log.spring;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.lang.reflect.*;
+import java.util.*;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.*;
+
+import org.waabox.log.DomainLogger;
+
+public class DomainLogFilterTest {
+
+  private final DomainLogFilter filter = new DomainLogFilter();
+
+  @After public void after() {
+    DomainLogger.recycle(0);
+    DomainLogger.cleanup();
+  }
+
+  private void run(final FilterChain chain) throws Exception {
+    filter.doFilter(request(), (HttpServletResponse) Proxy.newProxyInstance(
+        getClass().getClassLoader(),
+        new Class<?>[] {HttpServletResponse.class}, new InvocationHandler() {
+          @Override
+          public Object invoke(final Object proxy, final Method method,
+              final Object[] args) {
+            return empty(method.getReturnType());
+          }
+        }), chain);
+  }
+
+  @Test public void previousLoggers() throws Exception {
+    DomainLogger.get("outer").log("before", "1");
+    run(new FilterChain() {
+      @Override
+      public void doFilter(final ServletRequest request,
+          final ServletResponse response) {
+        assertThat(DomainLogger.appenders().isEmpty(), is(true));
+        DomainLogger.get("inner").log("request", "2");
+      }
+    });
+    assertThat(DomainLogger.appenders(),
+        is((Set<String>) Collections.singleton("outer")));
+    assertThat(DomainLogger.get("outer").generate().toString()
+        .contains("before"), is(true));
+  }
+
+  @Test public void recycled() throws Exception {
+    DomainLogger.recycle(10);
+    final List<DomainLogger> loggers = new ArrayList<>();
+    FilterChain chain = new FilterChain() {
+      @Override
+      public void doFilter(final ServletRequest request,
+          final ServletResponse response) {
+        DomainLogger log = DomainLogger.get("test");
+        log.log("request", "1");
+        loggers.add(log);
+      }
+    };
+    run(chain);
+    run(chain);
+    assertThat(loggers.get(1), is(sameInstance(loggers.get(0))));
+    assertThat(DomainLogger.appenders().isEmpty(), is(true));
+  }
+
+  private HttpServletRequest request() {
+    final Map<String, Object> attributes = new HashMap<>();
+    return (HttpServletRequest) Proxy.newProxyInstance(
+        getClass().getClassLoader(), new Class<?>[] {HttpServletRequest.class},
+        new InvocationHandler() {
+          @Override
+          public Object invoke(final Object proxy, final Method method,
+              final Object[] args) {
+            switch (method.getName()) {
+            case "getAttribute":
+              return attributes.get(args[0]);
+            case "setAttribute":
+              attributes.put((String) args[0], args[1]);
+              return null;
+            case "removeAttribute":
+              attributes.remove(args[0]);
+              return null;
+            default:
+              return empty(method.getReturnType());
+            }
+          }
+        });
+  }
+
+  private static Object empty(final Class<?> type) {
+    if (type == boolean.class) {
+      return false;
+    } else if (type == int.class) {
+      return 0;
+    } else if (type == long.class) {
+      return 0L;
+    }
+    return null;
+  }
+
+}
@@ -0,0 +1,250 @@
+package org.waabox.log.spring;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import org.springframework.web.context.request.ServletWebRequest;
+
+import org.waabox.log.DomainLog;
+import org.waabox.log.DomainLogger;
+import org.waabox.log.Trace;
+import org.waabox.log.TraceJournal;
+
+public class DomainLogTraceControllerTest {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private TraceJournal journal;
+
+  private DomainLogTraceController controller;
+
+  @Before public void setUp() throws Exception {
+    journal = new TraceJournal(folder.newFolder("journal"));
+    journal.append(new Trace("1", "test", tree("john")));
+    controller = new DomainLogTraceController(journal);
+  }
+
+  @After public void after() throws Exception {
+    journal.close();
+  }
+
+  private DomainLog tree(final String customer) {
+    try {
+      DomainLogger log = DomainLogger.get("test");
+      for (int i = 0; i < 5; i++) {
+        log.log("orders", String.valueOf(i));
+      }
+      log.log("customer", customer);
+      return log.generate();
+    } finally {
+      DomainLogger.cleanup();
+    }
+  }
+
+  private Response get(final String id, final String stack,
+      final String cursor, final int limit, final int depth,
+      final String etag) throws IOException {
+    Response response = new Response();
+    HttpServletRequest request = request(etag);
+    HttpServletResponse servletResponse = response.proxy();
+    controller.trace(id, "test", stack, cursor, limit, depth,
+        new ServletWebRequest(request, servletResponse), servletResponse);
+    return response;
+  }
+
+  private String next(final Response response) {
+    String body = response.body();
+    int start = body.indexOf("\"next\":\"");
+    if (start == -1) {
+      return null;
+    }
+    start += "\"next\":\"".length();
+    return body.substring(start, body.indexOf('"', start));
+  }
+
+  @Test public void page() throws Exception {
+    Response response = get("1", "orders", null, 2, 1, null);
+    assertThat(response.status, is(HttpServletResponse.SC_OK));
+    assertThat(response.body().startsWith(
+        "{\"node\":{\"stack\":\".orders\",\"size\":5,\"nodes\":["
+        + "{\"stack\":\".orders\",\"value\":\"0\","), is(true));
+    assertThat(response.body().contains("\"value\":\"2\""), is(false));
+
+    response = get("1", "orders", next(response), 2, 1, null);
+    assertThat(response.body().contains("\"value\":\"2\""), is(true));
+    assertThat(response.body().contains("\"value\":\"3\""), is(true));
+    assertThat(response.body().contains("\"value\":\"4\""), is(false));
+
+    response = get("1", "orders", next(response), 2, 1, null);
+    assertThat(response.body().contains("\"value\":\"4\""), is(true));
+    assertThat(next(response), is(nullValue()));
+  }
+
+  @Test public void depth() throws Exception {
+    Response response = get("1", null, null, 1, 0, null);
+    assertThat(response.body(), is(
+        "{\"node\":{\"stack\":\".\",\"size\":2,\"nodes\":[]}}"));
+    response = get("1", null, null, 100, 2, null);
+    assertThat(response.body().contains("\"value\":\"john\""), is(true));
+    assertThat(next(response), is(nullValue()));
+  }
+
+  @Test public void notModified() throws Exception {
+    Response response = get("1", "orders", null, 2, 1, null);
+    String etag = response.headers.get("ETag");
+    response = get("1", "orders", null, 2, 1, etag);
+    assertThat(response.status, is(HttpServletResponse.SC_NOT_MODIFIED));
+    assertThat(response.body(), is(""));
+
+    response = get("1", "orders", null, 3, 1, etag);
+    assertThat(response.status, is(HttpServletResponse.SC_OK));
+  }
+
+  @Test public void replaced() throws Exception {
+    Response response = get("1", "orders", null, 2, 1, null);
+    String etag = response.headers.get("ETag");
+    String cursor = next(response);
+    journal.append(new Trace("1", "test", tree("jane")));
+
+    response = get("1", "orders", null, 2, 1, etag);
+    assertThat(response.status, is(HttpServletResponse.SC_OK));
+    assertThat(response.headers.get("ETag").equals(etag), is(false));
+    response = get("1", "orders", cursor, 2, 1, null);
+    assertThat(response.status, is(HttpServletResponse.SC_BAD_REQUEST));
+  }
+
+  @Test public void badRequest() throws Exception {
+    int bad = HttpServletResponse.SC_BAD_REQUEST;
+    assertThat(get("1", null, null, 0, 1, null).status, is(bad));
+    assertThat(get("1", null, null, DomainLogTraceController.MAX_LIMIT + 1,
+        1, null).status, is(bad));
+    assertThat(get("1", null, null, 1, -1, null).status, is(bad));
+    assertThat(get("1", null, null, 1,
+        DomainLogTraceController.MAX_DEPTH + 1, null).status, is(bad));
+
+    String cursor = next(get("1", "orders", null, 2, 1, null));
+    String fingerprint = cursor.substring(cursor.indexOf('.'));
+    assertThat(get("1", "orders", "x", 2, 1, null).status, is(bad));
+    assertThat(get("1", "orders", "4.0", 2, 1, null).status, is(bad));
+    assertThat(get("1", "orders", "x" + fingerprint, 2, 1, null).status,
+        is(bad));
+    assertThat(get("1", "orders", "1" + fingerprint, 2, 1, null).status,
+        is(bad));
+    assertThat(get("1", "customer", cursor, 2, 1, null).status, is(bad));
+  }
+
+  @Test public void notFound() throws Exception {
+    int notFound = HttpServletResponse.SC_NOT_FOUND;
+    assertThat(get("2", null, null, 2, 1, null).status, is(notFound));
+    assertThat(get("1", "payments", null, 2, 1, null).status, is(notFound));
+  }
+
+  private HttpServletRequest request(final String etag) {
+    return (HttpServletRequest) Proxy.newProxyInstance(
+        getClass().getClassLoader(), new Class<?>[] {HttpServletRequest.class},
+        new InvocationHandler() {
+          @Override
+          public Object invoke(final Object proxy, final Method method,
+              final Object[] args) {
+            switch (method.getName()) {
+            case "getMethod":
+              return "GET";
+            case "getHeader":
+              return "If-None-Match".equals(args[0]) ? etag : null;
+            case "getHeaders":
+              List<String> values = new ArrayList<>();
+              if ("If-None-Match".equals(args[0]) && etag != null) {
+                values.add(etag);
+              }
+              return Collections.enumeration(values);
+            case "getDateHeader":
+              return -1L;
+            default:
+              return empty(method.getReturnType());
+            }
+          }
+        });
+  }
+
+  private static Object empty(final Class<?> type) {
+    if (type == boolean.class) {
+      return false;
+    } else if (type == int.class) {
+      return 0;
+    } else if (type == long.class) {
+      return 0L;
+    }
+    return null;
+  }
+
+  private static final class Response implements InvocationHandler {
+
+    private int status = HttpServletResponse.SC_OK;
+
+    private final Map<String, String> headers = new HashMap<>();
+
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+    HttpServletResponse proxy() {
+      return (HttpServletResponse) Proxy.newProxyInstance(
+          getClass().getClassLoader(),
+          new Class<?>[] {HttpServletResponse.class}, this);
+    }
+
+    String body() {
+      return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public Object invoke(final Object proxy, final Method method,
+        final Object[] args) {
+      switch (method.getName()) {
+      case "sendError":
+      case "setStatus":
+        status = (Integer) args[0];
+        return null;
+      case "getStatus":
+        return status;
+      case "setHeader":
+      case "addHeader":
+        headers.put((String) args[0], (String) args[1]);
+        return null;
+      case "getHeader":
+        return headers.get(args[0]);
+      case "getOutputStream":
+        return new ServletOutputStream() {
+          @Override
+          public void write(final int b) {
+            body.write(b);
+          }
+
+          @Override
+          public boolean isReady() {
+            return true;
+          }
+
+          @Override
+          public void setWriteListener(final WriteListener listener) {
+          }
+        };
+      default:
+        return empty(method.getReturnType());
+      }
+    }
+  }
+
+}